@@ -161,7 +161,7 @@ public abstract class AbstractTwoPhaseLongIdGenerator implements LongIdGenerator
   /**
    * @return Whether this generator works in pooled mode or in Hi/Lo mode.
    */
-  private boolean isPooled() {
+  protected final boolean isPooled() {
     return pooled;
   }
 
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import static stincmale.idenator.internal.util.Utils.saturatedToNanos;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator} working in pooled mode
+ * which adapts the number of {@code lo} values used with a {@code hi} value to the rate at which identifiers are generated.
+ * <p>
+ * This ID generator requests a {@code hi} value with the sparseness {@code (n - 1)}
+ * (see {@link SparseLongIdGenerator#next(long)}) in order to generate {@code n} identifiers using this {@code hi} value,
+ * where {@code n} ∈ [{@linkplain #getMinLoUpperBoundOpen() minLoUpperBoundOpen};
+ * {@linkplain #getLoUpperBoundOpen() maxLoUpperBoundOpen}] and is initially equal to {@code minLoUpperBoundOpen}.
+ * If the time between two consecutive requests is less than {@linkplain #getTargetRefillInterval() targetRefillInterval},
+ * then {@code n} is doubled for the next request;
+ * if the time is not less than {@code 2 * targetRefillInterval}, then {@code n} is halved.
+ * Thus, this ID generator requests {@code hi} values approximately once per {@code targetRefillInterval} if possible,
+ * and does not waste many identifiers when it is used rarely.
+ * This approach is similar to the segment mode of <a href="https://github.com/Meituan-Dianping/Leaf">Leaf</a>.
+ * <p>
+ * {@link #tryNext()} and {@link #next(Duration)} generate new {@code hi} values via {@code refillExecutor}
+ * so that they do not have to wait for {@linkplain #getHiGenerator() hiGenerator} longer than allowed.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent if {@linkplain #getHiGenerator() hiGenerator} is persistent.
+ * </li>
+ * <li>
+ * This ID generator is strictly increasing if {@linkplain #getHiGenerator() hiGenerator} is strictly increasing,
+ * otherwise this ID generator is nonmonotonic.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class AdaptiveTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  private final SparseLongIdGenerator hiGenerator;
+  private final long minLoUpperBoundOpen;
+  private final Duration targetRefillInterval;
+  private final long targetRefillIntervalNanos;
+  private final SingleFlight refill;
+  private final Executor refillExecutor;
+  private volatile Block block;
+  /**
+   * Accessed only via {@link #refill}.
+   */
+  private long lastRefillNanos;
+
+  /**
+   * This constructor uses {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param hiGenerator See {@link #AdaptiveTwoPhaseLongIdGenerator(SparseLongIdGenerator, long, long, Duration, Executor)}.
+   * @param minLoUpperBoundOpen See {@link #AdaptiveTwoPhaseLongIdGenerator(SparseLongIdGenerator, long, long, Duration, Executor)}.
+   * @param maxLoUpperBoundOpen See {@link #AdaptiveTwoPhaseLongIdGenerator(SparseLongIdGenerator, long, long, Duration, Executor)}.
+   * @param targetRefillInterval See {@link #AdaptiveTwoPhaseLongIdGenerator(SparseLongIdGenerator, long, long, Duration, Executor)}.
+   */
+  public AdaptiveTwoPhaseLongIdGenerator(
+      final SparseLongIdGenerator hiGenerator,
+      final long minLoUpperBoundOpen,
+      final long maxLoUpperBoundOpen,
+      final Duration targetRefillInterval) {
+    this(hiGenerator, minLoUpperBoundOpen, maxLoUpperBoundOpen, targetRefillInterval, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param minLoUpperBoundOpen The minimal number of identifiers generated using the same {@code hi} value.
+   * Must be positive.
+   * @param maxLoUpperBoundOpen The maximal number of identifiers generated using the same {@code hi} value,
+   * see {@code loUpperBoundOpen} in {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * Must not be less than {@code minLoUpperBoundOpen}.
+   * @param targetRefillInterval The desired interval between requests of {@code hi} values. Must be positive.
+   * @param refillExecutor An {@link Executor} which is used to generate {@code hi} values
+   * when they are needed by {@link #tryNext()} or {@link #next(Duration)}.
+   * If it rejects a task, then these methods fail with the {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  public AdaptiveTwoPhaseLongIdGenerator(
+      final SparseLongIdGenerator hiGenerator,
+      final long minLoUpperBoundOpen,
+      final long maxLoUpperBoundOpen,
+      final Duration targetRefillInterval,
+      final Executor refillExecutor) {
+    super(hiGenerator, maxLoUpperBoundOpen, true);
+    checkArgument(minLoUpperBoundOpen > 0, "minLoUpperBoundOpen", "Must be positive");
+    checkArgument(minLoUpperBoundOpen <= maxLoUpperBoundOpen, "minLoUpperBoundOpen",
+        () -> format("Must not be greater than %s=%s", "maxLoUpperBoundOpen", maxLoUpperBoundOpen));
+    checkNotNull(targetRefillInterval, "targetRefillInterval");
+    checkArgument(!targetRefillInterval.isNegative() && !targetRefillInterval.isZero(), "targetRefillInterval", "Must be positive");
+    this.hiGenerator = hiGenerator;
+    this.minLoUpperBoundOpen = minLoUpperBoundOpen;
+    this.targetRefillInterval = targetRefillInterval;
+    targetRefillIntervalNanos = saturatedToNanos(targetRefillInterval);
+    refill = new SingleFlight();
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+    block = new Block(UNINITIALIZED, 0, 0);//an exhausted block
+  }
+
+  @Override
+  public final long next() {
+    while (true) {
+      final Block block = this.block;
+      final long lo = block.lo.getAndIncrement();
+      if (lo < block.loUpperBoundOpen) {//lo is fine, and it belongs to the same block as hi
+        return calculateId(block.hi, lo);
+      } else {//lo is too big, we probably need to advance the block
+        refill.run(() -> this.block == block, () -> advance(block));
+      }
+    }
+  }
+
+  /**
+   * Reserves {@code lo} values for many identifiers with a single atomic operation
+   * unless the reservation spans multiple {@code hi} values.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    for (int idx = 0; idx < ids.length; ) {
+      final Block block = this.block;
+      final int count = ids.length - idx;
+      final long lo = block.lo.getAndAdd(count);
+      if (lo < block.loUpperBoundOpen) {//lo is fine, and it belongs to the same block as hi
+        final int generatedCount = (int) Math.min(count, block.loUpperBoundOpen - lo);
+        for (int i = 0; i < generatedCount; i++) {
+          ids[idx + i] = calculateId(block.hi, lo + i);
+        }
+        idx += generatedCount;
+      } else {//lo is too big, we probably need to advance the block
+        refill.run(() -> this.block == block, () -> advance(block));
+      }
+    }
+  }
+
+  /**
+   * Does not wait for a concurrent refill, and initiates a refill via {@code refillExecutor} if needed.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    while (true) {
+      final Block block = this.block;
+      final long lo = block.lo.getAndIncrement();
+      if (lo < block.loUpperBoundOpen) {//lo is fine, and it belongs to the same block as hi
+        return OptionalLong.of(calculateId(block.hi, lo));
+      } else if (!refill.tryRun(() -> this.block == block, () -> advance(block), refillExecutor)) {//the refill is in progress
+        return OptionalLong.empty();
+      }
+    }
+  }
+
+  /**
+   * Waits only for refills, which are done via {@code refillExecutor}.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return refill.next(timeout, this::tryNext);
+  }
+
+  /**
+   * @return {@code minLoUpperBoundOpen} specified via
+   * {@link #AdaptiveTwoPhaseLongIdGenerator(SparseLongIdGenerator, long, long, Duration, Executor)}.
+   */
+  public final long getMinLoUpperBoundOpen() {
+    return minLoUpperBoundOpen;
+  }
+
+  /**
+   * @return {@code targetRefillInterval} specified via
+   * {@link #AdaptiveTwoPhaseLongIdGenerator(SparseLongIdGenerator, long, long, Duration, Executor)}.
+   */
+  public final Duration getTargetRefillInterval() {
+    return targetRefillInterval;
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   */
+  private final void advance(final Block exhaustedBlock) {
+    final long loUpperBoundOpen;
+    final long nowNanos = System.nanoTime();
+    if (exhaustedBlock.hi == UNINITIALIZED) {
+      loUpperBoundOpen = minLoUpperBoundOpen;
+    } else {
+      final long refillIntervalNanos = nowNanos - lastRefillNanos;
+      if (refillIntervalNanos < targetRefillIntervalNanos) {//identifiers are generated too fast
+        loUpperBoundOpen = Math.min(saturatedMultiplyBy2(exhaustedBlock.loUpperBoundOpen), getLoUpperBoundOpen());
+      } else if (refillIntervalNanos / 2 >= targetRefillIntervalNanos) {//identifiers are generated too slow
+        loUpperBoundOpen = Math.max(exhaustedBlock.loUpperBoundOpen / 2, minLoUpperBoundOpen);
+      } else {
+        loUpperBoundOpen = exhaustedBlock.loUpperBoundOpen;
+      }
+    }
+    block = new Block(nextHi(loUpperBoundOpen - 1), 0, loUpperBoundOpen);
+    lastRefillNanos = nowNanos;
+  }
+
+  /**
+   * This method is similar to {@link #nextHi()}, but generates {@code hi} values with the specified {@code sparseness}.
+   */
+  private final long nextHi(final long sparseness) {
+    final long hi = hiGenerator.next(sparseness);
+    return hi == UNINITIALIZED ? hiGenerator.next(sparseness) : hi;
+  }
+
+  private static final long saturatedMultiplyBy2(final long v) {
+    return v > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : 2 * v;
+  }
+
+  @ThreadSafe
+  private static final class Block {
+    private final long hi;
+    private final AtomicLong lo;
+    private final long loUpperBoundOpen;
+
+    private Block(final long hi, final long lo, final long loUpperBoundOpen) {
+      this.hi = hi;
+      this.lo = new AtomicLong(lo);
+      this.loUpperBoundOpen = loUpperBoundOpen;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+
+/**
+ * A generator of long identifiers which does not block threads that request identifiers.
+ * See {@link stincmale.idenator} to read more about ID generators.
+ * <p>
+ * An implementation of {@link LongIdGenerator} may also implement this interface, e.g. a {@code hi} value generator
+ * backed by a non-blocking database driver, in which case {@link ConcurrentTwoPhaseLongIdGenerator} uses {@link #nextAsync()}
+ * to generate {@code hi} values for {@link ConcurrentTwoPhaseLongIdGenerator#nextAsync()}.
+ */
+@FunctionalInterface
+public interface AsyncLongIdGenerator {
+  /**
+   * Must not block the current thread.
+   *
+   * @return A stage which is completed with a newly generated identifier.
+   */
+  CompletionStage<Long> nextAsync();
+
+  /**
+   * Generates identifiers as if by calling {@link #nextAsync()} {@code n} times, each time after the previous stage completes.
+   * Implementations may generate identifiers more efficiently than that, e.g. by reserving many of them at once.
+   * <p>
+   * The default implementation calls {@link #nextAsync()} for each identifier.
+   *
+   * @param n The number of identifiers to generate. Must not be negative.
+   * @return A stage which is completed with an array of {@code n} newly generated identifiers.
+   */
+  default CompletionStage<long[]> nextAsync(final int n) {
+    checkArgument(n >= 0, "n", "Must not be negative");
+    final long[] ids = new long[n];
+    CompletionStage<Void> stage = CompletableFuture.completedFuture(null);
+    for (int i = 0; i < n; i++) {
+      final int idx = i;
+      stage = stage.thenCompose(v -> nextAsync())
+          .thenAccept(id -> ids[idx] = id);
+    }
+    return stage.thenApply(v -> ids);
+  }
+}
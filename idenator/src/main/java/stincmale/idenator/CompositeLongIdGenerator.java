@@ -0,0 +1,328 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Constants.EXCLUDE_ASSERTIONS_FROM_BYTECODE;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import static stincmale.idenator.internal.util.Utils.saturatedToNanos;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} {@link LongIdGenerator} which joins the ranges of multiple compatible
+ * (see {@link stincmale.idenator}) ID generators, called sources,
+ * e.g. two database sequences on different database servers, one of which generates only even numbers and the other one only odd numbers.
+ * This ID generator is intended to be used as a {@code hi} value generator, so that a single slow or unavailable source
+ * does not prevent an {@link AbstractTwoPhaseLongIdGenerator} from generating new {@code hi} values.
+ * <p>
+ * Each call to {@link #next()} is routed to the source with the smallest product of its average latency
+ * and the number of calls to it that are in progress.
+ * A small fraction of calls is routed to a random source, so that the average latency of a source which is not chosen is still updated.
+ * If a source fails, then it is not chosen for {@linkplain #getQuarantineDuration() quarantineDuration} unless all other sources
+ * are also in quarantine, and the call is routed to another source.
+ * If all sources fail, then {@link #next()} fails with {@link LongIdGeneratorUnavailableException}.
+ * <p>
+ * The order of identifiers depends on the specified {@link IdOrdering}:
+ * <ul>
+ * <li>
+ * {@link IdOrdering#RELAXED} — identifiers generated by different sources are not ordered,
+ * e.g. if one source generates 0, 2, 4 and the other one generates 101, 103, 105,
+ * then this ID generator may generate 0, 101, 2, 103, 4, 105.
+ * Calls to {@link #next()} may be routed to sources concurrently, so all sources must be {@linkplain ThreadSafe thread-safe}.
+ * </li>
+ * <li>
+ * {@link IdOrdering#LINEARIZABLE_MONOTONIC} — calls to {@link #next()} are serialized,
+ * and an identifier which is not greater than the last generated one is discarded,
+ * in which case the call is routed to another source, and eventually to the source which generated the last identifier.
+ * This requires all sources to be strictly increasing, and their identifiers to not overflow.
+ * The more sources diverge, the more identifiers are discarded.
+ * </li>
+ * </ul>
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent if all sources are persistent.
+ * </li>
+ * <li>
+ * This ID generator is strictly increasing in the {@link IdOrdering#LINEARIZABLE_MONOTONIC} mode, otherwise it is nonmonotonic.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class CompositeLongIdGenerator implements LongIdGenerator {
+  /**
+   * The weight of the latest latency in the exponentially weighted moving average latency of a source.
+   */
+  private static final double LATENCY_SMOOTHING = 0.2;
+  /**
+   * The reciprocal of the fraction of calls which are routed to a random source.
+   */
+  private static final int EXPLORATION_PERIOD = 16;
+
+  private final Source[] sources;
+  private final IdOrdering ordering;
+  private final Duration quarantineDuration;
+  private final long quarantineDurationNanos;
+  /**
+   * Serializes calls to {@link #next()} in the {@link IdOrdering#LINEARIZABLE_MONOTONIC} mode and guards all fields below it.
+   */
+  private final Lock monotonicLock;
+  private long lastId;
+  @Nullable
+  private Source lastIdSource;
+
+  /**
+   * @param sources Compatible (see {@link stincmale.idenator}) ID generators. Must not be empty.
+   * @param ordering The guaranteed order of generated identifiers.
+   * @param quarantineDuration The duration for which a source that has failed is not chosen unless all other sources are in quarantine.
+   * Must not be negative.
+   */
+  public CompositeLongIdGenerator(final List<? extends LongIdGenerator> sources, final IdOrdering ordering, final Duration quarantineDuration) {
+    checkNotNull(sources, "sources");
+    checkArgument(!sources.isEmpty(), "sources", "Must not be empty");
+    this.sources = new Source[sources.size()];
+    for (int sourceIdx = 0; sourceIdx < this.sources.length; sourceIdx++) {
+      this.sources[sourceIdx] = new Source(checkNotNull(sources.get(sourceIdx), format("sources[%s]", sourceIdx)));
+    }
+    this.ordering = checkNotNull(ordering, "ordering");
+    checkNotNull(quarantineDuration, "quarantineDuration");
+    checkArgument(!quarantineDuration.isNegative(), "quarantineDuration", "Must not be negative");
+    this.quarantineDuration = quarantineDuration;
+    //bigger durations may not be compared correctly with the difference of System.nanoTime() values
+    quarantineDurationNanos = Math.min(saturatedToNanos(quarantineDuration), Long.MAX_VALUE / 2);
+    monotonicLock = new ReentrantLock();
+    lastId = 0;
+    lastIdSource = null;
+  }
+
+  /**
+   * @throws LongIdGeneratorUnavailableException If all sources failed.
+   * The exception thrown by the first failed source is the {@linkplain Throwable#getCause() cause},
+   * and exceptions thrown by other sources are {@linkplain Throwable#getSuppressed() suppressed}.
+   */
+  @Override
+  public final long next() {
+    if (ordering == IdOrdering.LINEARIZABLE_MONOTONIC) {
+      monotonicLock.lock();
+      try {
+        return nextMonotonic();
+      } finally {
+        monotonicLock.unlock();
+      }
+    } else {
+      return nextRelaxed();
+    }
+  }
+
+  /**
+   * @return {@code ordering} specified via {@link #CompositeLongIdGenerator(List, IdOrdering, Duration)}.
+   */
+  public final IdOrdering getOrdering() {
+    return ordering;
+  }
+
+  /**
+   * @return {@code quarantineDuration} specified via {@link #CompositeLongIdGenerator(List, IdOrdering, Duration)}.
+   */
+  public final Duration getQuarantineDuration() {
+    return quarantineDuration;
+  }
+
+  @Override
+  public final String toString() {
+    final StringBuilder sources = new StringBuilder("[");
+    for (int i = 0; i < this.sources.length; i++) {
+      if (i > 0) {
+        sources.append(", ");
+      }
+      sources.append(this.sources[i]);
+    }
+    sources.append(']');
+    return getClass().getSimpleName() +
+        "{sources=" + sources +
+        ", ordering=" + ordering +
+        ", quarantineDuration=" + quarantineDuration +
+        '}';
+  }
+
+  private final long nextRelaxed() {
+    final boolean[] tried = new boolean[sources.length];
+    @Nullable
+    LongIdGeneratorUnavailableException unavailable = null;
+    for (int numberOfTried = 0; numberOfTried < sources.length; numberOfTried++) {
+      final Source source = choose(tried);
+      try {
+        return source.next(quarantineDurationNanos);
+      } catch (final RuntimeException e) {
+        unavailable = addFailure(unavailable, e);
+      }
+    }
+    assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || unavailable != null;
+    throw unavailable;
+  }
+
+  /**
+   * Must be called only by a thread holding the {@link #monotonicLock}.
+   */
+  private final long nextMonotonic() {
+    final boolean[] tried = new boolean[sources.length];
+    @Nullable
+    LongIdGeneratorUnavailableException unavailable = null;
+    for (int numberOfTried = 0; numberOfTried < sources.length; numberOfTried++) {
+      //the source which generated the last identifier is eventually tried, and it generates a greater identifier unless it fails
+      final Source source = choose(tried);
+      final long id;
+      try {
+        id = source.next(quarantineDurationNanos);
+      } catch (final RuntimeException e) {
+        unavailable = addFailure(unavailable, e);
+        continue;
+      }
+      if (lastIdSource == null || id > lastId) {
+        lastId = id;
+        lastIdSource = source;
+        return id;
+      } else {//the source lags behind the source which generated the last identifier, the identifier is lost
+        source.quarantine(quarantineDurationNanos);
+      }
+    }
+    if (unavailable == null) {//this is possible only if the sources are not strictly increasing
+      throw new LongIdGeneratorUnavailableException(format("All sources generated identifiers not greater than %s", lastId), null);
+    }
+    throw unavailable;
+  }
+
+  /**
+   * Chooses the best source among those which have not been {@code tried}, and marks it as {@code tried}.
+   * Must be called only if not all sources have been {@code tried}.
+   */
+  private final Source choose(final boolean[] tried) {
+    final long nowNanos = System.nanoTime();
+    if (ThreadLocalRandom.current().nextInt(EXPLORATION_PERIOD) == 0) {
+      final int start = ThreadLocalRandom.current().nextInt(sources.length);
+      for (int i = 0; i < sources.length; i++) {
+        final int idx = (start + i) % sources.length;
+        if (!tried[idx] && !sources[idx].quarantined(nowNanos)) {
+          tried[idx] = true;
+          return sources[idx];
+        }
+      }
+    }
+    int bestIdx = -1;
+    boolean bestQuarantined = true;
+    double bestScore = Double.MAX_VALUE;
+    for (int i = 0; i < sources.length; i++) {
+      if (!tried[i]) {
+        final Source source = sources[i];
+        final boolean quarantined = source.quarantined(nowNanos);
+        final double score = source.score();
+        if (bestIdx == -1 || (bestQuarantined && !quarantined) || (bestQuarantined == quarantined && score < bestScore)) {
+          bestIdx = i;
+          bestQuarantined = quarantined;
+          bestScore = score;
+        }
+      }
+    }
+    assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || bestIdx != -1;
+    tried[bestIdx] = true;
+    return sources[bestIdx];
+  }
+
+  private static final LongIdGeneratorUnavailableException addFailure(
+      @Nullable final LongIdGeneratorUnavailableException unavailable,
+      final RuntimeException failure) {
+    if (unavailable == null) {
+      return new LongIdGeneratorUnavailableException("All sources failed", failure);
+    } else {
+      unavailable.addSuppressed(failure);
+      return unavailable;
+    }
+  }
+
+  @ThreadSafe
+  private static final class Source {
+    private final LongIdGenerator idGenerator;
+    /**
+     * The exponentially weighted moving average latency in nanoseconds represented via {@link Double#doubleToRawLongBits(double)}.
+     */
+    private final AtomicLong averageLatencyNanos;
+    private final AtomicInteger numberOfCallsInProgress;
+    /**
+     * The {@link System#nanoTime()} value after which the quarantine ends.
+     */
+    private volatile long quarantineEndNanos;
+    private volatile boolean quarantinedEver;
+
+    private Source(final LongIdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+      averageLatencyNanos = new AtomicLong(Double.doubleToRawLongBits(0));
+      numberOfCallsInProgress = new AtomicInteger();
+      quarantineEndNanos = 0;
+      quarantinedEver = false;
+    }
+
+    private final long next(final long quarantineDurationNanos) {
+      numberOfCallsInProgress.getAndIncrement();
+      final long startNanos = System.nanoTime();
+      try {
+        final long id = idGenerator.next();
+        final double latencyNanos = System.nanoTime() - startNanos;
+        averageLatencyNanos.getAndUpdate(average -> Double.doubleToRawLongBits(
+            (1 - LATENCY_SMOOTHING) * Double.longBitsToDouble(average) + LATENCY_SMOOTHING * latencyNanos));
+        return id;
+      } catch (final RuntimeException e) {
+        quarantine(quarantineDurationNanos);
+        throw e;
+      } finally {
+        numberOfCallsInProgress.getAndDecrement();
+      }
+    }
+
+    private final void quarantine(final long quarantineDurationNanos) {
+      quarantineEndNanos = System.nanoTime() + quarantineDurationNanos;
+      quarantinedEver = true;
+    }
+
+    private final boolean quarantined(final long nowNanos) {
+      return quarantinedEver && nowNanos - quarantineEndNanos < 0;
+    }
+
+    /**
+     * @return The smaller, the better.
+     */
+    private final double score() {
+      return Double.longBitsToDouble(averageLatencyNanos.get()) * (numberOfCallsInProgress.get() + 1);
+    }
+
+    @Override
+    public final String toString() {
+      return getClass().getSimpleName() +
+          "{idGenerator=" + idGenerator +
+          ", averageLatencyNanos=" + Math.round(Double.longBitsToDouble(averageLatencyNanos.get())) +
+          '}';
+    }
+  }
+}
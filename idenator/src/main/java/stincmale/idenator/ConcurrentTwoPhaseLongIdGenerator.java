@@ -15,83 +15,719 @@
  */
 package stincmale.idenator;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.StampedLock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import stincmale.idenator.RemainderStore.Remainder;
+import stincmale.idenator.doc.Immutable;
+import stincmale.idenator.doc.NotThreadSafe;
+import stincmale.idenator.doc.Nullable;
 import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.RetryBudget;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Constants.EXCLUDE_ASSERTIONS_FROM_BYTECODE;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import stincmale.idenator.internal.util.VirtualThreads;
 
 /**
  * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}.
+ * <p>
+ * {@code Lo} values are reserved by incrementing a counter which is never reset:
+ * the counter value {@code c} stands for the {@code lo} value {@code c % loUpperBoundOpen}
+ * used with the {@code (c / loUpperBoundOpen)}-th {@code hi} value (block).
+ * Hence a thread which reserves a {@code lo} value beyond the current block does not waste it,
+ * but waits for the next block to be published and uses the reserved {@code lo} value with it,
+ * so a single refill satisfies all threads which reserved {@code lo} values of the next block.
+ * A reserved {@code lo} value is lost only if the block it belongs to is superseded by many newer blocks
+ * before the thread that reserved it gets a chance to use it.
+ * <p>
+ * This ID generator provides the {@linkplain #getOrdering() ordering} specified at construction.
+ * In the {@link IdOrdering#RELAXED} mode {@link #next()} and {@link #tryNext()} use counter values reserved for the current thread
+ * in chunks, so that threads rarely contend for the counter;
+ * other methods, as well as all methods called by virtual threads,
+ * reserve counter values the same way they do in the {@link IdOrdering#LINEARIZABLE_MONOTONIC} mode.
+ * <p>
+ * A new {@code hi} value is generated by a single thread which does not hold any lock while doing so (single-flight refill).
+ * Other threads that need the new {@code hi} value wait for the refill to complete by using a {@link WaitStrategy}, and if the refill fails,
+ * they fail with the same exception instead of repeating the refill one after another.
+ * Since neither the refilling thread nor the waiting threads hold monitors, virtual threads do not pin their carrier threads
+ * while waiting for {@linkplain #getHiGenerator() hiGenerator}.
+ * <p>
+ * {@link #tryNext()}, {@link #next(Duration)} and {@link #nextAsync()} generate new {@code hi} values via {@code refillExecutor}
+ * so that they do not have to wait for {@linkplain #getHiGenerator() hiGenerator} longer than allowed.
+ * If {@linkplain #getHiGenerator() hiGenerator} also implements {@link AsyncLongIdGenerator},
+ * then these methods use {@link AsyncLongIdGenerator#nextAsync()} instead of {@code refillExecutor} to generate {@code hi} values.
+ * <p>
+ * If a {@link RemainderStore} is specified in the {@link IdOrdering#RELAXED} mode,
+ * then {@link #close()} stores the unused {@code lo} values of the current {@code hi} value there,
+ * and this ID generator uses the stored remainders instead of generating new {@code hi} values until there are no stored remainders left.
+ * Remainders are neither stored nor used in the {@link IdOrdering#LINEARIZABLE_MONOTONIC} mode
+ * because {@code hi} values of stored remainders are not ordered with respect to each other and to new {@code hi} values.
  */
 @ThreadSafe
-public final class ConcurrentTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
-  private final StampedLock lock;
-  private final AtomicLong lo;
-  private volatile long hi;
+public final class ConcurrentTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator implements AsyncLongIdGenerator, AutoCloseable {
+  /**
+   * The number of the most recent blocks which can be used.
+   */
+  private static final int BLOCK_HISTORY_SIZE = 16;
+  private static final long MAX_CHUNK_SIZE = 256;
+  /**
+   * The value {@link #close()} sets the {@link #counter} to, so that all counter values reserved after closing are not less than this value.
+   * The counter never reaches this value otherwise.
+   */
+  private static final long CLOSED = Long.MAX_VALUE / 2;
 
+  private final AtomicLong counter;
+  private final AtomicReferenceArray<Block> blocks;
   /**
+   * The index of the most recently published block, or -1 if there are no blocks.
+   */
+  private volatile long blockIdx;
+  private final SingleFlight refill;
+  private final Executor refillExecutor;
+  @Nullable
+  private final AsyncLongIdGenerator asyncHiGenerator;
+  private final IdOrdering ordering;
+  /**
+   * Counter values reserved for each thread, or null if the {@link #ordering} is not {@link IdOrdering#RELAXED}.
+   */
+  @Nullable
+  private final ThreadLocal<Chunk> chunks;
+  private final long chunkSize;
+  private final RetryBudget retryBudget;
+  @Nullable
+  private final RemainderStore remainderStore;
+  /**
+   * Whether this ID generator must not {@linkplain RemainderStore#poll() poll} {@link #remainderStore} anymore.
+   * Accessed only via {@link #refill}.
+   */
+  private boolean remaindersExhausted;
+
+  /**
+   * This constructor uses {@link IdOrdering#LINEARIZABLE_MONOTONIC} as {@code ordering},
+   * and {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
    * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
    * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
    * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
    */
   public ConcurrentTwoPhaseLongIdGenerator(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+    this(hiGenerator, loUpperBoundOpen, pooled, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param refillExecutor See {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   */
+  public ConcurrentTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final Executor refillExecutor) {
+    this(hiGenerator, loUpperBoundOpen, pooled, IdOrdering.LINEARIZABLE_MONOTONIC, refillExecutor);
+  }
+
+  /**
+   * This constructor uses {@link WaitStrategy#parking()} as {@code waitStrategy}.
+   *
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param ordering See {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   * @param refillExecutor See {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   */
+  public ConcurrentTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final IdOrdering ordering,
+      final Executor refillExecutor) {
+    this(hiGenerator, loUpperBoundOpen, pooled, ordering, WaitStrategy.parking(), refillExecutor);
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param ordering The guaranteed order of generated identifiers.
+   * @param waitStrategy A {@link WaitStrategy} which is used by threads waiting for a concurrent refill,
+   * i.e. for a new {@code hi} value generated by another thread.
+   * @param refillExecutor An {@link Executor} which is used to generate {@code hi} values
+   * when they are needed by {@link #tryNext()}, {@link #next(Duration)} or {@link #nextAsync()},
+   * and to complete futures returned by {@link #nextAsync()} and {@link #nextAsync(int)} if they were not completed immediately.
+   * If it rejects a task, then these methods fail with the {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  public ConcurrentTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final IdOrdering ordering,
+      final WaitStrategy waitStrategy,
+      final Executor refillExecutor) {
+    this(hiGenerator, loUpperBoundOpen, pooled, ordering, waitStrategy, refillExecutor, null);
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param ordering See {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   * @param waitStrategy See {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   * @param refillExecutor See {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   * @param remainderStore A {@link RemainderStore} where {@link #close()} stores the unused {@code lo} values,
+   * and from which this ID generator takes remainders, or null if remainders are not stored.
+   * It is ignored unless the {@code ordering} is {@link IdOrdering#RELAXED}.
+   * {@link RemainderStore#poll()} is called by threads that generate new {@code hi} values, i.e. the same way {@code hiGenerator} is called;
+   * if it fails, then the refill fails with the {@link UncheckedIOException}.
+   * Remainders stored with a different {@code loUpperBoundOpen} or {@code pooled} are skipped,
+   * and are {@linkplain RemainderStore#put(Remainder) put} back to the store after the refill has polled a remainder it can use or found none.
+   */
+  public ConcurrentTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final IdOrdering ordering,
+      final WaitStrategy waitStrategy,
+      final Executor refillExecutor,
+      @Nullable final RemainderStore remainderStore) {
     super(hiGenerator, loUpperBoundOpen, pooled);
-    lock = new StampedLock();
-    lo = new AtomicLong(-1);
-    hi = UNINITIALIZED;
+    this.ordering = checkNotNull(ordering, "ordering");
+    chunks = ordering == IdOrdering.RELAXED ? ThreadLocal.withInitial(Chunk::new) : null;
+    chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, loUpperBoundOpen / 16));
+    retryBudget = new RetryBudget(1, 4, 64);
+    counter = new AtomicLong();
+    blocks = new AtomicReferenceArray<>(BLOCK_HISTORY_SIZE);
+    blockIdx = -1;
+    refill = new SingleFlight(checkNotNull(waitStrategy, "waitStrategy"));
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+    asyncHiGenerator = hiGenerator instanceof AsyncLongIdGenerator ? (AsyncLongIdGenerator) hiGenerator : null;
+    this.remainderStore = remainderStore;
+    remaindersExhausted = remainderStore == null || ordering != IdOrdering.RELAXED;
   }
 
+  /**
+   * If this method fails because a refill fails, then it returns the reserved {@code lo} value
+   * unless another thread has reserved a {@code lo} value after it.
+   *
+   * @throws IllegalStateException If this ID generator is {@linkplain #close() closed}.
+   */
   @Override
   public final long next() {
     final long loUpperBoundOpen = getLoUpperBoundOpen();
-    long hi = UNINITIALIZED;
-    long lo = -1;
-    final int maxAttempts = 4;
-    for (int attemptIdx = 0; attemptIdx <= maxAttempts; attemptIdx++) {
-      final boolean optimisticAttempt = attemptIdx < maxAttempts;
-      if (optimisticAttempt) {
-        hi = initializedHi();
-        lo = this.lo.incrementAndGet();
+    while (true) {
+      final long c = checkNotClosed(reserve());
+      final long blockIdx = c / loUpperBoundOpen;
+      try {
+        refill(blockIdx);
+      } catch (final RuntimeException e) {
+        unreserve(c);
+        throw e;
+      }
+      @Nullable
+      final Block block = block(blockIdx);
+      if (block != null && c % loUpperBoundOpen >= block.lo) {
+        return calculateId(block.hi, c % loUpperBoundOpen);
+      }//else either the block was superseded before we used it, or it is a remainder which does not contain the reserved lo value,
+      //so the reserved lo value is lost and we need to reserve another one
+    }
+  }
+
+  /**
+   * Reserves {@code lo} values for many identifiers with a single atomic operation,
+   * even if the reservation spans multiple {@code hi} values.
+   *
+   * @throws IllegalStateException If this ID generator is {@linkplain #close() closed}.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    long c = 0;
+    long cEnd = 0;
+    for (int idx = 0; idx < ids.length; ) {
+      if (c == cEnd) {
+        c = checkNotClosed(counter.getAndAdd(ids.length - idx));
+        cEnd = c + ids.length - idx;
+      }
+      final long blockIdx = c / loUpperBoundOpen;
+      try {
+        refill(blockIdx);
+      } catch (final RuntimeException e) {
+        counter.compareAndSet(cEnd, c);
+        throw e;
       }
-      if (lo >= loUpperBoundOpen ||//lo is too big, we probably need to reset lo and advance hi
-          !optimisticAttempt) {//no optimistic attempts left, it's time to use locking
-        final long exclusiveStamp = lock.writeLock();
-        try {
-          lo = this.lo.incrementAndGet();
-          if (lo >= loUpperBoundOpen) {//re-check whether we still need to reset lo and advance hi
-            hi = nextHi();
-            this.hi = hi;
-            lo = 0;
-            this.lo.set(lo);
-          } else {//lo is fine, but we still need to read hi under the exclusive lock to make sure that hi+lo read is atomic
-            hi = this.hi;
+      @Nullable
+      final Block block = block(blockIdx);
+      final long blockCount = Math.min(cEnd - c, loUpperBoundOpen - c % loUpperBoundOpen);
+      if (block != null) {
+        for (final long blockCEnd = c + blockCount; c < blockCEnd; c++) {
+          if (c % loUpperBoundOpen >= block.lo) {//otherwise the block is a remainder which does not contain the reserved lo value
+            ids[idx++] = calculateId(block.hi, c % loUpperBoundOpen);
           }
-          break;//hi+lo read was atomic because it was made under the exclusive lock
-        } finally {
-          lock.unlockWrite(exclusiveStamp);
         }
-      } else {//lo is fine, check whether optimistic read succeeded
-        if (this.hi == hi) {//optimistic read succeeded, hence read hi+lo was atomic and we can break the loop
-          break;
-        }//else continue this while loop because hi was changed while we were reading lo, so we can't guarantee that the hi+lo read is atomic
+      } else {//the block was superseded before we used it, so the reserved lo values are lost
+        c += blockCount;
       }
     }
-    return calculateId(hi, lo);
   }
 
-  private final long initializedHi() {
-    long hi = this.hi;
-    if (hi == UNINITIALIZED) {
-      final long exclusiveStamp = lock.writeLock();
-      try {
-        hi = this.hi;
-        if (hi == UNINITIALIZED) {
-          hi = nextHi();
-          this.hi = hi;
+  /**
+   * Does not wait for a concurrent refill, and initiates a refill via {@code refillExecutor} if needed.
+   * May return an empty {@link OptionalLong} if {@code hi} changes concurrently too often.
+   * The number of attempts made before giving up is the {@linkplain #getRetryBudget() retry budget}.
+   *
+   * @throws IllegalStateException If this ID generator is {@linkplain #close() closed}.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    final int maxAttempts = retryBudget.get();
+    int validations = 0;
+    int failedValidations = 0;
+    OptionalLong result = OptionalLong.empty();
+    for (int attemptIdx = 0; attemptIdx < maxAttempts; attemptIdx++) {
+      if (!tryRefill(checkNotClosed(peek()) / loUpperBoundOpen)) {//the refill is in progress, so we do not reserve a lo value we cannot use
+        break;
+      }
+      final long c = checkNotClosed(reserve());
+      @Nullable
+      final Block block = block(c / loUpperBoundOpen);
+      validations++;
+      if (block != null && c % loUpperBoundOpen >= block.lo) {
+        result = OptionalLong.of(calculateId(block.hi, c % loUpperBoundOpen));
+        break;
+      } else {
+        failedValidations++;
+        if (block == null && c / loUpperBoundOpen > blockIdx) {//concurrent threads have reserved all lo values of the published block
+          unreserve(c);
+        }//else either the block was superseded before we used it, or it is a remainder which does not contain the reserved lo value,
+        //so the reserved lo value is lost, because reserving it again would give the same outcome
+      }
+    }
+    retryBudget.record(validations, failedValidations);
+    return result;
+  }
+
+  /**
+   * Waits only for refills, which are done via {@code refillExecutor}.
+   *
+   * @throws IllegalStateException If this ID generator is {@linkplain #close() closed}.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return refill.next(timeout, this::tryNext);
+  }
+
+  /**
+   * Completes the returned future immediately if an identifier can be generated without waiting,
+   * otherwise completes it via {@code refillExecutor} after a refill.
+   * The {@code lo} value reserved by this method is used with the {@code hi} value generated by the refill.
+   * If this ID generator is {@linkplain #close() closed}, then the returned future is completed with the {@link IllegalStateException}.
+   */
+  @Override
+  public final CompletableFuture<Long> nextAsync() {
+    final long c = counter.getAndIncrement();
+    return c >= CLOSED ? CompletableFuture.failedFuture(closedException()) : nextAsync(c);
+  }
+
+  private final CompletableFuture<Long> nextAsync(final long c) {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    final long blockIdx = c / loUpperBoundOpen;
+    while (true) {
+      @Nullable
+      final Block block = block(blockIdx);
+      if (block != null) {
+        return c % loUpperBoundOpen >= block.lo
+            ? CompletableFuture.completedFuture(calculateId(block.hi, c % loUpperBoundOpen))
+            : nextAsync();//the block is a remainder which does not contain the reserved lo value, so the reserved lo value is lost
+      } else if (this.blockIdx >= blockIdx) {//the block was superseded before we used it, so the reserved lo value is lost
+        return nextAsync();
+      } else {
+        @Nullable
+        final CompletableFuture<Void> refill = initiateRefill(blockIdx);
+        if (inProgressOrFailed(refill)) {//if the refill has failed, then the returned future fails with the same exception
+          return refill.thenComposeAsync(v -> nextAsync(c), refillExecutor);
         }
-      } finally {
-        lock.unlockWrite(exclusiveStamp);
       }
     }
-    return hi;
+  }
+
+  /**
+   * Completes the returned future immediately if identifiers can be generated without waiting,
+   * otherwise completes it via {@code refillExecutor} after one or more refills.
+   * Reserves {@code lo} values for many identifiers with a single atomic operation,
+   * even if the reservation spans multiple {@code hi} values.
+   * If this ID generator is {@linkplain #close() closed}, then the returned future is completed with the {@link IllegalStateException}.
+   */
+  @Override
+  public final CompletableFuture<long[]> nextAsync(final int n) {
+    checkArgument(n >= 0, "n", "Must not be negative");
+    return nextAsync(new long[n], 0, 0, 0);
+  }
+
+  /**
+   * @param c The first reserved counter value which has not been used yet.
+   * @param cEnd The counter value after the last reserved one.
+   */
+  private final CompletableFuture<long[]> nextAsync(final long[] ids, final int fromIdx, final long c, final long cEnd) {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    long remainingC = c;
+    long remainingCEnd = cEnd;
+    for (int idx = fromIdx; idx < ids.length; ) {
+      if (remainingC == remainingCEnd) {
+        remainingC = counter.getAndAdd(ids.length - idx);
+        remainingCEnd = remainingC + ids.length - idx;
+        if (remainingC >= CLOSED) {
+          return CompletableFuture.failedFuture(closedException());
+        }
+      }
+      final long blockIdx = remainingC / loUpperBoundOpen;
+      @Nullable
+      final Block block = block(blockIdx);
+      final long blockCount = Math.min(remainingCEnd - remainingC, loUpperBoundOpen - remainingC % loUpperBoundOpen);
+      if (block != null) {
+        for (final long blockCEnd = remainingC + blockCount; remainingC < blockCEnd; remainingC++) {
+          if (remainingC % loUpperBoundOpen >= block.lo) {//otherwise the block is a remainder which does not contain the reserved lo value
+            ids[idx++] = calculateId(block.hi, remainingC % loUpperBoundOpen);
+          }
+        }
+      } else if (this.blockIdx >= blockIdx) {//the block was superseded before we used it, so the reserved lo values are lost
+        remainingC += blockCount;
+      } else {
+        @Nullable
+        final CompletableFuture<Void> refill = initiateRefill(blockIdx);
+        if (inProgressOrFailed(refill)) {//if the refill has failed, then the returned future fails with the same exception
+          final int remainingFromIdx = idx;
+          final long refillC = remainingC;
+          final long refillCEnd = remainingCEnd;
+          return refill.thenComposeAsync(v -> nextAsync(ids, remainingFromIdx, refillC, refillCEnd), refillExecutor);
+        }
+      }
+    }
+    return CompletableFuture.completedFuture(ids);
+  }
+
+  /**
+   * @return {@code ordering} specified via {@link #ConcurrentTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, IdOrdering, WaitStrategy, Executor)}.
+   */
+  public final IdOrdering getOrdering() {
+    return ordering;
+  }
+
+  /**
+   * The retry budget is adjusted automatically based on the {@linkplain #getRetryFailureRate() failure rate}:
+   * it is kept small while attempts rarely fail and grows when {@code hi} changes concurrently often,
+   * so that {@link #tryNext()} neither gives up too early nor spins for long when it could have succeeded.
+   * This method is intended for monitoring.
+   *
+   * @return The maximal number of attempts {@link #tryNext()} makes before returning an empty {@link OptionalLong}.
+   */
+  public final int getRetryBudget() {
+    return retryBudget.get();
+  }
+
+  /**
+   * Returns an estimate of the fraction of {@link #tryNext()} attempts that fail
+   * because concurrent threads reserved all {@code lo} values of the current {@code hi} value.
+   * This method is intended for monitoring.
+   *
+   * @return A value in [0, 1].
+   */
+  public final double getRetryFailureRate() {
+    return retryBudget.getFailureRate();
+  }
+
+  /**
+   * Stops generating identifiers and {@linkplain RemainderStore#put(Remainder) stores} the {@code lo} values
+   * which have not been reserved yet for the current {@code hi} value,
+   * if a {@link RemainderStore} was specified and the {@linkplain #getOrdering() ordering} is {@link IdOrdering#RELAXED}.
+   * Calls that have reserved {@code lo} values before this method was called complete normally,
+   * while other calls fail with the {@link IllegalStateException}.
+   * {@code Lo} values reserved by other threads in advance in the {@link IdOrdering#RELAXED} mode are not stored,
+   * but remain usable by these threads, while the ones reserved by the current thread are stored if possible.
+   * Nothing is stored if a refill was in progress when this method was called.
+   * Calling this method more than once has no effect.
+   *
+   * @throws IOException If storing the remainder fails.
+   */
+  @Override
+  public final void close() throws IOException {
+    long c = counter.getAndSet(CLOSED);
+    if (c < CLOSED && remainderStore != null && ordering == IdOrdering.RELAXED) {//remainders are used only in the RELAXED mode
+      @Nullable
+      final Chunk chunk = chunk();
+      if (chunk != null && chunk.cEnd == c) {//the counter values reserved for the current thread are the last ones reserved
+        c = chunk.c;
+        chunk.c = chunk.cEnd;
+      }
+      final long loUpperBoundOpen = getLoUpperBoundOpen();
+      @Nullable
+      final Block block = block(c / loUpperBoundOpen);
+      if (block != null) {//otherwise a refill is in progress
+        remainderStore.put(new Remainder(block.hi, Math.max(c % loUpperBoundOpen, block.lo), loUpperBoundOpen, isPooled()));
+      }
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{hiGenerator=" + getHiGenerator() +
+        ", loUpperBoundOpen=" + getLoUpperBoundOpen() +
+        ", ordering=" + ordering +
+        ", retryBudget=" + retryBudget +
+        ", remainderStore=" + remainderStore +
+        '}';
+  }
+
+  /**
+   * @param c A reserved counter value.
+   * @return {@code c}.
+   * @throws IllegalStateException If {@code c} was reserved after {@linkplain #close() closing} this ID generator.
+   */
+  private final long checkNotClosed(final long c) {
+    if (c >= CLOSED) {
+      throw closedException();
+    }
+    return c;
+  }
+
+  private final IllegalStateException closedException() {
+    return new IllegalStateException(format("%s is closed", this));
+  }
+
+  /**
+   * Reserves a counter value either for the current thread, or from the {@link #chunks chunk} of the current thread.
+   */
+  private final long reserve() {
+    @Nullable
+    final Chunk chunk = chunk();
+    if (chunk == null) {
+      return counter.getAndIncrement();
+    } else {
+      if (chunk.c == chunk.cEnd) {
+        chunk.c = counter.getAndAdd(chunkSize);
+        chunk.cEnd = chunk.c + chunkSize;
+      }
+      return chunk.c++;
+    }
+  }
+
+  /**
+   * @return The counter value which {@link #reserve()} would return if there were no concurrent reservations.
+   */
+  private final long peek() {
+    @Nullable
+    final Chunk chunk = chunk();
+    if (chunk != null) {
+      if (chunk.c < chunk.cEnd) {
+        return chunk.c;
+      }
+    }
+    return counter.get();
+  }
+
+  /**
+   * Returns the counter value {@code c} that was the last one {@linkplain #reserve() reserved} by the current thread
+   * unless another thread has reserved a counter value after it, in which case {@code c} is lost.
+   */
+  private final void unreserve(final long c) {
+    @Nullable
+    final Chunk chunk = chunk();
+    if (chunk == null) {
+      counter.compareAndSet(c + 1, c);
+    } else {
+      assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || chunk.c == c + 1;
+      chunk.c = c;
+    }
+  }
+
+  /**
+   * @return The {@link #chunks chunk} of the current thread, or null if the current thread does not reserve counter values in chunks.
+   * Virtual threads do not use chunks: they are usually numerous and short-lived,
+   * so counter values reserved for them in chunks would mostly be lost.
+   */
+  @Nullable
+  private final Chunk chunk() {
+    return chunks == null || VirtualThreads.isVirtual(Thread.currentThread()) ? null : chunks.get();
+  }
+
+  /**
+   * @return The block with the index {@code blockIdx}, or null if it has not been published yet or was superseded.
+   */
+  @Nullable
+  private final Block block(final long blockIdx) {
+    @Nullable
+    final Block block = blocks.get((int) (blockIdx % BLOCK_HISTORY_SIZE));
+    return block != null && block.idx == blockIdx ? block : null;
+  }
+
+  /**
+   * Makes sure that the block with the index {@code blockIdx} is published when this method returns normally.
+   * Either generates and publishes new {@code hi} values, or waits for concurrent refills to complete.
+   */
+  private final void refill(final long blockIdx) {
+    refill.run(() -> this.blockIdx < blockIdx, this::advanceHi);
+  }
+
+  /**
+   * This method is similar to {@link #refill(long)}, but does not wait for a concurrent refill,
+   * and initiates a refill either via {@code refillExecutor} or via {@link #asyncHiGenerator}.
+   *
+   * @return true if the block with the index {@code blockIdx} is published, false if a refill is in progress.
+   */
+  private final boolean tryRefill(final long blockIdx) {
+    return asyncHiGenerator == null
+        ? refill.tryRun(() -> this.blockIdx < blockIdx, this::advanceHi, refillExecutor)
+        : refill.tryRunAsync(() -> this.blockIdx < blockIdx, this::advanceHiAsync);
+  }
+
+  /**
+   * This method is similar to {@link #tryRefill(long)}, but does not report the outcome of the refill.
+   *
+   * @return null if the block with the index {@code blockIdx} is published, otherwise the refill, which may have already completed,
+   * see {@link SingleFlight#initiate(BooleanSupplier, Runnable, Executor)}.
+   */
+  @Nullable
+  private final CompletableFuture<Void> initiateRefill(final long blockIdx) {
+    return asyncHiGenerator == null
+        ? refill.initiate(() -> this.blockIdx < blockIdx, this::advanceHi, refillExecutor)
+        : refill.initiateAsync(() -> this.blockIdx < blockIdx, this::advanceHiAsync);
+  }
+
+  /**
+   * @param refill A refill returned by {@link #initiateRefill(long)}.
+   * @return false if the refill is either not needed or has succeeded.
+   */
+  private static final boolean inProgressOrFailed(@Nullable final CompletableFuture<Void> refill) {
+    return refill != null && (!refill.isDone() || refill.isCompletedExceptionally());
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   */
+  private final void advanceHi() {
+    @Nullable
+    final Remainder remainder = pollRemainder();
+    if (remainder == null) {
+      publishHi(nextHi(), 0);
+    } else {
+      publishHi(remainder.getHi(), remainder.getLo());
+    }
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   */
+  private final CompletionStage<Void> advanceHiAsync() {
+    assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || asyncHiGenerator != null;
+    if (remaindersExhausted) {
+      return asyncHiGenerator.nextAsync()
+          .thenCompose(hi -> hi == UNINITIALIZED ? asyncHiGenerator.nextAsync() : CompletableFuture.completedFuture(hi))
+          .thenAccept(hi -> publishHi(hi, 0));
+    } else {//polling the store may block, hence we do it via refillExecutor
+      return CompletableFuture.supplyAsync(this::pollRemainder, refillExecutor)
+          .thenCompose(remainder -> {
+            if (remainder == null) {
+              return advanceHiAsync();
+            } else {
+              publishHi(remainder.getHi(), remainder.getLo());
+              return CompletableFuture.completedFuture(null);
+            }
+          });
+    }
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   *
+   * @return A remainder polled from {@link #remainderStore} which this ID generator can use,
+   * or null if remainders must not be polled anymore or this ID generator is {@linkplain #close() closed}.
+   */
+  @Nullable
+  private final Remainder pollRemainder() {
+    if (counter.get() >= CLOSED) {//a closed ID generator must not take remainders which it cannot use
+      remaindersExhausted = true;
+    }
+    @Nullable
+    Remainder result = null;
+    final List<Remainder> mismatchedRemainders = new ArrayList<>();
+    try {
+      while (result == null && !remaindersExhausted) {
+        assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || remainderStore != null;
+        result = remainderStore.poll();
+        if (result == null) {
+          remaindersExhausted = true;
+        } else if (result.getLoUpperBoundOpen() != getLoUpperBoundOpen() || result.isPooled() != isPooled()) {
+          mismatchedRemainders.add(result);//stored by an ID generator which generates different identifiers from the same hi and lo values
+          result = null;
+        }
+      }
+      for (final Remainder mismatchedRemainder : mismatchedRemainders) {//polled remainders must not be lost
+        remainderStore.put(mismatchedRemainder);
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return result;
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   * The new {@code hi} value and the smallest {@code lo} value which may be used with it are published together as a single {@link Block},
+   * so that no thread may pair the new {@code hi} value with {@code lo} values reserved for the previous one.
+   */
+  private final void publishHi(final long hi, final long lo) {
+    final long blockIdx = this.blockIdx + 1;
+    if (lo > 0) {//skip the lo values which are not in the remainder
+      final long c = blockIdx * getLoUpperBoundOpen() + lo;
+      counter.accumulateAndGet(c, Math::max);
+    }
+    blocks.set((int) (blockIdx % BLOCK_HISTORY_SIZE), new Block(blockIdx, hi, lo));
+    this.blockIdx = blockIdx;//must be done after publishing the block so that those who see the new index also see the block
+  }
+
+  /**
+   * Counter values from {@code c} (inclusive) to {@code cEnd} (exclusive) reserved for a thread.
+   */
+  @NotThreadSafe
+  private static final class Chunk {
+    private long c;
+    private long cEnd;
+
+    private Chunk() {
+    }
+  }
+
+  @Immutable
+  private static final class Block {
+    private final long idx;
+    private final long hi;
+    /**
+     * The smallest {@code lo} value which may be used with {@link #hi}. It is positive only if the block is a {@link Remainder}.
+     */
+    private final long lo;
+
+    private Block(final long idx, final long hi, final long lo) {
+      this.idx = idx;
+      this.hi = hi;
+      this.lo = lo;
+    }
   }
 }
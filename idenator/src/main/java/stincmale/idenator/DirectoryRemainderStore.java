@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} {@link RemainderStore} which stores each remainder in a separate file in a directory.
+ * The directory may be shared by multiple processes, e.g. it may be a volume shared by all replicas of a service.
+ * <p>
+ * A remainder is stored by writing it to a temporary file which is then atomically renamed,
+ * and is removed by atomically renaming its file to a name unique to the remover before reading it,
+ * so that each remainder is removed at most once.
+ * Both operations force the changes to the storage device, including the changes of the directory,
+ * hence the file system must support atomic renaming and synchronizing directories, which is the case for local file systems in Linux.
+ * If the program crashes after renaming a file but before deleting it, then the file is left with the {@value #CLAIMED_SUFFIX} suffix,
+ * and the remainder is lost.
+ */
+@ThreadSafe
+public final class DirectoryRemainderStore implements RemainderStore {
+  private static final String SUFFIX = ".remainder";
+  private static final String CLAIMED_SUFFIX = ".claimed";
+  private static final String TMP_SUFFIX = ".tmp";
+  /**
+   * {@link Remainder#getHi()}, {@link Remainder#getLo()}, {@link Remainder#getLoUpperBoundOpen()}, {@link Remainder#isPooled()}.
+   */
+  private static final int FILE_SIZE = 3 * Long.BYTES + 1;
+
+  private final Path directory;
+
+  /**
+   * @param directory A directory where remainders are stored. It is created if it does not exist.
+   * @throws IOException If the {@code directory} cannot be created.
+   */
+  public DirectoryRemainderStore(final Path directory) throws IOException {
+    this.directory = Files.createDirectories(checkNotNull(directory, "directory"));
+  }
+
+  @Override
+  public final void put(final Remainder remainder) throws IOException {
+    checkNotNull(remainder, "remainder");
+    final Path tmpFile = Files.createTempFile(directory, null, TMP_SUFFIX);
+    try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+      final ByteBuffer buffer = ByteBuffer.allocate(FILE_SIZE)
+          .putLong(remainder.getHi())
+          .putLong(remainder.getLo())
+          .putLong(remainder.getLoUpperBoundOpen())
+          .put((byte) (remainder.isPooled() ? 1 : 0))
+          .flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(tmpFile, directory.resolve(format("%016x%s", remainder.getHi(), SUFFIX)), StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory();
+  }
+
+  @Nullable
+  @Override
+  public final Remainder poll() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (final Path file : files) {
+        final Path claimedFile = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + CLAIMED_SUFFIX);
+        try {
+          Files.move(file, claimedFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final NoSuchFileException e) {//another remover has claimed the file
+          continue;
+        }
+        forceDirectory();//the remainder must not be returned again even if the program crashes
+        final Remainder result = read(ByteBuffer.wrap(Files.readAllBytes(claimedFile)), file);
+        Files.delete(claimedFile);
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return {@code directory} specified via {@link #DirectoryRemainderStore(Path)}.
+   */
+  public final Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{directory=" + directory +
+        '}';
+  }
+
+  private static final Remainder read(final ByteBuffer buffer, final Path file) throws IOException {
+    if (buffer.remaining() != FILE_SIZE) {
+      throw new IOException(format("The file %s is corrupted", file));
+    }
+    final long hi = buffer.getLong();
+    final long lo = buffer.getLong();
+    final long loUpperBoundOpen = buffer.getLong();
+    final byte pooled = buffer.get();
+    if (pooled != 0 && pooled != 1) {
+      throw new IOException(format("The file %s is corrupted", file));
+    }
+    try {
+      return new Remainder(hi, lo, loUpperBoundOpen, pooled == 1);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException(format("The file %s is corrupted", file), e);
+    }
+  }
+
+  private final void forceDirectory() throws IOException {
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+/**
+ * Specifies which order of identifiers generated concurrently by an ID generator is guaranteed.
+ * See {@link stincmale.idenator} to read more about the monotonic flavour of ID generators.
+ */
+public enum IdOrdering {
+  /**
+   * If generating an identifier {@code id1} completes before generating an identifier {@code id2} starts
+   * (regardless of which threads generate them), then {@code id1 < id2}, provided that the {@code hi} value generator is strictly increasing
+   * and {@code hi} values do not overflow.
+   * <p>
+   * Identifiers generated concurrently may be ordered arbitrarily.
+   */
+  LINEARIZABLE_MONOTONIC,
+  /**
+   * Only uniqueness of identifiers is guaranteed.
+   * This allows an ID generator to reserve identifiers for each thread separately,
+   * which reduces contention between threads at the cost of some identifiers being never used,
+   * e.g. those reserved by a thread which terminated.
+   */
+  RELAXED
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import stincmale.idenator.doc.NotThreadSafe;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}
+ * in which each thread leases a chunk of {@linkplain #getLeaseSize() leaseSize} {@code lo} values
+ * and generates identifiers from the chunk without accessing any state shared with other threads.
+ * Only leasing a new chunk accesses the shared state.
+ * <p>
+ * The unused part of a chunk leased by a thread that has terminated is reclaimed and leased again
+ * before a new {@code hi} value is generated, so the number of {@code lo} values that are lost because of leasing
+ * does not exceed {@code leaseSize} per alive thread that has used this ID generator.
+ * <p>
+ * {@link #tryNext()} and {@link #next(Duration)} generate new {@code hi} values via {@code refillExecutor}
+ * so that they do not have to wait for {@linkplain #getHiGenerator() hiGenerator} longer than allowed.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent under the same conditions as described in {@link AbstractTwoPhaseLongIdGenerator}.
+ * </li>
+ * <li>
+ * This ID generator is nonmonotonic unless {@code leaseSize} is 1 and {@linkplain #getHiGenerator() hiGenerator} is strictly increasing,
+ * because threads generate identifiers from different chunks independently.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class LeasingTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  private final long leaseSize;
+  private final SingleFlight refill;
+  private final Executor refillExecutor;
+  private volatile Block block;
+  private final ThreadLocal<Lease> lease;
+  /**
+   * Leases of all threads that have used this ID generator and have not yet been detected to be terminated.
+   */
+  private final Queue<Lease> leases;
+  /**
+   * Leases which owners have terminated and which still have {@code lo} values that can be leased again.
+   */
+  private final Queue<Lease> reclaimedLeases;
+
+  /**
+   * This constructor uses {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param hiGenerator See {@link #LeasingTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, long, Executor)}.
+   * @param loUpperBoundOpen See {@link #LeasingTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, long, Executor)}.
+   * @param pooled See {@link #LeasingTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, long, Executor)}.
+   * @param leaseSize See {@link #LeasingTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, long, Executor)}.
+   */
+  public LeasingTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final long leaseSize) {
+    this(hiGenerator, loUpperBoundOpen, pooled, leaseSize, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param leaseSize The number of {@code lo} values leased by a thread at once,
+   * except for {@link #next(long[])} which may lease more if needed. Must be positive.
+   * The bigger the value, the less often threads access the shared state,
+   * but the more {@code lo} values may be lost if this ID generator is not used anymore.
+   * Values greater than {@code loUpperBoundOpen} are treated as {@code loUpperBoundOpen}.
+   * @param refillExecutor An {@link Executor} which is used to generate {@code hi} values
+   * when they are needed by {@link #tryNext()} or {@link #next(Duration)}.
+   * If it rejects a task, then these methods fail with the {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  public LeasingTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final long leaseSize,
+      final Executor refillExecutor) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    checkArgument(leaseSize > 0, "leaseSize", "Must be positive");
+    this.leaseSize = Math.min(leaseSize, loUpperBoundOpen);
+    refill = new SingleFlight();
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+    block = new Block(UNINITIALIZED, loUpperBoundOpen);//an exhausted block
+    leases = new ConcurrentLinkedQueue<>();
+    reclaimedLeases = new ConcurrentLinkedQueue<>();
+    lease = ThreadLocal.withInitial(() -> {
+      final Lease lease = new Lease(Thread.currentThread());
+      leases.add(lease);
+      return lease;
+    });
+  }
+
+  @Override
+  public final long next() {
+    final Lease lease = this.lease.get();
+    if (lease.lo >= lease.loUpperBoundOpen) {//the lease is exhausted
+      renew(lease, leaseSize);
+    }
+    return calculateId(lease.hi, lease.lo++);
+  }
+
+  /**
+   * Uses the {@code lo} values leased by the current thread, and if they are not enough,
+   * leases as many {@code lo} values as needed with a single atomic operation unless the lease spans multiple {@code hi} values.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    final Lease lease = this.lease.get();
+    for (int idx = 0; idx < ids.length; ) {
+      if (lease.lo >= lease.loUpperBoundOpen) {//the lease is exhausted
+        renew(lease, Math.max(leaseSize, Math.min(ids.length - idx, getLoUpperBoundOpen())));
+      }
+      final long lo = lease.lo;
+      final int count = (int) Math.min(ids.length - idx, lease.loUpperBoundOpen - lo);
+      for (int i = 0; i < count; i++) {
+        ids[idx + i] = calculateId(lease.hi, lo + i);
+      }
+      lease.lo = lo + count;
+      idx += count;
+    }
+  }
+
+  /**
+   * Does not wait for a concurrent refill, and initiates a refill via {@code refillExecutor} if needed.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    final Lease lease = this.lease.get();
+    if (lease.lo >= lease.loUpperBoundOpen && !tryRenew(lease, leaseSize)) {//the lease is exhausted and cannot be renewed without waiting
+      return OptionalLong.empty();
+    }
+    return OptionalLong.of(calculateId(lease.hi, lease.lo++));
+  }
+
+  /**
+   * Waits only for refills, which are done via {@code refillExecutor}.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return refill.next(timeout, this::tryNext);
+  }
+
+  /**
+   * @return {@code leaseSize} specified via {@link #LeasingTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, long, Executor)},
+   * or {@code loUpperBoundOpen} if {@code leaseSize} is greater than {@code loUpperBoundOpen}.
+   */
+  public final long getLeaseSize() {
+    return leaseSize;
+  }
+
+  /**
+   * Leases new {@code lo} values either from {@link #reclaimedLeases} or from the current {@link #block}.
+   * Advances {@code hi} if needed.
+   *
+   * @param leaseSize The maximal number of {@code lo} values to lease from the current {@link #block}.
+   * Must not be greater than {@link #getLoUpperBoundOpen() loUpperBoundOpen}.
+   */
+  private final void renew(final Lease lease, final long leaseSize) {
+    while (!tryLease(lease, leaseSize)) {//the block is exhausted, we probably need to advance hi
+      final Block block = this.block;
+      refill.run(() -> refillNeeded(block), this::advanceHi);
+    }
+  }
+
+  /**
+   * This method is similar to {@link #renew(Lease, long)}, but does not wait for a refill, and initiates a refill via
+   * {@code refillExecutor} if needed.
+   *
+   * @return true if the {@code lease} was renewed, false if a refill is in progress.
+   */
+  private final boolean tryRenew(final Lease lease, final long leaseSize) {
+    while (!tryLease(lease, leaseSize)) {//the block is exhausted, we probably need to advance hi
+      final Block block = this.block;
+      if (!refill.tryRun(() -> refillNeeded(block), this::advanceHi, refillExecutor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Leases new {@code lo} values either from {@link #reclaimedLeases} or from the current {@link #block} without advancing hi.
+   *
+   * @return true if the {@code lease} was renewed, false if the current {@link #block} is exhausted.
+   */
+  private final boolean tryLease(final Lease lease, final long leaseSize) {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    @Nullable
+    final Lease reclaimedLease = reclaimedLeases.poll();
+    if (reclaimedLease != null) {
+      lease.set(reclaimedLease.hi, reclaimedLease.lo, reclaimedLease.loUpperBoundOpen);
+      return true;
+    }
+    final Block block = this.block;
+    final long lo = block.lo.getAndAdd(leaseSize);
+    if (lo < loUpperBoundOpen) {
+      lease.set(block.hi, lo, lo + Math.min(leaseSize, loUpperBoundOpen - lo));
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * @return true if {@code exhaustedBlock} is still the current {@link #block}, it is exhausted, and there are no {@link #reclaimedLeases}.
+   */
+  private final boolean refillNeeded(final Block exhaustedBlock) {
+    return block == exhaustedBlock && exhaustedBlock.lo.get() >= getLoUpperBoundOpen() && reclaimedLeases.isEmpty();
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   */
+  private final void advanceHi() {
+    reclaim();
+    if (reclaimedLeases.isEmpty()) {//there is nothing to reuse, so advance hi
+      block = new Block(nextHi(), 0);
+    }
+  }
+
+  /**
+   * Moves leases of terminated threads from {@link #leases} to {@link #reclaimedLeases} if they have not yet been exhausted.
+   */
+  private final void reclaim() {
+    for (final Iterator<Lease> leasesIterator = leases.iterator(); leasesIterator.hasNext(); ) {
+      final Lease lease = leasesIterator.next();
+      if (!lease.owner.isAlive()) {//all actions of the terminated owner happen-before this moment
+        leasesIterator.remove();
+        if (lease.lo < lease.loUpperBoundOpen) {
+          reclaimedLeases.add(lease);
+        }
+      }
+    }
+  }
+
+  @ThreadSafe
+  private static final class Block {
+    private final long hi;
+    /**
+     * The smallest {@code lo} value which has not yet been leased.
+     */
+    private final AtomicLong lo;
+
+    private Block(final long hi, final long lo) {
+      this.hi = hi;
+      this.lo = new AtomicLong(lo);
+    }
+  }
+
+  /**
+   * {@code lo} values [{@link #lo}; {@link #loUpperBoundOpen}) that can be used with {@link #hi} only by {@link #owner}.
+   */
+  @NotThreadSafe
+  private static final class Lease {
+    private final Thread owner;
+    private long hi;
+    private long lo;
+    private long loUpperBoundOpen;
+
+    private Lease(final Thread owner) {
+      this.owner = owner;
+      hi = UNINITIALIZED;
+      lo = 0;
+      loUpperBoundOpen = 0;
+    }
+
+    private final void set(final long hi, final long lo, final long loUpperBoundOpen) {
+      this.hi = hi;
+      this.lo = lo;
+      this.loUpperBoundOpen = loUpperBoundOpen;
+    }
+  }
+}
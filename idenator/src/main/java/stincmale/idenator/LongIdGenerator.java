@@ -15,6 +15,11 @@
  */
 package stincmale.idenator;
 
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeoutException;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+
 /**
  * A generator of long identifiers. See {@link stincmale.idenator} to read more about ID generators.
  */
@@ -23,4 +28,46 @@ public interface LongIdGenerator {
    * @return A newly generated identifier.
    */
   long next();
+
+  /**
+   * Fills {@code ids} with newly generated identifiers as if by calling {@link #next()} {@code ids.length} times.
+   * Implementations may generate identifiers more efficiently than that, e.g. by reserving many of them at once.
+   * <p>
+   * The default implementation calls {@link #next()} for each element of {@code ids}.
+   *
+   * @param ids An array to be filled with newly generated identifiers.
+   */
+  default void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = next();
+    }
+  }
+
+  /**
+   * Generates an identifier only if this can be done without waiting,
+   * e.g. without waiting for a {@code hi} value if this ID generator is an {@link AbstractTwoPhaseLongIdGenerator}.
+   * Implementations may initiate whatever is needed for the subsequent invocations to succeed.
+   * <p>
+   * This is an optional operation. The default implementation throws {@link UnsupportedOperationException}.
+   *
+   * @return A newly generated identifier, or an empty {@link OptionalLong} if it cannot be generated without waiting.
+   */
+  default OptionalLong tryNext() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Behaves like {@link #next()} but waits at most for the specified {@code timeout}.
+   * <p>
+   * This is an optional operation. The default implementation throws {@link UnsupportedOperationException}.
+   *
+   * @param timeout The maximal time to wait. Negative values are treated as zero.
+   * @return A newly generated identifier.
+   * @throws InterruptedException If the current thread was interrupted while waiting.
+   * @throws TimeoutException If the {@code timeout} elapsed before an identifier was generated.
+   */
+  default long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    throw new UnsupportedOperationException();
+  }
 }
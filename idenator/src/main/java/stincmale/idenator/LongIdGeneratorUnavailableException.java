@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import stincmale.idenator.doc.Nullable;
+
+/**
+ * Thrown by {@link ResilientLongIdGenerator} when it cannot generate an identifier,
+ * either because all attempts to generate it failed, or because the circuit breaker is {@linkplain ResilientLongIdGenerator.CircuitState#OPEN open}.
+ */
+public final class LongIdGeneratorUnavailableException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * @param message See {@link RuntimeException#RuntimeException(String, Throwable)}.
+   * @param cause See {@link RuntimeException#RuntimeException(String, Throwable)}.
+   */
+  public LongIdGeneratorUnavailableException(final String message, @Nullable final Throwable cause) {
+    super(message, cause);
+  }
+}
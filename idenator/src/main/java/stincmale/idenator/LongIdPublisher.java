@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} {@link Flow.Publisher} of an infinite stream of identifiers
+ * generated by an {@link AsyncLongIdGenerator}, e.g. by {@link ConcurrentTwoPhaseLongIdGenerator}.
+ * <p>
+ * Identifiers are generated only when they are demanded by a {@link Flow.Subscriber},
+ * in batches of at most {@linkplain #getMaxBatchSize() maxBatchSize} identifiers via {@link AsyncLongIdGenerator#nextAsync(int)}.
+ * Thus, a {@link Flow.Subscriber} which does not request identifiers does not cause {@code hi} values to be generated,
+ * while a {@link Flow.Subscriber} which requests many identifiers at once causes all {@code hi} values needed to satisfy the demand
+ * (up to {@code maxBatchSize}) to be generated without waiting for previously generated identifiers to be consumed.
+ * <p>
+ * Each {@link Flow.Subscriber} gets its own {@link Flow.Subscription}, and all of them share the same {@link AsyncLongIdGenerator}.
+ * Signals to a {@link Flow.Subscriber} are delivered either by a thread that calls {@link Flow.Subscription#request(long)},
+ * or by a thread that completes a stage returned by {@link AsyncLongIdGenerator#nextAsync(int)}.
+ * Identifiers that have been generated but not yet delivered when a {@link Flow.Subscription} is cancelled are lost.
+ * If {@link AsyncLongIdGenerator#nextAsync(int)} fails, then the {@link Flow.Subscriber} receives {@link Flow.Subscriber#onError(Throwable)}.
+ * {@link Flow.Subscriber#onComplete()} is never signalled.
+ */
+@ThreadSafe
+public final class LongIdPublisher implements Flow.Publisher<Long> {
+  private final AsyncLongIdGenerator idGenerator;
+  private final int maxBatchSize;
+
+  /**
+   * @param idGenerator An {@link AsyncLongIdGenerator} which generates identifiers for all {@link Flow.Subscriber}s.
+   * @param maxBatchSize The maximal number of identifiers to generate at once. Must be positive.
+   * For {@link AbstractTwoPhaseLongIdGenerator} the recommended value is
+   * {@linkplain AbstractTwoPhaseLongIdGenerator#getLoUpperBoundOpen() loUpperBoundOpen}.
+   */
+  public LongIdPublisher(final AsyncLongIdGenerator idGenerator, final int maxBatchSize) {
+    this.idGenerator = checkNotNull(idGenerator, "idGenerator");
+    checkArgument(maxBatchSize > 0, "maxBatchSize", "Must be positive");
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  @Override
+  public final void subscribe(final Flow.Subscriber<? super Long> subscriber) {
+    checkNotNull(subscriber, "subscriber");
+    final Subscription subscription = new Subscription(subscriber, idGenerator, maxBatchSize);
+    subscriber.onSubscribe(subscription);
+  }
+
+  /**
+   * @return {@code maxBatchSize} specified via {@link #LongIdPublisher(AsyncLongIdGenerator, int)}.
+   */
+  public final int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  @ThreadSafe
+  private static final class Subscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super Long> subscriber;
+    private final AsyncLongIdGenerator idGenerator;
+    private final int maxBatchSize;
+    /**
+     * The number of identifiers which have been requested but not yet delivered.
+     * {@link Long#MAX_VALUE} means an unbounded demand.
+     */
+    private final AtomicLong demand;
+    /**
+     * The number of times {@link #drain()} was called and has not yet been accounted for by the thread that delivers signals.
+     */
+    private final AtomicInteger drainRequests;
+    /**
+     * True if a batch of identifiers is being generated or has been generated but not yet delivered.
+     */
+    private volatile boolean generating;
+    @Nullable
+    private volatile long[] generatedIds;
+    @Nullable
+    private volatile Throwable failure;
+    @Nullable
+    private volatile Throwable illegalRequest;
+    private volatile boolean cancelled;
+
+    private Subscription(final Flow.Subscriber<? super Long> subscriber, final AsyncLongIdGenerator idGenerator, final int maxBatchSize) {
+      this.subscriber = subscriber;
+      this.idGenerator = idGenerator;
+      this.maxBatchSize = maxBatchSize;
+      demand = new AtomicLong();
+      drainRequests = new AtomicInteger();
+      generating = false;
+      generatedIds = null;
+      failure = null;
+      illegalRequest = null;
+      cancelled = false;
+    }
+
+    @Override
+    public final void request(final long n) {
+      if (n <= 0) {
+        illegalRequest = new IllegalArgumentException("The number of requested identifiers must be positive, see Flow.Subscription.request");
+      } else {
+        demand.getAndUpdate(demand -> demand + n < 0 ? Long.MAX_VALUE : demand + n);//saturating addition
+      }
+      drain();
+    }
+
+    @Override
+    public final void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * Delivers signals to {@link #subscriber} in a serialized manner by allowing only one thread at a time to do so,
+     * and initiates generating identifiers if there is a demand.
+     */
+    private final void drain() {
+      if (drainRequests.getAndIncrement() != 0) {//another thread is delivering signals and will take into account this request
+        return;
+      }
+      int unaccountedDrainRequests = 1;
+      do {
+        if (!cancelled) {
+          @Nullable
+          final Throwable error = illegalRequest != null ? illegalRequest : failure;
+          if (error != null) {
+            cancelled = true;
+            subscriber.onError(error);
+          } else {
+            @Nullable
+            final long[] ids = generatedIds;
+            if (ids != null) {
+              generatedIds = null;
+              generating = false;
+              for (int i = 0; i < ids.length && !cancelled; i++) {
+                subscriber.onNext(ids[i]);
+              }
+            }
+            final long demand = this.demand.get();
+            if (!generating && demand > 0 && !cancelled) {
+              final int batchSize = (int) Math.min(demand, maxBatchSize);
+              if (demand != Long.MAX_VALUE) {
+                this.demand.addAndGet(-batchSize);//the identifiers are considered delivered from now on
+              }
+              generating = true;
+              generate(batchSize);//may recursively call this method, which is fine because it just increments drainRequests
+            }
+          }
+        }
+        unaccountedDrainRequests = drainRequests.addAndGet(-unaccountedDrainRequests);
+      } while (unaccountedDrainRequests != 0);
+    }
+
+    private final void generate(final int batchSize) {
+      final CompletionStage<long[]> ids;
+      try {
+        ids = idGenerator.nextAsync(batchSize);
+      } catch (final RuntimeException e) {
+        failure = e;
+        drain();
+        return;
+      }
+      ids.whenComplete((generatedIds, failure) -> {
+        if (failure == null) {
+          this.generatedIds = generatedIds;
+        } else {
+          this.failure = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        }
+        drain();
+      });
+    }
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import static stincmale.idenator.AbstractTwoPhaseLongIdGenerator.UNINITIALIZED;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} strictly increasing persistent (see {@link stincmale.idenator}) {@link LongIdGenerator}
+ * which stores its state in a memory-mapped file, and is intended to be used as a {@code hi} value generator
+ * by a single-node application which does not have a database.
+ * <p>
+ * The file stores the value up to which identifiers are reserved.
+ * This ID generator returns an identifier only after its reservation has been {@linkplain MappedByteBuffer#force() forced}
+ * to the storage device, so no identifier is generated again even if the process crashes,
+ * e.g. because it was killed via {@code kill -9}, or the operating system crashes.
+ * Identifiers are reserved in chunks of at least {@linkplain #getChunkSize() chunkSize} identifiers,
+ * and all threads that wait for a reservation are served by a single force (group commit),
+ * so that forces are amortized over many identifiers.
+ * Identifiers which were reserved but not generated before the file was closed are lost.
+ * <p>
+ * The file stores two alternating records protected by checksums, and a reservation overwrites the older one,
+ * so a partially written record is ignored, and the other record is used when the file is opened.
+ * <p>
+ * The file is {@linkplain FileChannel#tryLock() locked} while it is used, so it cannot be used by multiple instances
+ * of this ID generator at the same time, even if they are in different processes.
+ */
+@ThreadSafe
+public final class MappedFileLongIdGenerator implements LongIdGenerator, AutoCloseable {
+  private static final int MAGIC = 0x69646e72;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 2 * Integer.BYTES;
+  /**
+   * The sequence number, the value up to which identifiers are reserved, the checksum.
+   */
+  private static final int RECORD_SIZE = 3 * Long.BYTES;
+  private static final int FILE_SIZE = HEADER_SIZE + 2 * RECORD_SIZE;
+
+  private final Path file;
+  private final long chunkSize;
+  private final FileChannel channel;
+  private final FileLock fileLock;
+  private final MappedByteBuffer buffer;
+  /**
+   * Guards all fields below it.
+   */
+  private final Lock lock;
+  /**
+   * Signalled when a reservation completes.
+   */
+  private final Condition reserved;
+  /**
+   * The next identifier.
+   */
+  private long next;
+  /**
+   * The value up to which (exclusive) identifiers are reserved durably.
+   */
+  private long reservedUpTo;
+  private long sequenceNumber;
+  private boolean reserving;
+  private int numberOfWaitingThreads;
+  private long numberOfForces;
+  @Nullable
+  private IOException failure;
+  private boolean closed;
+
+  /**
+   * Opens the {@code file} if it exists, otherwise creates it.
+   *
+   * @param file The file which stores the state of this ID generator.
+   * @param startId The identifier that will be returned by the first invocation of {@link #next()} if the {@code file} does not exist.
+   * Must not be equal to {@link AbstractTwoPhaseLongIdGenerator#UNINITIALIZED}.
+   * @param chunkSize The minimal number of identifiers which are reserved at once. Must be positive.
+   * The bigger it is, the less often the file is forced to the storage device,
+   * and the more identifiers are lost when this ID generator is closed.
+   * @throws IOException If the {@code file} cannot be opened, is locked by another process, or is corrupted.
+   */
+  public MappedFileLongIdGenerator(final Path file, final long startId, final long chunkSize) throws IOException {
+    this.file = checkNotNull(file, "file");
+    checkArgument(startId != UNINITIALIZED, "startId", () -> format("Must not be equal to %s", UNINITIALIZED));
+    checkArgument(chunkSize > 0, "chunkSize", "Must be positive");
+    this.chunkSize = chunkSize;
+    lock = new ReentrantLock();
+    reserved = lock.newCondition();
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      @Nullable
+      FileLock fileLock;
+      try {
+        fileLock = channel.tryLock();
+      } catch (final OverlappingFileLockException e) {
+        fileLock = null;
+      }
+      if (fileLock == null) {
+        throw new IOException(format("The file %s is used by another ID generator", file));
+      }
+      this.fileLock = fileLock;
+      final boolean created = channel.size() == 0;
+      buffer = channel.map(MapMode.READ_WRITE, 0, FILE_SIZE);
+      if (created) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, VERSION);
+        sequenceNumber = 0;
+        reservedUpTo = startId;
+        writeRecord(sequenceNumber, reservedUpTo);
+        buffer.force();
+      } else {
+        read();
+      }
+    } catch (final IOException | RuntimeException e) {
+      try {
+        channel.close();
+      } catch (final IOException closeFailure) {
+        e.addSuppressed(closeFailure);
+      }
+      throw e;
+    }
+    next = reservedUpTo;
+    reserving = false;
+    numberOfWaitingThreads = 0;
+    numberOfForces = 0;
+    failure = null;
+    closed = false;
+  }
+
+  /**
+   * @throws UncheckedIOException If reserving identifiers fails.
+   * @throws IllegalStateException If this ID generator is closed, or all identifiers up to {@link Long#MAX_VALUE} have been generated.
+   */
+  @Override
+  public final long next() {
+    lock.lock();
+    try {
+      while (true) {
+        if (closed) {
+          throw new IllegalStateException(format("%s is closed", this));
+        } else if (next < reservedUpTo) {
+          return next++;
+        } else if (reserving) {
+          numberOfWaitingThreads++;
+          try {
+            reserved.awaitUninterruptibly();
+          } finally {
+            numberOfWaitingThreads--;
+          }
+        } else {
+          @Nullable
+          final IOException failure = this.failure;
+          if (failure != null) {//the failure is reported once, and the next call to this method tries to reserve identifiers again
+            this.failure = null;
+            throw new UncheckedIOException(failure);
+          }
+          reserve();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Forces the file to the storage device, and closes it.
+   * Identifiers which were reserved but not generated are lost.
+   * Subsequent calls to {@link #next()} fail.
+   */
+  @Override
+  public final void close() throws IOException {
+    lock.lock();
+    try {
+      while (reserving) {
+        reserved.awaitUninterruptibly();
+      }
+      if (!closed) {
+        closed = true;
+        try {
+          buffer.force();
+        } finally {
+          channel.close();//releases the fileLock
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return {@code file} specified via {@link #MappedFileLongIdGenerator(Path, long, long)}.
+   */
+  public final Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return {@code chunkSize} specified via {@link #MappedFileLongIdGenerator(Path, long, long)}.
+   */
+  public final long getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return The number of times the file was {@linkplain MappedByteBuffer#force() forced} in order to reserve identifiers.
+   */
+  final long getNumberOfForces() {
+    lock.lock();
+    try {
+      return numberOfForces;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{file=" + file +
+        ", chunkSize=" + chunkSize +
+        '}';
+  }
+
+  /**
+   * Reserves enough identifiers for the current thread and all threads that are waiting.
+   * Must be called only by a thread holding the {@link #lock}, which is released while the file is being forced.
+   */
+  private final void reserve() {
+    final long numberOfIdsLeft = reservedUpTo < 0 ? Long.MAX_VALUE : Long.MAX_VALUE - reservedUpTo;
+    final long numberOfIds = Math.min(Math.max(chunkSize, numberOfWaitingThreads + 1L), numberOfIdsLeft);
+    if (numberOfIds == 0) {
+      throw new IllegalStateException(format("There are no identifiers left in %s", this));
+    }
+    final long newReservedUpTo = reservedUpTo + numberOfIds;
+    final long newSequenceNumber = sequenceNumber + 1;
+    reserving = true;
+    lock.unlock();
+    @Nullable
+    IOException failure = null;
+    try {
+      writeRecord(newSequenceNumber, newReservedUpTo);
+      buffer.force();
+    } catch (final UncheckedIOException e) {
+      failure = e.getCause();
+    } finally {
+      lock.lock();
+    }
+    reserving = false;
+    numberOfForces++;
+    if (failure == null) {
+      sequenceNumber = newSequenceNumber;
+      reservedUpTo = newReservedUpTo;
+    } else {
+      this.failure = failure;
+    }
+    reserved.signalAll();
+  }
+
+  private final void writeRecord(final long sequenceNumber, final long reservedUpTo) {
+    final int offset = recordOffset(sequenceNumber);
+    buffer.putLong(offset, sequenceNumber);
+    buffer.putLong(offset + Long.BYTES, reservedUpTo);
+    buffer.putLong(offset + 2 * Long.BYTES, checksum(sequenceNumber, reservedUpTo));
+  }
+
+  /**
+   * Reads the valid record with the bigger sequence number.
+   */
+  private final void read() throws IOException {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+      throw new IOException(format("The file %s was not created by %s", file, getClass().getSimpleName()));
+    }
+    boolean found = false;
+    for (int recordIdx = 0; recordIdx < 2; recordIdx++) {
+      final int offset = HEADER_SIZE + recordIdx * RECORD_SIZE;
+      final long sequenceNumber = buffer.getLong(offset);
+      final long reservedUpTo = buffer.getLong(offset + Long.BYTES);
+      final long checksum = buffer.getLong(offset + 2 * Long.BYTES);
+      if (recordOffset(sequenceNumber) == offset && checksum == checksum(sequenceNumber, reservedUpTo)
+          && (!found || sequenceNumber > this.sequenceNumber)) {
+        found = true;
+        this.sequenceNumber = sequenceNumber;
+        this.reservedUpTo = reservedUpTo;
+      }
+    }
+    if (!found) {
+      throw new IOException(format("The file %s is corrupted", file));
+    }
+  }
+
+  private static final int recordOffset(final long sequenceNumber) {
+    return HEADER_SIZE + (int) (sequenceNumber & 1) * RECORD_SIZE;
+  }
+
+  private static final long checksum(final long sequenceNumber, final long reservedUpTo) {
+    final CRC32 crc = new CRC32();
+    for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+      crc.update((int) (sequenceNumber >>> shift));
+    }
+    for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+      crc.update((int) (reservedUpTo >>> shift));
+    }
+    return crc.getValue();
+  }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import stincmale.idenator.doc.Immutable;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}
+ * which keeps a reserve of {@code hi} values generated in advance,
+ * and generates them via up to {@linkplain #getParallelism() parallelism} concurrent calls to {@linkplain #getHiGenerator() hiGenerator}.
+ * This ID generator is suitable for {@linkplain #getHiGenerator() hiGenerator} which can serve many concurrent requests,
+ * but takes a long time to serve each of them, e.g. a database sequence accessed via a connection pool.
+ * <p>
+ * When the number of reserved {@code hi} values drops to {@linkplain #getLowWatermark() lowWatermark},
+ * this ID generator starts generating {@code hi} values via {@code refillExecutor} until there are
+ * {@linkplain #getHighWatermark() highWatermark} of them either reserved or being generated.
+ * Threads wait for {@linkplain #getHiGenerator() hiGenerator} only if the reserve is empty.
+ * Hence if {@linkplain #getHiGenerator() hiGenerator} becomes unavailable for some time, e.g. during a brownout,
+ * this ID generator keeps generating identifiers without waiting for up to
+ * {@code highWatermark * loUpperBoundOpen} identifiers.
+ * <p>
+ * In the {@link IdOrdering#LINEARIZABLE_MONOTONIC} mode a reserved {@code hi} value is used only after
+ * all calls to {@linkplain #getHiGenerator() hiGenerator} which might have generated a smaller {@code hi} value have completed,
+ * and reserved {@code hi} values are used in the increasing order regardless of the order in which they were generated.
+ * This requires {@linkplain #getHiGenerator() hiGenerator} to be linearizable, e.g. a database sequence.
+ * In the {@link IdOrdering#RELAXED} mode a reserved {@code hi} value may be used as soon as it is generated.
+ * <p>
+ * If {@linkplain #getHiGenerator() hiGenerator} fails, then threads which wait for a {@code hi} value fail with the same exception,
+ * provided that there are no other {@code hi} values being generated.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent under the same conditions as described in {@link AbstractTwoPhaseLongIdGenerator},
+ * but reserved {@code hi} values which were not used are lost.
+ * </li>
+ * <li>
+ * This ID generator is strictly increasing in the {@link IdOrdering#LINEARIZABLE_MONOTONIC} mode
+ * if {@linkplain #getHiGenerator() hiGenerator} is strictly increasing and linearizable, otherwise it is nonmonotonic.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class PipelinedTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  private final int lowWatermark;
+  private final int highWatermark;
+  private final int parallelism;
+  private final IdOrdering ordering;
+  private final Executor refillExecutor;
+  private final SingleFlight advance;
+  private volatile Block block;
+  /**
+   * Guards all fields below it.
+   */
+  private final Lock lock;
+  /**
+   * Signalled when {@link #reserve} gets a new {@code hi} value, or a call to {@linkplain #getHiGenerator() hiGenerator} fails.
+   */
+  private final Condition reserveChanged;
+  /**
+   * {@code Hi} values which can be used.
+   */
+  private final Queue<Long> reserve;
+  /**
+   * Generated {@code hi} values which cannot be used yet, see {@link Generated#barrierTicket}.
+   * Both this queue and the {@link #reserve} are ordered by {@code hi} values.
+   */
+  private final Queue<Generated> generated;
+  /**
+   * Tickets of calls to {@linkplain #getHiGenerator() hiGenerator} which are in progress.
+   */
+  private final TreeSet<Long> inProgressTickets;
+  /**
+   * The ticket for the next call to {@linkplain #getHiGenerator() hiGenerator}.
+   */
+  private long nextTicket;
+  @Nullable
+  private Throwable failure;
+
+  /**
+   * This constructor uses {@link IdOrdering#LINEARIZABLE_MONOTONIC} as {@code ordering},
+   * and {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param hiGenerator See {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   * @param loUpperBoundOpen See {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   * @param pooled See {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   * @param lowWatermark See {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   * @param highWatermark See {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   * @param parallelism See {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   */
+  public PipelinedTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final int lowWatermark,
+      final int highWatermark,
+      final int parallelism) {
+    this(hiGenerator, loUpperBoundOpen, pooled, lowWatermark, highWatermark, parallelism,
+        IdOrdering.LINEARIZABLE_MONOTONIC, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * Must be {@linkplain ThreadSafe thread-safe} if {@code parallelism} is greater than 1.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param lowWatermark The number of reserved {@code hi} values at which generating new {@code hi} values starts.
+   * Must belong to [0; {@code highWatermark}).
+   * @param highWatermark The maximal number of {@code hi} values either reserved or being generated. Must be positive.
+   * In order to survive unavailability of {@code hiGenerator} for a duration {@code d},
+   * specify at least {@code d * rate / loUpperBoundOpen}, where {@code rate} is the rate at which identifiers are generated.
+   * @param parallelism The maximal number of concurrent calls to {@code hiGenerator}. Must be positive.
+   * @param ordering The guaranteed order of generated identifiers.
+   * @param refillExecutor An {@link Executor} which is used to generate {@code hi} values.
+   * It must be able to run {@code parallelism} tasks concurrently in order for {@code hi} values to be generated in parallel.
+   * If it rejects a task, then this is treated as a failure of {@code hiGenerator}.
+   * {@code refillExecutor} is also used by {@link #tryNext()} to initiate waiting for a {@code hi} value if the reserve is empty,
+   * in which case it must be able to run one more task concurrently.
+   */
+  public PipelinedTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final int lowWatermark,
+      final int highWatermark,
+      final int parallelism,
+      final IdOrdering ordering,
+      final Executor refillExecutor) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    checkArgument(highWatermark > 0, "highWatermark", "Must be positive");
+    checkArgument(lowWatermark >= 0 && lowWatermark < highWatermark, "lowWatermark",
+        () -> format("Must belong to [0; %s)", highWatermark));
+    checkArgument(parallelism > 0, "parallelism", "Must be positive");
+    this.lowWatermark = lowWatermark;
+    this.highWatermark = highWatermark;
+    this.parallelism = parallelism;
+    this.ordering = checkNotNull(ordering, "ordering");
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+    advance = new SingleFlight();
+    block = new Block(UNINITIALIZED, loUpperBoundOpen);//an exhausted block
+    lock = new ReentrantLock();
+    reserveChanged = lock.newCondition();
+    reserve = new PriorityQueue<>(highWatermark, (hi1, hi2) -> Long.signum(hi1 - hi2));//hi values may overflow
+    generated = new PriorityQueue<>(parallelism, (g1, g2) -> Long.signum(g1.hi - g2.hi));
+    inProgressTickets = new TreeSet<>();
+    nextTicket = 0;
+    failure = null;
+  }
+
+  @Override
+  public final long next() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    while (true) {
+      final Block block = this.block;
+      final long lo = block.lo.getAndIncrement();
+      if (lo < loUpperBoundOpen) {
+        return calculateId(block.hi, lo);
+      } else {//the block is exhausted
+        advance.run(() -> this.block == block, this::advance);
+      }
+    }
+  }
+
+  /**
+   * Uses a reserved {@code hi} value in the current thread if the current one is exhausted,
+   * and initiates waiting for {@linkplain #getHiGenerator() hiGenerator} via {@code refillExecutor} if the reserve is empty.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    while (true) {
+      final Block block = this.block;
+      final long lo = block.lo.getAndIncrement();
+      if (lo < loUpperBoundOpen) {
+        return OptionalLong.of(calculateId(block.hi, lo));
+      } else if (!advance.tryRun(() -> this.block == block, this::advance, getNumberOfReservedBlocks() > 0 ? Runnable::run : refillExecutor)) {
+        return OptionalLong.empty();
+      }
+    }
+  }
+
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return advance.next(timeout, this::tryNext);
+  }
+
+  /**
+   * @return {@code lowWatermark} specified via {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   */
+  public final int getLowWatermark() {
+    return lowWatermark;
+  }
+
+  /**
+   * @return {@code highWatermark} specified via {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   */
+  public final int getHighWatermark() {
+    return highWatermark;
+  }
+
+  /**
+   * @return {@code parallelism} specified via {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   */
+  public final int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * @return {@code ordering} specified via {@link #PipelinedTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, int, int, int, IdOrdering, Executor)}.
+   */
+  public final IdOrdering getOrdering() {
+    return ordering;
+  }
+
+  /**
+   * @return The number of {@code hi} values which are reserved and can be used.
+   */
+  final int getNumberOfReservedBlocks() {
+    lock.lock();
+    try {
+      return reserve.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{hiGenerator=" + getHiGenerator() +
+        ", loUpperBoundOpen=" + getLoUpperBoundOpen() +
+        ", lowWatermark=" + lowWatermark +
+        ", highWatermark=" + highWatermark +
+        ", parallelism=" + parallelism +
+        ", ordering=" + ordering +
+        '}';
+  }
+
+  /**
+   * Must be called only via {@link #advance}.
+   * Does not wait for {@linkplain #getHiGenerator() hiGenerator} if the {@link #reserve} is not empty,
+   * because only this method takes {@code hi} values from the {@link #reserve}.
+   */
+  private final void advance() {
+    block = new Block(takeHi(), 0);
+  }
+
+  /**
+   * Takes a {@code hi} value from the {@link #reserve}, and waits for one if the {@link #reserve} is empty.
+   * Must be called only via {@link #advance}.
+   */
+  private final long takeHi() {
+    lock.lock();
+    try {
+      while (true) {
+        @Nullable
+        final Long hi = reserve.poll();
+        if (hi != null) {
+          refill();
+          return hi;
+        } else if (inProgressTickets.isEmpty()) {//there is nothing to wait for
+          @Nullable
+          final Throwable failure = this.failure;
+          if (failure != null) {//the failure is reported once, and the next call to this method starts generating hi values again
+            this.failure = null;
+            if (failure instanceof Error) {
+              throw (Error) failure;
+            } else if (failure instanceof RuntimeException) {
+              throw (RuntimeException) failure;
+            } else {
+              throw new RuntimeException(failure);
+            }
+          }
+          refill();
+        } else {
+          reserveChanged.awaitUninterruptibly();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts generating {@code hi} values if needed.
+   * If {@code refillExecutor} rejects a task, then the rejection is recorded as a {@link #failure}.
+   * Must be called only by a thread holding the {@link #lock}.
+   */
+  private final void refill() {
+    if (reserve.size() <= lowWatermark) {
+      while (inProgressTickets.size() < parallelism
+          && reserve.size() + generated.size() + inProgressTickets.size() < highWatermark) {
+        final long ticket = nextTicket++;
+        inProgressTickets.add(ticket);
+        try {
+          refillExecutor.execute(() -> generate(ticket));
+        } catch (final RejectedExecutionException e) {
+          completed(ticket, UNINITIALIZED, e);
+          break;
+        }
+      }
+    }
+  }
+
+  private final void generate(final long ticket) {
+    long hi = UNINITIALIZED;
+    @Nullable
+    Throwable failure = null;
+    try {
+      hi = nextHi();
+    } catch (final Throwable e) {
+      failure = e;
+    }
+    lock.lock();
+    try {
+      completed(ticket, hi, failure);
+      if (failure == null) {//otherwise hi values are generated again only when they are needed, see takeHi
+        refill();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Must be called only by a thread holding the {@link #lock}.
+   *
+   * @param hi The generated {@code hi} value, or {@link #UNINITIALIZED} if generating failed.
+   * @param failure The exception with which generating failed, or null if it succeeded.
+   */
+  private final void completed(final long ticket, final long hi, @Nullable final Throwable failure) {
+    inProgressTickets.remove(ticket);
+    if (failure == null) {
+      //all calls which started before this moment might have generated smaller hi values
+      generated.add(new Generated(hi, ordering == IdOrdering.LINEARIZABLE_MONOTONIC ? nextTicket : 0));
+      this.failure = null;
+    } else {
+      this.failure = failure;
+    }
+    final long minInProgressTicket = inProgressTickets.isEmpty() ? nextTicket : inProgressTickets.first();
+    //a hi value can be used if all calls that might have generated smaller hi values have completed,
+    //and all smaller generated hi values can be used
+    for (@Nullable Generated g = generated.peek(); g != null && g.barrierTicket <= minInProgressTicket; g = generated.peek()) {
+      generated.remove();
+      reserve.add(g.hi);
+    }
+    reserveChanged.signalAll();
+  }
+
+  @ThreadSafe
+  private static final class Block {
+    private final long hi;
+    private final AtomicLong lo;
+
+    private Block(final long hi, final long lo) {
+      this.hi = hi;
+      this.lo = new AtomicLong(lo);
+    }
+  }
+
+  @Immutable
+  private static final class Generated {
+    private final long hi;
+    /**
+     * The {@code hi} value can be used only after all calls to {@code hiGenerator}
+     * with tickets smaller than this one have completed.
+     */
+    private final long barrierTicket;
+
+    private Generated(final long hi, final long barrierTicket) {
+      this.hi = hi;
+      this.barrierTicket = barrierTicket;
+    }
+  }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.deadlineNanos;
+import static stincmale.idenator.internal.util.Utils.format;
+import static stincmale.idenator.internal.util.Utils.join;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}
+ * which {@linkplain #getPrefetchLo() prefetches} the next {@code hi} value in background
+ * so that {@link #next()} does not have to wait for {@linkplain #getHiGenerator() hiGenerator} when the current {@code lo} values are exhausted.
+ * <p>
+ * The next {@code hi} value is requested via {@code prefetchExecutor} as soon as a {@code lo} value greater than or equal to
+ * {@linkplain #getPrefetchLo() prefetchLo} is generated. When {@code lo} values are exhausted,
+ * the prefetched {@code hi} value is used if it is available, otherwise {@link #next()} waits only for the remaining part of the prefetch.
+ * {@linkplain #getHiGenerator() hiGenerator} is never accessed concurrently,
+ * and {@code hi} values are used in the same order they are generated by {@linkplain #getHiGenerator() hiGenerator},
+ * hence this ID generator has the same flavours as described in {@link AbstractTwoPhaseLongIdGenerator}.
+ * <p>
+ * {@link #tryNext()} and {@link #next(Duration)} never generate {@code hi} values themselves, they only use prefetched ones.
+ * <p>
+ * A prefetched {@code hi} value is lost if this ID generator is not used after the prefetch,
+ * which is similar to losing the not yet generated {@code lo} values.
+ */
+@ThreadSafe
+public final class PrefetchingTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  private final long prefetchLo;
+  private final Executor prefetchExecutor;
+  private final StampedLock lock;
+  private final AtomicLong lo;
+  private volatile long hi;
+  /**
+   * Holds a future {@code hi} value which is either being generated or has been generated but has not yet been used.
+   * Every access to {@linkplain #getHiGenerator() hiGenerator} happens via a future that is held here,
+   * which guarantees that {@linkplain #getHiGenerator() hiGenerator} is never accessed concurrently.
+   */
+  private final AtomicReference<CompletableFuture<Long>> futureHi;
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param prefetchLo The low watermark of {@code lo} values which triggers a prefetch of the next {@code hi} value.
+   * {@code prefetchLo} ∈ [0; {@code loUpperBoundOpen}). The smaller the value, the earlier a prefetch starts,
+   * e.g. {@code loUpperBoundOpen / 2} gives {@linkplain #getHiGenerator() hiGenerator} the time needed to generate
+   * a half of the current {@code lo} values to respond.
+   * @param prefetchExecutor An {@link Executor} which is used to prefetch {@code hi} values.
+   * If it rejects a task, then the next {@code hi} value is generated as if there were no prefetching,
+   * except for {@link #next(Duration)}, which fails with the {@link RejectedExecutionException}.
+   */
+  public PrefetchingTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final long prefetchLo,
+      final Executor prefetchExecutor) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    checkArgument(prefetchLo >= 0, "prefetchLo", "Must not be negative");
+    checkArgument(prefetchLo < loUpperBoundOpen, "prefetchLo",
+        () -> format("Must be less than %s=%s", "loUpperBoundOpen", loUpperBoundOpen));
+    this.prefetchLo = prefetchLo;
+    this.prefetchExecutor = checkNotNull(prefetchExecutor, "prefetchExecutor");
+    lock = new StampedLock();
+    lo = new AtomicLong(-1);
+    hi = UNINITIALIZED;
+    futureHi = new AtomicReference<>();
+  }
+
+  @Override
+  public final long next() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    long hi = UNINITIALIZED;
+    long lo = -1;
+    final int maxAttempts = 4;
+    for (int attemptIdx = 0; attemptIdx <= maxAttempts; attemptIdx++) {
+      final boolean optimisticAttempt = attemptIdx < maxAttempts;
+      if (optimisticAttempt) {
+        hi = initializedHi();
+        lo = this.lo.incrementAndGet();
+      }
+      if (lo >= loUpperBoundOpen ||//lo is too big, we probably need to reset lo and advance hi
+          !optimisticAttempt) {//no optimistic attempts left, it's time to use locking
+        final long exclusiveStamp = lock.writeLock();
+        try {
+          lo = this.lo.incrementAndGet();
+          if (lo >= loUpperBoundOpen) {//re-check whether we still need to reset lo and advance hi
+            hi = fetchedHi();//the prefetched hi is used if it is available
+            this.hi = hi;//must be written before resetting lo, otherwise an optimistic reader may pair the exhausted hi with the reset lo
+            lo = 0;
+            this.lo.set(lo);
+          } else {//lo is fine, but we still need to read hi under the exclusive lock to make sure that hi+lo read is atomic
+            hi = this.hi;
+          }
+          break;//hi+lo read was atomic because it was made under the exclusive lock
+        } finally {
+          lock.unlockWrite(exclusiveStamp);
+        }
+      } else {//lo is fine, check whether optimistic read succeeded
+        if (this.hi == hi) {//optimistic read succeeded, hence read hi+lo was atomic and we can break the loop
+          break;
+        }//else continue this while loop because hi was changed while we were reading lo, so we can't guarantee that the hi+lo read is atomic
+      }
+    }
+    if (lo >= prefetchLo && futureHi.get() == null) {//the low watermark is reached and the next hi is neither being prefetched nor prefetched
+      prefetchHi();
+    }
+    return calculateId(hi, lo);
+  }
+
+  /**
+   * Reserves {@code lo} values for many identifiers with a single atomic operation
+   * unless the reservation spans multiple {@code hi} values.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    for (int idx = 0; idx < ids.length; ) {
+      idx += next(ids, idx);
+    }
+  }
+
+  /**
+   * Does not wait for the next {@code hi} value, and initiates a prefetch if needed.
+   * May return an empty {@link OptionalLong} if {@code hi} changes concurrently too often.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    final int maxAttempts = 4;
+    for (int attemptIdx = 0; attemptIdx < maxAttempts; attemptIdx++) {
+      final long hi = this.hi;
+      if (hi != UNINITIALIZED) {
+        final long lo = this.lo.incrementAndGet();
+        if (lo < loUpperBoundOpen) {
+          if (this.hi == hi) {//optimistic read succeeded, hence read hi+lo was atomic
+            if (lo >= prefetchLo && futureHi.get() == null) {//the low watermark is reached and the next hi is neither being prefetched nor prefetched
+              prefetchHi();
+            }
+            return OptionalLong.of(calculateId(hi, lo));
+          } else {//hi was changed while we were reading lo, so we can't guarantee that the hi+lo read is atomic
+            continue;
+          }
+        }
+      }
+      if (!tryAdvanceHi(hi)) {//the next hi is being prefetched
+        break;
+      }
+    }
+    return OptionalLong.empty();
+  }
+
+  /**
+   * Waits only for prefetches, which are done via {@code prefetchExecutor}.
+   *
+   * @throws RejectedExecutionException If {@code prefetchExecutor} rejects the prefetch this method needs to wait for.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    checkNotNull(timeout, "timeout");
+    final long deadlineNanos = deadlineNanos(timeout);
+    while (true) {
+      final OptionalLong id = tryNext();
+      if (id.isPresent()) {
+        return id.getAsLong();
+      } else if (Thread.interrupted()) {
+        throw new InterruptedException();
+      } else if (System.nanoTime() - deadlineNanos >= 0) {
+        throw new TimeoutException();
+      } else {
+        awaitFutureHi(deadlineNanos);
+      }
+    }
+  }
+
+  /**
+   * Fills {@code ids} starting from {@code fromIdx} with as many identifiers as can be generated using the same {@code hi} value.
+   *
+   * @return The number of generated identifiers, which is positive.
+   */
+  private final int next(final long[] ids, final int fromIdx) {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    final int count = ids.length - fromIdx;
+    long hi = UNINITIALIZED;
+    long lo = -1;
+    final int maxAttempts = 4;
+    for (int attemptIdx = 0; attemptIdx <= maxAttempts; attemptIdx++) {
+      final boolean optimisticAttempt = attemptIdx < maxAttempts;
+      if (optimisticAttempt) {
+        hi = initializedHi();
+        lo = this.lo.getAndAdd(count) + 1;//the first of the reserved lo values
+      }
+      if (lo >= loUpperBoundOpen ||//lo is too big, we probably need to reset lo and advance hi
+          !optimisticAttempt) {//no optimistic attempts left, it's time to use locking
+        final long exclusiveStamp = lock.writeLock();
+        try {
+          lo = this.lo.getAndAdd(count) + 1;
+          if (lo >= loUpperBoundOpen) {//re-check whether we still need to reset lo and advance hi
+            hi = fetchedHi();//the prefetched hi is used if it is available
+            this.hi = hi;//must be written before resetting lo, otherwise an optimistic reader may pair the exhausted hi with the reset lo
+            lo = 0;
+            this.lo.set(Math.min(count, loUpperBoundOpen) - 1);
+          } else {//lo is fine, but we still need to read hi under the exclusive lock to make sure that hi+lo read is atomic
+            hi = this.hi;
+          }
+          break;//hi+lo read was atomic because it was made under the exclusive lock
+        } finally {
+          lock.unlockWrite(exclusiveStamp);
+        }
+      } else {//lo is fine, check whether optimistic read succeeded
+        if (this.hi == hi) {//optimistic read succeeded, hence read hi+lo was atomic and we can break the loop
+          break;
+        }//else continue this while loop because hi was changed while we were reading lo, so we can't guarantee that the hi+lo read is atomic
+      }
+    }
+    final int generatedCount = (int) Math.min(count, loUpperBoundOpen - lo);//reserved lo values that are not less than loUpperBoundOpen can't be used
+    if (lo + generatedCount > prefetchLo && futureHi.get() == null) {//the low watermark is reached and the next hi is neither being prefetched nor prefetched
+      prefetchHi();
+    }
+    for (int i = 0; i < generatedCount; i++) {
+      ids[fromIdx + i] = calculateId(hi, lo + i);
+    }
+    return generatedCount;
+  }
+
+  /**
+   * @return {@code prefetchLo} specified via
+   * {@link #PrefetchingTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, long, Executor)}.
+   */
+  public final long getPrefetchLo() {
+    return prefetchLo;
+  }
+
+  private final long initializedHi() {
+    long hi = this.hi;
+    if (hi == UNINITIALIZED) {
+      final long exclusiveStamp = lock.writeLock();
+      try {
+        hi = this.hi;
+        if (hi == UNINITIALIZED) {
+          hi = fetchedHi();
+          this.hi = hi;
+        }
+      } finally {
+        lock.unlockWrite(exclusiveStamp);
+      }
+    }
+    return hi;
+  }
+
+  /**
+   * Advances {@link #hi} if the next {@code hi} value has been prefetched, otherwise initiates a prefetch.
+   *
+   * @param exhaustedHi The {@code hi} value which the current thread failed to use
+   * because there are no {@code lo} values left for it, or {@link #UNINITIALIZED}.
+   * @return true if {@link #hi} is not {@code exhaustedHi} anymore, false if the next {@code hi} value is not available yet.
+   */
+  private final boolean tryAdvanceHi(final long exhaustedHi) {
+    @Nullable
+    final CompletableFuture<Long> futureHi = this.futureHi.get();
+    if (futureHi == null || !futureHi.isDone()) {
+      if (futureHi == null) {
+        prefetchHi();
+      }
+      return this.hi != exhaustedHi;
+    }
+    final long exclusiveStamp = lock.writeLock();
+    try {
+      if (this.hi == exhaustedHi &&//re-check whether we still need to reset lo and advance hi
+          (exhaustedHi == UNINITIALIZED || lo.get() >= getLoUpperBoundOpen() - 1)) {
+        if (this.futureHi.get() != futureHi) {//the prefetched hi has been used, and the next one is probably being prefetched
+          return false;
+        }
+        final long hi = fetchedHi();//does not wait because the future is completed
+        this.hi = hi;//must be written before resetting lo, otherwise an optimistic reader may pair the exhausted hi with the reset lo
+        lo.set(-1);
+      }
+      return true;
+    } finally {
+      lock.unlockWrite(exclusiveStamp);
+    }
+  }
+
+  /**
+   * Waits for the prefetch of the next {@code hi} value, and initiates it if there is none.
+   *
+   * @throws RejectedExecutionException If {@code prefetchExecutor} rejects the prefetch.
+   */
+  private final void awaitFutureHi(final long deadlineNanos) throws InterruptedException, TimeoutException {
+    @Nullable
+    CompletableFuture<Long> futureHi = this.futureHi.get();
+    if (futureHi == null) {//either the prefetched hi has just been used, or the prefetch was rejected
+      initiatePrefetch();
+      futureHi = this.futureHi.get();
+    }
+    if (futureHi != null && !futureHi.isDone()) {
+      final long timeoutNanos = deadlineNanos - System.nanoTime();
+      if (timeoutNanos <= 0) {
+        throw new TimeoutException();
+      }
+      try {
+        futureHi.get(timeoutNanos, TimeUnit.NANOSECONDS);
+      } catch (final ExecutionException e) {
+        //the cause is thrown when the future is used
+      }
+    }
+  }
+
+  /**
+   * Initiates generating the next {@code hi} value via {@code prefetchExecutor} unless it is already being generated.
+   * If {@code prefetchExecutor} rejects the prefetch, then the next {@code hi} value will be generated when it is needed.
+   */
+  private final void prefetchHi() {
+    try {
+      initiatePrefetch();
+    } catch (final RejectedExecutionException e) {
+      //give up on prefetching
+    }
+  }
+
+  /**
+   * This method is similar to {@link #prefetchHi()}, but fails if {@code prefetchExecutor} rejects the prefetch.
+   *
+   * @throws RejectedExecutionException If {@code prefetchExecutor} rejects the prefetch.
+   */
+  private final void initiatePrefetch() {
+    final CompletableFuture<Long> futureHi = new CompletableFuture<>();
+    if (this.futureHi.compareAndSet(null, futureHi)) {
+      try {
+        prefetchExecutor.execute(() -> completeHi(futureHi));
+      } catch (final RejectedExecutionException e) {
+        this.futureHi.compareAndSet(futureHi, null);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Must be called only by a thread holding the exclusive lock.
+   *
+   * @return The next {@code hi} value, which is either the prefetched one, or a newly generated one if there was no prefetching.
+   */
+  private final long fetchedHi() {
+    CompletableFuture<Long> futureHi = this.futureHi.get();
+    if (futureHi == null) {//there is no prefetching, so we need to generate hi ourselves
+      final CompletableFuture<Long> newFutureHi = new CompletableFuture<>();
+      futureHi = this.futureHi.compareAndExchange(null, newFutureHi);
+      if (futureHi == null) {//we are responsible for generating hi
+        futureHi = newFutureHi;
+        completeHi(futureHi);
+      }//else a prefetch has just been initiated, let us use it
+    }
+    try {
+      return join(futureHi);
+    } finally {//the future is completed either normally or exceptionally, and in both cases it must not be used again
+      this.futureHi.compareAndSet(futureHi, null);
+    }
+  }
+
+  private final void completeHi(final CompletableFuture<Long> futureHi) {
+    try {
+      futureHi.complete(nextHi());
+    } catch (final Throwable e) {
+      futureHi.completeExceptionally(e);
+    }
+  }
+}
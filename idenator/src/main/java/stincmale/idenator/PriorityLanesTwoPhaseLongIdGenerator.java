@@ -0,0 +1,383 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import stincmale.idenator.doc.Immutable;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Constants.EXCLUDE_ASSERTIONS_FROM_BYTECODE;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}
+ * which generates identifiers via named {@linkplain #lane(String) lanes} ordered by priority,
+ * e.g. a high-priority lane for latency-critical callers and a low-priority lane for bulk callers.
+ * <p>
+ * Each lane uses its own {@code hi} values: the current one, and up to {@linkplain Lane#getReservedBlocks() reservedBlocks}
+ * {@code hi} values reserved in advance, all of them generated by the same {@linkplain #getHiGenerator() hiGenerator}.
+ * Hence callers of a lane never use up {@code lo} values of another lane,
+ * and a lane with reserved {@code hi} values does not wait for {@linkplain #getHiGenerator() hiGenerator}
+ * regardless of how intensively other lanes are used.
+ * A lane waits for {@linkplain #getHiGenerator() hiGenerator} only if it has used up all its reserved {@code hi} values.
+ * <p>
+ * Reserved {@code hi} values are replenished (topped up) via {@code refillExecutor} one at a time,
+ * and each time the lane with the highest priority among those lacking reserved {@code hi} values is topped up first.
+ * A lane starts reserving {@code hi} values when it is used for the first time.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent under the same conditions as described in {@link AbstractTwoPhaseLongIdGenerator},
+ * but reserved {@code hi} values which were not used are lost.
+ * </li>
+ * <li>
+ * This ID generator is nonmonotonic, because lanes generate identifiers from different {@code hi} values independently.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class PriorityLanesTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  /**
+   * Lanes ordered by priority, the first one has the highest priority.
+   */
+  private final LaneGenerator[] lanes;
+  private final Map<String, LaneGenerator> lanesByName;
+  /**
+   * Guards {@link #nextHi()} because {@linkplain #getHiGenerator() hiGenerator} is not required to be thread-safe.
+   */
+  private final Lock hiLock;
+  private final SingleFlight topUp;
+  private final Executor refillExecutor;
+
+  /**
+   * This constructor uses {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param hiGenerator See {@link #PriorityLanesTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, List, Executor)}.
+   * @param loUpperBoundOpen See {@link #PriorityLanesTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, List, Executor)}.
+   * @param pooled See {@link #PriorityLanesTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, List, Executor)}.
+   * @param lanes See {@link #PriorityLanesTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean, List, Executor)}.
+   */
+  public PriorityLanesTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final List<Lane> lanes) {
+    this(hiGenerator, loUpperBoundOpen, pooled, lanes, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param lanes Lanes ordered by priority, the first one has the highest priority. Must not be empty.
+   * Names of lanes must be unique.
+   * @param refillExecutor An {@link Executor} which is used to top up reserved {@code hi} values of lanes.
+   * If it rejects a task, then lanes are topped up later, or wait for {@linkplain #getHiGenerator() hiGenerator} when they need to.
+   * {@code refillExecutor} is also used by {@link LongIdGenerator#tryNext()} of a lane to initiate waiting
+   * for {@linkplain #getHiGenerator() hiGenerator} if the lane has no reserved {@code hi} values.
+   * If it rejects such a task, then {@link LongIdGenerator#tryNext()} and {@link LongIdGenerator#next(Duration)}
+   * of the lane fail with the {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  public PriorityLanesTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final List<Lane> lanes,
+      final Executor refillExecutor) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    checkNotNull(lanes, "lanes");
+    checkArgument(!lanes.isEmpty(), "lanes", "Must not be empty");
+    this.lanes = new LaneGenerator[lanes.size()];
+    lanesByName = new HashMap<>();
+    for (int laneIdx = 0; laneIdx < this.lanes.length; laneIdx++) {
+      final Lane lane = checkNotNull(lanes.get(laneIdx), format("lanes[%s]", laneIdx));
+      final LaneGenerator laneGenerator = new LaneGenerator(lane);
+      checkArgument(lanesByName.putIfAbsent(lane.getName(), laneGenerator) == null, "lanes",
+          () -> format("Names of lanes must be unique, but %s is duplicated", lane.getName()));
+      this.lanes[laneIdx] = laneGenerator;
+    }
+    hiLock = new ReentrantLock(true);
+    topUp = new SingleFlight();
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+  }
+
+  /**
+   * Generates an identifier via the lane with the lowest priority.
+   */
+  @Override
+  public final long next() {
+    return lanes[lanes.length - 1].next();
+  }
+
+  /**
+   * Generates an identifier via the lane with the lowest priority.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    return lanes[lanes.length - 1].tryNext();
+  }
+
+  /**
+   * Generates an identifier via the lane with the lowest priority.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return lanes[lanes.length - 1].next(timeout);
+  }
+
+  /**
+   * @param name The {@linkplain Lane#getName() name} of one of the lanes specified at construction.
+   * @return An ID generator which generates identifiers via the lane with the specified {@code name}.
+   * Identifiers generated via all lanes are unique.
+   */
+  public final LongIdGenerator lane(final String name) {
+    checkNotNull(name, "name");
+    @Nullable
+    final LaneGenerator lane = lanesByName.get(name);
+    checkArgument(lane != null, "name", () -> format("There is no lane with the name %s", name));
+    return lane;
+  }
+
+  /**
+   * @return The number of {@code hi} values currently reserved for the lane with the specified {@code name}.
+   */
+  final int getNumberOfReservedBlocks(final String name) {
+    return ((LaneGenerator) lane(name)).getNumberOfReservedBlocks();
+  }
+
+  @Override
+  public final String toString() {
+    final StringBuilder lanes = new StringBuilder("[");
+    for (int laneIdx = 0; laneIdx < this.lanes.length; laneIdx++) {
+      lanes.append(laneIdx == 0 ? "" : ", ")
+          .append(this.lanes[laneIdx].lane);
+    }
+    lanes.append(']');
+    return getClass().getSimpleName() +
+        "{hiGenerator=" + getHiGenerator() +
+        ", loUpperBoundOpen=" + getLoUpperBoundOpen() +
+        ", lanes=" + lanes +
+        '}';
+  }
+
+  private final long lockedNextHi() {
+    hiLock.lock();
+    try {
+      return nextHi();
+    } finally {
+      hiLock.unlock();
+    }
+  }
+
+  /**
+   * Initiates topping up lanes via {@code refillExecutor} if needed and if this is not already being done.
+   * Failures of topping up are not reported, because lanes which lack reserved {@code hi} values use {@linkplain #getHiGenerator() hiGenerator}.
+   */
+  private final void scheduleTopUp() {
+    topUp.initiate(() -> laneToTopUp() != null, this::topUp, refillExecutor);
+  }
+
+  /**
+   * Must be called only via {@link #scheduleTopUp()}.
+   */
+  private final void topUp() {
+    for (@Nullable LaneGenerator lane = laneToTopUp(); lane != null; lane = laneToTopUp()) {
+      lane.reserve(lockedNextHi());
+    }
+  }
+
+  /**
+   * @return The lane with the highest priority among those lacking reserved {@code hi} values, or null if there is no such lane.
+   */
+  @Nullable
+  private final LaneGenerator laneToTopUp() {
+    for (final LaneGenerator lane : lanes) {
+      if (lane.needsTopUp()) {
+        return lane;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A specification of a lane of {@link PriorityLanesTwoPhaseLongIdGenerator}.
+   */
+  @Immutable
+  public static final class Lane {
+    private final String name;
+    private final int reservedBlocks;
+
+    /**
+     * @param name The name of the lane.
+     * @param reservedBlocks The number of {@code hi} values reserved for the lane in advance,
+     * i.e. the lane can generate {@code reservedBlocks * loUpperBoundOpen} identifiers
+     * in addition to the remaining {@code lo} values of its current {@code hi} value without waiting for {@code hiGenerator}.
+     * Must not be negative. Lanes used by latency-critical callers should reserve at least 1 {@code hi} value.
+     */
+    public Lane(final String name, final int reservedBlocks) {
+      this.name = checkNotNull(name, "name");
+      checkArgument(reservedBlocks >= 0, "reservedBlocks", "Must not be negative");
+      this.reservedBlocks = reservedBlocks;
+    }
+
+    /**
+     * @return {@code name} specified via {@link #Lane(String, int)}.
+     */
+    public final String getName() {
+      return name;
+    }
+
+    /**
+     * @return {@code reservedBlocks} specified via {@link #Lane(String, int)}.
+     */
+    public final int getReservedBlocks() {
+      return reservedBlocks;
+    }
+
+    @Override
+    public final String toString() {
+      return getClass().getSimpleName() +
+          "{name=" + name +
+          ", reservedBlocks=" + reservedBlocks +
+          '}';
+    }
+  }
+
+  @ThreadSafe
+  private final class LaneGenerator implements LongIdGenerator {
+    private final Lane lane;
+    /**
+     * Reserved {@code hi} values, or null if the {@link #lane} does not reserve them.
+     */
+    @Nullable
+    private final BlockingQueue<Long> reservedHis;
+    private final SingleFlight advance;
+    private volatile Block block;
+
+    private LaneGenerator(final Lane lane) {
+      this.lane = lane;
+      reservedHis = lane.getReservedBlocks() == 0 ? null : new ArrayBlockingQueue<>(lane.getReservedBlocks());
+      advance = new SingleFlight();
+      block = new Block(UNINITIALIZED, getLoUpperBoundOpen());//an exhausted block
+    }
+
+    @Override
+    public final long next() {
+      final long loUpperBoundOpen = getLoUpperBoundOpen();
+      while (true) {
+        final Block block = this.block;
+        final long lo = block.lo.getAndIncrement();
+        if (lo < loUpperBoundOpen) {
+          return calculateId(block.hi, lo);
+        } else {//the block is exhausted
+          advance.run(() -> this.block == block, this::advance);
+        }
+      }
+    }
+
+    /**
+     * Uses a reserved {@code hi} value in the current thread if the {@link #block} is exhausted,
+     * and initiates waiting for {@linkplain #getHiGenerator() hiGenerator} via {@code refillExecutor} if there are no reserved {@code hi} values.
+     */
+    @Override
+    public final OptionalLong tryNext() {
+      final long loUpperBoundOpen = getLoUpperBoundOpen();
+      while (true) {
+        final Block block = this.block;
+        final long lo = block.lo.getAndIncrement();
+        if (lo < loUpperBoundOpen) {
+          return OptionalLong.of(calculateId(block.hi, lo));
+        } else if (!advance.tryRun(() -> this.block == block, this::advance, hasReservedHi() ? Runnable::run : refillExecutor)) {
+          return OptionalLong.empty();
+        }
+      }
+    }
+
+    @Override
+    public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+      return advance.next(timeout, this::tryNext);
+    }
+
+    /**
+     * Must be called only via {@link #advance}.
+     * Does not wait for {@linkplain #getHiGenerator() hiGenerator} if there is a reserved {@code hi} value.
+     */
+    private final void advance() {
+      @Nullable
+      final Long reservedHi = reservedHis == null ? null : reservedHis.poll();
+      block = new Block(reservedHi == null ? lockedNextHi() : reservedHi, 0);
+      scheduleTopUp();
+    }
+
+    private final boolean hasReservedHi() {
+      return reservedHis != null && !reservedHis.isEmpty();
+    }
+
+    private final boolean needsTopUp() {
+      return reservedHis != null && reservedHis.remainingCapacity() > 0;
+    }
+
+    /**
+     * Must be called only via {@link #topUp()}.
+     */
+    private final void reserve(final long hi) {
+      assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || reservedHis != null;
+      final boolean reserved = reservedHis.offer(hi);
+      assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || reserved;//only topUp adds reserved hi values
+    }
+
+    private final int getNumberOfReservedBlocks() {
+      return reservedHis == null ? 0 : reservedHis.size();
+    }
+
+    @Override
+    public final String toString() {
+      return getClass().getSimpleName() +
+          "{lane=" + lane +
+          ", generator=" + PriorityLanesTwoPhaseLongIdGenerator.this +
+          '}';
+    }
+  }
+
+  @ThreadSafe
+  private static final class Block {
+    private final long hi;
+    private final AtomicLong lo;
+
+    private Block(final long hi, final long lo) {
+      this.hi = hi;
+      this.lo = new AtomicLong(lo);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import stincmale.idenator.doc.Immutable;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Utils.format;
+
+/**
+ * A durable storage of {@linkplain Remainder remainders}, i.e. of {@code lo} values which an {@link AbstractTwoPhaseLongIdGenerator}
+ * has not used with its last {@code hi} value before being closed.
+ * Storing remainders allows other ID generators, e.g. ones created after a restart of the program,
+ * to use the remaining {@code lo} values instead of generating new {@code hi} values,
+ * which both saves {@code hi} values and avoids accessing {@code hiGenerator}.
+ * <p>
+ * All ID generators that use the same store must use {@code hiGenerator}s which generate {@code hi} values from the same range,
+ * e.g. the same database sequence.
+ * An ID generator does not use {@linkplain Remainder remainders} stored with a different {@code loUpperBoundOpen} or mode (Hi/Lo or pooled),
+ * and puts them back to the store so that they remain available to the ID generators which can use them.
+ * <p>
+ * Implementations must be {@linkplain ThreadSafe thread-safe}, and if a store is shared between processes,
+ * then each remainder must be {@linkplain #poll() polled} by at most one process.
+ */
+@ThreadSafe
+public interface RemainderStore {
+  /**
+   * Durably stores the {@code remainder}. The stored remainder is not lost even if the program crashes after this method returns.
+   *
+   * @param remainder A remainder to store.
+   * @throws IOException If the {@code remainder} cannot be stored.
+   */
+  void put(Remainder remainder) throws IOException;
+
+  /**
+   * Durably removes a stored remainder and returns it. A remainder returned by this method is never returned again,
+   * even if the program crashes after this method returns. The order in which stored remainders are returned is not specified.
+   *
+   * @return The removed remainder, or null if there are no stored remainders.
+   * @throws IOException If a stored remainder cannot be removed.
+   */
+  @Nullable
+  Remainder poll() throws IOException;
+
+  /**
+   * Unused {@code lo} values of a {@code hi} value:
+   * from {@linkplain #getLo() lo} (inclusive) to {@linkplain #getLoUpperBoundOpen() loUpperBoundOpen} (exclusive).
+   * A remainder also records the mode of the ID generator which stored it,
+   * so that it is not used by an ID generator which would generate different identifiers from the same {@code hi} and {@code lo} values.
+   */
+  @Immutable
+  final class Remainder {
+    private final long hi;
+    private final long lo;
+    private final long loUpperBoundOpen;
+    private final boolean pooled;
+
+    /**
+     * @param hi A {@code hi} value. Must not be equal to {@link AbstractTwoPhaseLongIdGenerator#UNINITIALIZED}.
+     * @param lo The smallest unused {@code lo} value. {@code lo} ∈ [0; {@code loUpperBoundOpen}).
+     * @param loUpperBoundOpen {@code loUpperBoundOpen} of the ID generator which stores the remainder. Must be positive.
+     * @param pooled {@code pooled} of the ID generator which stores the remainder.
+     */
+    public Remainder(final long hi, final long lo, final long loUpperBoundOpen, final boolean pooled) {
+      checkArgument(hi != AbstractTwoPhaseLongIdGenerator.UNINITIALIZED, "hi", "Must not be UNINITIALIZED");
+      checkArgument(loUpperBoundOpen > 0, "loUpperBoundOpen", "Must be positive");
+      checkArgument(lo >= 0 && lo < loUpperBoundOpen, "lo", () -> format("Must belong to [0; %s)", loUpperBoundOpen));
+      this.hi = hi;
+      this.lo = lo;
+      this.loUpperBoundOpen = loUpperBoundOpen;
+      this.pooled = pooled;
+    }
+
+    /**
+     * @return {@code hi} specified via {@link #Remainder(long, long, long, boolean)}.
+     */
+    public final long getHi() {
+      return hi;
+    }
+
+    /**
+     * @return {@code lo} specified via {@link #Remainder(long, long, long, boolean)}.
+     */
+    public final long getLo() {
+      return lo;
+    }
+
+    /**
+     * @return {@code loUpperBoundOpen} specified via {@link #Remainder(long, long, long, boolean)}.
+     */
+    public final long getLoUpperBoundOpen() {
+      return loUpperBoundOpen;
+    }
+
+    /**
+     * @return {@code pooled} specified via {@link #Remainder(long, long, long, boolean)}.
+     */
+    public final boolean isPooled() {
+      return pooled;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof Remainder) {
+        final Remainder other = (Remainder) o;
+        return hi == other.hi && lo == other.lo && loUpperBoundOpen == other.loUpperBoundOpen && pooled == other.pooled;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public final int hashCode() {
+      int result = Long.hashCode(hi);
+      result = 31 * result + Long.hashCode(lo);
+      result = 31 * result + Long.hashCode(loUpperBoundOpen);
+      return 31 * result + Boolean.hashCode(pooled);
+    }
+
+    @Override
+    public final String toString() {
+      return getClass().getSimpleName() +
+          "{hi=" + hi +
+          ", lo=" + lo +
+          ", loUpperBoundOpen=" + loUpperBoundOpen +
+          ", pooled=" + pooled +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import static stincmale.idenator.internal.util.Utils.saturatedToNanos;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} decorator of a {@link LongIdGenerator} which tolerates its transient failures,
+ * e.g. failures of a {@code hi} value generator backed by a database that fails over.
+ * <ul>
+ * <li>
+ * A failed attempt to generate an identifier is retried, making at most {@linkplain #getMaxAttempts() maxAttempts} attempts.
+ * Before making the attempt {@code n + 1} a thread waits for a random duration from
+ * [0; min({@code maxBackoff}, {@code initialBackoff * 2}<sup>{@code n - 1}</sup>)],
+ * so that threads which failed simultaneously do not retry simultaneously.
+ * </li>
+ * <li>
+ * If {@code callTimeout} is specified, then attempts are made via {@code callExecutor},
+ * and an attempt which does not complete within {@code callTimeout} fails.
+ * The identifier generated by such an attempt after it has failed is lost.
+ * </li>
+ * <li>
+ * After {@linkplain #getFailureThreshold() failureThreshold} consecutive failed attempts the circuit breaker
+ * {@linkplain CircuitState#OPEN opens}, and {@link #next()} fails fast without calling the decorated ID generator
+ * for {@linkplain #getOpenDuration() openDuration}.
+ * After that the circuit breaker lets a single {@link #next()} make a single attempt while other calls keep failing fast:
+ * if the attempt succeeds, then the circuit breaker {@linkplain CircuitState#CLOSED closes}, otherwise it opens again.
+ * </li>
+ * </ul>
+ * An {@link AbstractTwoPhaseLongIdGenerator} calls its {@linkplain AbstractTwoPhaseLongIdGenerator#getHiGenerator() hiGenerator}
+ * only when the current block of identifiers is exhausted.
+ * So if it uses this decorator as its {@code hiGenerator}, then it keeps generating identifiers from the current block
+ * while the circuit breaker is open, and fails fast only when the block is exhausted.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}): the same as those of the decorated ID generator,
+ * except for that identifiers generated by timed out attempts are lost.
+ */
+@ThreadSafe
+public final class ResilientLongIdGenerator implements LongIdGenerator {
+  private final LongIdGenerator delegate;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final long initialBackoffNanos;
+  private final Duration maxBackoff;
+  private final long maxBackoffNanos;
+  private final Duration callTimeout;
+  private final long callTimeoutNanos;
+  private final Executor callExecutor;
+  private final int failureThreshold;
+  private final Duration openDuration;
+  private final long openDurationNanos;
+  /**
+   * Guards all fields below it.
+   */
+  private final Lock lock;
+  private CircuitState state;
+  private int consecutiveFailures;
+  /**
+   * The {@link System#nanoTime()} value at which the circuit breaker opened.
+   */
+  private long openedAtNanos;
+
+  /**
+   * This constructor uses {@code callExecutor} which runs tasks in the calling thread,
+   * and hence does not limit the duration of attempts.
+   *
+   * @param delegate See {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   * @param maxAttempts See {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   * @param initialBackoff See {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   * @param maxBackoff See {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   * @param failureThreshold See {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   * @param openDuration See {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   */
+  public ResilientLongIdGenerator(
+      final LongIdGenerator delegate,
+      final int maxAttempts,
+      final Duration initialBackoff,
+      final Duration maxBackoff,
+      final int failureThreshold,
+      final Duration openDuration) {
+    this(delegate, maxAttempts, initialBackoff, maxBackoff, Duration.ofNanos(Long.MAX_VALUE), failureThreshold, openDuration, Runnable::run);
+  }
+
+  /**
+   * @param delegate The decorated ID generator. Must be {@linkplain ThreadSafe thread-safe} because attempts which have timed out
+   * may still be in progress when new attempts are made.
+   * @param maxAttempts The maximal number of attempts made by a single call to {@link #next()}. Must be positive.
+   * @param initialBackoff The maximal duration to wait before the second attempt. Must not be negative.
+   * @param maxBackoff The maximal duration to wait before any attempt. Must not be less than {@code initialBackoff}.
+   * @param callTimeout The maximal duration of an attempt. Must be positive.
+   * The duration of an attempt is not limited if {@code callExecutor} runs tasks in the calling thread.
+   * @param failureThreshold The number of consecutive failed attempts after which the circuit breaker opens. Must be positive.
+   * @param openDuration The duration for which the circuit breaker stays open before letting an attempt to be made.
+   * Must not be negative.
+   * @param callExecutor An {@link Executor} which is used to make attempts.
+   * If it rejects a task, then this is treated as a failed attempt.
+   */
+  public ResilientLongIdGenerator(
+      final LongIdGenerator delegate,
+      final int maxAttempts,
+      final Duration initialBackoff,
+      final Duration maxBackoff,
+      final Duration callTimeout,
+      final int failureThreshold,
+      final Duration openDuration,
+      final Executor callExecutor) {
+    this.delegate = checkNotNull(delegate, "delegate");
+    checkArgument(maxAttempts > 0, "maxAttempts", "Must be positive");
+    checkNotNull(initialBackoff, "initialBackoff");
+    checkArgument(!initialBackoff.isNegative(), "initialBackoff", "Must not be negative");
+    checkNotNull(maxBackoff, "maxBackoff");
+    checkArgument(maxBackoff.compareTo(initialBackoff) >= 0, "maxBackoff", () -> format("Must not be less than %s", initialBackoff));
+    checkNotNull(callTimeout, "callTimeout");
+    checkArgument(!(callTimeout.isNegative() || callTimeout.isZero()), "callTimeout", "Must be positive");
+    checkArgument(failureThreshold > 0, "failureThreshold", "Must be positive");
+    checkNotNull(openDuration, "openDuration");
+    checkArgument(!openDuration.isNegative(), "openDuration", "Must not be negative");
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+    initialBackoffNanos = saturatedToNanos(initialBackoff);
+    this.maxBackoff = maxBackoff;
+    maxBackoffNanos = saturatedToNanos(maxBackoff);
+    this.callTimeout = callTimeout;
+    callTimeoutNanos = saturatedToNanos(callTimeout);
+    this.callExecutor = checkNotNull(callExecutor, "callExecutor");
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+    openDurationNanos = saturatedToNanos(openDuration);
+    lock = new ReentrantLock();
+    state = CircuitState.CLOSED;
+    consecutiveFailures = 0;
+    openedAtNanos = 0;
+  }
+
+  /**
+   * @throws LongIdGeneratorUnavailableException If the circuit breaker does not let this method make an attempt,
+   * if all attempts failed, or if the current thread was interrupted while waiting.
+   * In the latter case the interrupt status of the thread is restored.
+   * The exception caused by the first failed attempt is the {@linkplain Throwable#getCause() cause},
+   * and exceptions caused by subsequent failed attempts are {@linkplain Throwable#getSuppressed() suppressed}.
+   */
+  @Override
+  public final long next() {
+    final boolean probe = acquirePermission();
+    final int maxAttempts = probe ? 1 : this.maxAttempts;
+    boolean succeeded = false;
+    @Nullable
+    LongIdGeneratorUnavailableException unavailable = null;
+    try {
+      for (int attempt = 1; ; attempt++) {
+        try {
+          final long id = attempt();
+          recordSuccess();
+          succeeded = true;
+          return id;
+        } catch (final RuntimeException | TimeoutException e) {
+          unavailable = addFailure(unavailable, e);
+          if (!recordFailure() || attempt == maxAttempts) {
+            throw unavailable;
+          }
+          TimeUnit.NANOSECONDS.sleep(backoffNanos(attempt));
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw addFailure(unavailable, e);
+    } finally {
+      if (probe && !succeeded) {
+        releaseProbe();
+      }
+    }
+  }
+
+  /**
+   * @return The current state of the circuit breaker.
+   * An {@linkplain CircuitState#OPEN open} circuit breaker becomes {@linkplain CircuitState#HALF_OPEN half-open}
+   * only when {@link #next()} is called after {@linkplain #getOpenDuration() openDuration} has elapsed.
+   */
+  public final CircuitState getCircuitState() {
+    lock.lock();
+    try {
+      return state;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return {@code maxAttempts} specified via {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   */
+  public final int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @return {@code failureThreshold} specified via {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   */
+  public final int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /**
+   * @return {@code openDuration} specified via {@link #ResilientLongIdGenerator(LongIdGenerator, int, Duration, Duration, Duration, int, Duration, Executor)}.
+   */
+  public final Duration getOpenDuration() {
+    return openDuration;
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{delegate=" + delegate +
+        ", maxAttempts=" + maxAttempts +
+        ", initialBackoff=" + initialBackoff +
+        ", maxBackoff=" + maxBackoff +
+        ", callTimeout=" + callTimeout +
+        ", failureThreshold=" + failureThreshold +
+        ", openDuration=" + openDuration +
+        ", state=" + getCircuitState() +
+        '}';
+  }
+
+  private final long attempt() throws InterruptedException, TimeoutException {
+    final CompletableFuture<Long> call = CompletableFuture.supplyAsync(delegate::next, callExecutor);
+    try {
+      return call.get(callTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new RuntimeException(cause);
+      }
+    } catch (final TimeoutException e) {
+      call.cancel(false);//the identifier generated by the call is lost
+      throw e;
+    }
+  }
+
+  /**
+   * @return The duration to wait before the attempt {@code failedAttempt + 1}.
+   */
+  private final long backoffNanos(final int failedAttempt) {
+    final int shift = failedAttempt - 1;
+    final long exponentialBackoffNanos = shift >= Long.numberOfLeadingZeros(initialBackoffNanos) - 1
+        ? Long.MAX_VALUE
+        : initialBackoffNanos << shift;
+    final long maxNanos = Math.min(exponentialBackoffNanos, maxBackoffNanos);
+    return maxNanos == Long.MAX_VALUE ? Long.MAX_VALUE : ThreadLocalRandom.current().nextLong(maxNanos + 1);
+  }
+
+  /**
+   * @return true if this method made the circuit breaker {@linkplain CircuitState#HALF_OPEN half-open}
+   * and the current thread must make a single attempt, false if the circuit breaker is {@linkplain CircuitState#CLOSED closed}.
+   * @throws LongIdGeneratorUnavailableException If the circuit breaker does not let the current thread make an attempt.
+   */
+  private final boolean acquirePermission() {
+    lock.lock();
+    try {
+      switch (state) {
+        case CLOSED: {
+          return false;
+        }
+        case OPEN: {
+          if (System.nanoTime() - openedAtNanos >= openDurationNanos) {
+            state = CircuitState.HALF_OPEN;
+            return true;
+          }
+          break;
+        }
+        case HALF_OPEN: {
+          break;
+        }
+        default: {
+          throw new AssertionError(state);
+        }
+      }
+      throw new LongIdGeneratorUnavailableException(format("The circuit breaker is %s", state), null);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private final void recordSuccess() {
+    lock.lock();
+    try {
+      consecutiveFailures = 0;
+      state = CircuitState.CLOSED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if the circuit breaker is {@linkplain CircuitState#CLOSED closed} after recording the failure.
+   */
+  private final boolean recordFailure() {
+    lock.lock();
+    try {
+      consecutiveFailures = consecutiveFailures == Integer.MAX_VALUE ? consecutiveFailures : consecutiveFailures + 1;
+      if (state == CircuitState.HALF_OPEN || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+        state = CircuitState.OPEN;
+        openedAtNanos = System.nanoTime();
+      }
+      return state == CircuitState.CLOSED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Opens the {@linkplain CircuitState#HALF_OPEN half-open} circuit breaker if the attempt allowed by it has not been recorded,
+   * e.g. because the current thread was interrupted.
+   * The circuit breaker opened this way lets the next call to {@link #next()} make an attempt.
+   */
+  private final void releaseProbe() {
+    lock.lock();
+    try {
+      if (state == CircuitState.HALF_OPEN) {
+        state = CircuitState.OPEN;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final LongIdGeneratorUnavailableException addFailure(
+      @Nullable final LongIdGeneratorUnavailableException unavailable,
+      final Throwable failure) {
+    if (unavailable == null) {
+      return new LongIdGeneratorUnavailableException("Failed to generate an identifier", failure);
+    } else {
+      unavailable.addSuppressed(failure);
+      return unavailable;
+    }
+  }
+
+  /**
+   * The state of the circuit breaker of a {@link ResilientLongIdGenerator}.
+   */
+  public enum CircuitState {
+    /**
+     * Calls to the decorated ID generator are allowed.
+     */
+    CLOSED,
+    /**
+     * Calls to the decorated ID generator are not allowed.
+     */
+    OPEN,
+    /**
+     * A single call to the decorated ID generator is allowed in order to check whether it has recovered.
+     */
+    HALF_OPEN
+  }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}
+ * which shares its state with all instances of {@link SharedMemoryTwoPhaseLongIdGenerator} that use the same file,
+ * including instances in other processes on the same host.
+ * So all processes on a host generate identifiers from the same {@code hi} value,
+ * and only one of them calls {@linkplain #getHiGenerator() hiGenerator} when the {@code hi} value is exhausted.
+ * <p>
+ * The shared state is stored in a memory-mapped file, and {@code lo} values are allocated lock-free
+ * via atomic operations on the memory shared by all processes.
+ * Generating a new {@code hi} value is guarded by a lock in the shared memory.
+ * If the process holding the lock crashes, or holds it for longer than {@linkplain #getRefillLease() refillLease},
+ * then another process takes the lock over.
+ * Taking the lock over does not compromise uniqueness of identifiers even if the previous holder is still alive,
+ * because each {@code hi} value is used to generate identifiers only with one sequence of {@code lo} values,
+ * but the {@code hi} value generated by the previous holder, as well as some {@code lo} values, may be lost.
+ * However, if the previous holder is still alive, then it may publish its {@code hi} value after the new holder has published a greater one,
+ * in which case generated identifiers decrease.
+ * <p>
+ * The file must not outlive the host it was created on, e.g. it should reside in a {@code tmpfs} file system such as {@code /dev/shm},
+ * because after a crash of the operating system the file may contain outdated state, which would lead to generating duplicate identifiers.
+ * All instances that use the same file must use the same {@code loUpperBoundOpen} and {@code pooled},
+ * and {@code hiGenerator}s which generate {@code hi} values from the same range, e.g. the same database sequence.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent under the same conditions as described in {@link AbstractTwoPhaseLongIdGenerator}.
+ * </li>
+ * <li>
+ * This ID generator is strictly increasing, and is {@link IdOrdering#LINEARIZABLE_MONOTONIC} across all processes,
+ * if {@linkplain #getHiGenerator() hiGenerator} is strictly increasing
+ * and the refill lock is never taken over from a holder which is still alive, otherwise it is nonmonotonic.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class SharedMemoryTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final long MAGIC = 0x69646e7200000001L;
+  /**
+   * The offsets of shared variables. Each frequently modified variable resides in its own cache line.
+   */
+  private static final int MAGIC_OFFSET = 0;
+  private static final int LO_UPPER_BOUND_OPEN_OFFSET = 8;
+  private static final int POOLED_OFFSET = 16;
+  /**
+   * The cursor consists of the generation of the current {@code hi} value (the high 32 bits),
+   * and the next {@code lo} value (the low 32 bits).
+   */
+  private static final int CURSOR_OFFSET = 64;
+  /**
+   * The refill lock is 0 if it is not held,
+   * otherwise it consists of the token of its holder (the high 32 bits) and the lease deadline in epoch seconds (the low 32 bits).
+   */
+  private static final int REFILL_LOCK_OFFSET = 128;
+  /**
+   * Two slots, each consisting of a generation and a {@code hi} value.
+   * The {@code hi} value of the generation {@code g} is stored in the slot {@code g % 2}.
+   */
+  private static final int SLOTS_OFFSET = 192;
+  private static final int SLOT_SIZE = 16;
+  private static final int FILE_SIZE = SLOTS_OFFSET + 2 * SLOT_SIZE;
+  private static final long LO_MASK = 0xFFFF_FFFFL;
+  private static final long INVALID_GENERATION = -1;
+  private static final int TOKEN_NONCE_BITS = 10;
+  private static final long PID = ProcessHandle.current().pid();
+
+  private final Path file;
+  private final Duration refillLease;
+  private final long refillLeaseSeconds;
+  private final Executor refillExecutor;
+  /**
+   * Makes sure that {@link #tryNext()} initiates at most one refill at a time in this instance.
+   */
+  private final SingleFlight refill;
+  private final MappedByteBuffer buffer;
+  /**
+   * Identifies this instance among all instances that may hold the refill lock.
+   */
+  private final long token;
+
+  /**
+   * This constructor uses 1 minute as {@code refillLease},
+   * and {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param file See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param hiGenerator See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param loUpperBoundOpen See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param pooled See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @throws IOException See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   */
+  public SharedMemoryTwoPhaseLongIdGenerator(
+      final Path file,
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled) throws IOException {
+    this(file, hiGenerator, loUpperBoundOpen, pooled, Duration.ofMinutes(1), VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * This constructor uses {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param file See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param hiGenerator See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param loUpperBoundOpen See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param pooled See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @param refillLease See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   * @throws IOException See {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration, Executor)}.
+   */
+  public SharedMemoryTwoPhaseLongIdGenerator(
+      final Path file,
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final Duration refillLease) throws IOException {
+    this(file, hiGenerator, loUpperBoundOpen, pooled, refillLease, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param file The file which stores the shared state. It is created if it does not exist.
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * Must not be greater than {@code 2}<sup>{@code 32}</sup>{@code  - 1}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param refillLease The duration after which the refill lock held by another instance may be taken over
+   * even if the process of that instance is alive. Must be at least 1 second.
+   * @param refillExecutor An {@link Executor} which is used by {@link #tryNext()} to generate a new {@code hi} value
+   * or to wait for another instance generating it.
+   * If it rejects a task, then {@link #tryNext()} and {@link #next(Duration)} fail with the {@link java.util.concurrent.RejectedExecutionException}.
+   * @throws IOException If the {@code file} cannot be opened,
+   * or if it is used with {@code loUpperBoundOpen} or {@code pooled} different from the specified ones.
+   */
+  public SharedMemoryTwoPhaseLongIdGenerator(
+      final Path file,
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final Duration refillLease,
+      final Executor refillExecutor) throws IOException {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    checkArgument(loUpperBoundOpen <= LO_MASK, "loUpperBoundOpen", () -> format("Must not be greater than %s", LO_MASK));
+    this.file = checkNotNull(file, "file");
+    checkNotNull(refillLease, "refillLease");
+    checkArgument(refillLease.getSeconds() >= 1, "refillLease", "Must be at least 1 second");
+    this.refillLease = refillLease;
+    refillLeaseSeconds = Math.min(refillLease.getSeconds(), Integer.MAX_VALUE);
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+    refill = new SingleFlight();
+    token = ((PID << TOKEN_NONCE_BITS) | ThreadLocalRandom.current().nextInt(1, 1 << TOKEN_NONCE_BITS)) & LO_MASK;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      buffer = channel.map(MapMode.READ_WRITE, 0, FILE_SIZE);//the mapping remains valid after the channel is closed
+      synchronized (SharedMemoryTwoPhaseLongIdGenerator.class) {//file locks are held on behalf of the whole JVM
+        final FileLock initLock = channel.lock();
+        try {
+          if ((long) LONGS.getVolatile(buffer, MAGIC_OFFSET) == MAGIC) {
+            if ((long) LONGS.getVolatile(buffer, LO_UPPER_BOUND_OPEN_OFFSET) != loUpperBoundOpen
+                || (long) LONGS.getVolatile(buffer, POOLED_OFFSET) != (pooled ? 1 : 0)) {
+              throw new IOException(format("The file %s is used with different loUpperBoundOpen or pooled", file));
+            }
+          } else {//the file was either just created, or its initialization was interrupted by a crash
+            LONGS.setVolatile(buffer, LO_UPPER_BOUND_OPEN_OFFSET, loUpperBoundOpen);
+            LONGS.setVolatile(buffer, POOLED_OFFSET, pooled ? 1L : 0L);
+            LONGS.setVolatile(buffer, CURSOR_OFFSET, loUpperBoundOpen);//the generation 0 is exhausted
+            LONGS.setVolatile(buffer, REFILL_LOCK_OFFSET, 0L);
+            for (int slotIdx = 0; slotIdx < 2; slotIdx++) {
+              LONGS.setVolatile(buffer, SLOTS_OFFSET + slotIdx * SLOT_SIZE, INVALID_GENERATION);
+            }
+            LONGS.setVolatile(buffer, MAGIC_OFFSET, MAGIC);
+          }
+        } finally {
+          initLock.release();
+        }
+      }
+    }
+  }
+
+  @Override
+  public final long next() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    while (true) {
+      final long cursor = (long) LONGS.getVolatile(buffer, CURSOR_OFFSET);
+      final long lo = cursor & LO_MASK;
+      if (lo < loUpperBoundOpen) {
+        final long hi = hi(cursor);
+        if (hi != UNINITIALIZED && LONGS.compareAndSet(buffer, CURSOR_OFFSET, cursor, cursor + 1)) {
+          return calculateId(hi, lo);
+        }
+      } else {
+        refill(cursor);
+      }
+    }
+  }
+
+  /**
+   * Initiates generating a new {@code hi} value via {@code refillExecutor} if the current one is exhausted.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    while (true) {
+      final long cursor = (long) LONGS.getVolatile(buffer, CURSOR_OFFSET);
+      final long lo = cursor & LO_MASK;
+      if (lo < loUpperBoundOpen) {
+        final long hi = hi(cursor);
+        if (hi != UNINITIALIZED && LONGS.compareAndSet(buffer, CURSOR_OFFSET, cursor, cursor + 1)) {
+          return OptionalLong.of(calculateId(hi, lo));
+        }
+      } else if (!refill.tryRun(() -> (long) LONGS.getVolatile(buffer, CURSOR_OFFSET) == cursor, () -> refill(cursor), refillExecutor)) {
+        return OptionalLong.empty();
+      }
+    }
+  }
+
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return refill.next(timeout, this::tryNext);
+  }
+
+  /**
+   * Claims up to {@code loUpperBoundOpen} identifiers via a single atomic operation.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    for (int i = 0; i < ids.length; ) {
+      final long cursor = (long) LONGS.getVolatile(buffer, CURSOR_OFFSET);
+      final long lo = cursor & LO_MASK;
+      if (lo < loUpperBoundOpen) {
+        final long hi = hi(cursor);
+        final long numberOfIds = Math.min(ids.length - i, loUpperBoundOpen - lo);
+        if (hi != UNINITIALIZED && LONGS.compareAndSet(buffer, CURSOR_OFFSET, cursor, cursor + numberOfIds)) {
+          for (long claimedLo = lo; claimedLo < lo + numberOfIds; claimedLo++, i++) {
+            ids[i] = calculateId(hi, claimedLo);
+          }
+        }
+      } else {
+        refill(cursor);
+      }
+    }
+  }
+
+  /**
+   * @return {@code file} specified via {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration)}.
+   */
+  public final Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return {@code refillLease} specified via {@link #SharedMemoryTwoPhaseLongIdGenerator(Path, LongIdGenerator, long, boolean, Duration)}.
+   */
+  public final Duration getRefillLease() {
+    return refillLease;
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{file=" + file +
+        ", hiGenerator=" + getHiGenerator() +
+        ", loUpperBoundOpen=" + getLoUpperBoundOpen() +
+        ", refillLease=" + refillLease +
+        '}';
+  }
+
+  /**
+   * @return The {@code hi} value of the generation specified by the {@code cursor},
+   * or {@link #UNINITIALIZED} if the {@code cursor} is outdated or the slot of the generation was overwritten.
+   */
+  private final long hi(final long cursor) {
+    final long generation = cursor >>> 32;
+    final int slotOffset = slotOffset(generation);
+    final long hi = (long) LONGS.getVolatile(buffer, slotOffset + 8);
+    if ((long) LONGS.getVolatile(buffer, slotOffset) == generation) {
+      return hi;
+    } else {
+      //the slot of the current generation is overwritten only by a refill lock holder which lost the lock while generating a hi value,
+      //so we exhaust the current generation in order to refill
+      LONGS.compareAndSet(buffer, CURSOR_OFFSET, cursor, cursor | LO_MASK);
+      return UNINITIALIZED;
+    }
+  }
+
+  /**
+   * Generates a new {@code hi} value if the {@code exhaustedCursor} is still the current one.
+   */
+  private final void refill(final long exhaustedCursor) {
+    final long lockWord = acquireRefillLock(exhaustedCursor);
+    if (lockWord == 0) {//somebody else has refilled
+      return;
+    }
+    try {
+      if ((long) LONGS.getVolatile(buffer, CURSOR_OFFSET) == exhaustedCursor) {
+        final long hi = nextHi();
+        if ((long) LONGS.getVolatile(buffer, REFILL_LOCK_OFFSET) != lockWord
+            || (long) LONGS.getVolatile(buffer, CURSOR_OFFSET) != exhaustedCursor) {
+          //the lock was taken over while generating hi, and the new holder may have already published the next generation;
+          //this check does not exclude publishing after the new holder, see the class documentation
+          return;
+        }
+        final long generation = ((exhaustedCursor >>> 32) + 1) & LO_MASK;
+        final int slotOffset = slotOffset(generation);
+        LONGS.setVolatile(buffer, slotOffset, INVALID_GENERATION);
+        LONGS.setVolatile(buffer, slotOffset + 8, hi);
+        LONGS.setVolatile(buffer, slotOffset, generation);
+        LONGS.compareAndSet(buffer, CURSOR_OFFSET, exhaustedCursor, generation << 32);
+      }
+    } finally {
+      LONGS.compareAndSet(buffer, REFILL_LOCK_OFFSET, lockWord, 0L);
+    }
+  }
+
+  /**
+   * @return The refill lock word if the lock was acquired, or 0 if the {@code exhaustedCursor} is no longer the current one.
+   */
+  private final long acquireRefillLock(final long exhaustedCursor) {
+    for (int attempt = 0; ; attempt++) {
+      if ((long) LONGS.getVolatile(buffer, CURSOR_OFFSET) != exhaustedCursor) {
+        return 0;
+      }
+      final long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+      final long lockWord = (long) LONGS.getVolatile(buffer, REFILL_LOCK_OFFSET);
+      if (lockWord == 0 || lockTakeoverAllowed(lockWord, nowSeconds)) {
+        final long newLockWord = (token << 32) | ((nowSeconds + refillLeaseSeconds) & LO_MASK);
+        if (LONGS.compareAndSet(buffer, REFILL_LOCK_OFFSET, lockWord, newLockWord)) {
+          return newLockWord;
+        }
+      } else if (attempt < 100) {
+        Thread.onSpinWait();
+      } else {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+      }
+    }
+  }
+
+  /**
+   * @return true if the refill lock is held for longer than its lease, or its holder process is not alive.
+   */
+  private static final boolean lockTakeoverAllowed(final long lockWord, final long nowSeconds) {
+    final long deadlineSeconds = lockWord & LO_MASK;
+    if ((nowSeconds & LO_MASK) - deadlineSeconds > 0) {
+      return true;
+    } else {
+      final long pid = (lockWord >>> 32) >>> TOKEN_NONCE_BITS;
+      //the pid in the token may be truncated, but taking the lock over is safe anyway
+      return pid != (PID & (LO_MASK >>> TOKEN_NONCE_BITS)) && !ProcessHandle.of(pid)
+          .map(ProcessHandle::isAlive)
+          .orElse(false);
+    }
+  }
+
+  private static final int slotOffset(final long generation) {
+    return SLOTS_OFFSET + (int) (generation & 1) * SLOT_SIZE;
+  }
+}
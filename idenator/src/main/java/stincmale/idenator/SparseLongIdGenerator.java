@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+/**
+ * A sparse (see {@link stincmale.idenator}) generator of long identifiers which allows choosing the sparseness for each identifier.
+ * <p>
+ * For example, a database sequence can implement this interface by incrementing the sequence by {@code sparseness + 1}
+ * instead of using a fixed increment, similarly to the segment mode of
+ * <a href="https://github.com/Meituan-Dianping/Leaf">Leaf</a>.
+ * A sparse {@link LongIdGenerator} with a fixed sparseness {@code s} can also be used as a {@link SparseLongIdGenerator}
+ * for any {@code sparseness <= s}, e.g. {@code sparseness -> sparseLongIdGenerator.next()},
+ * but in this case the identifiers from the interval ({@code id + sparseness}; {@code id + s}] are lost.
+ */
+@FunctionalInterface
+public interface SparseLongIdGenerator extends LongIdGenerator {
+  /**
+   * Generates an identifier {@code id} such that no identifier from the interval ({@code id}; {@code id + sparseness}]
+   * is generated by this ID generator. So a user can use all identifiers from the interval [{@code id}; {@code id + sparseness}]
+   * as if they were generated by this ID generator.
+   *
+   * @param sparseness The sparseness for the newly generated identifier. Must not be negative.
+   * @return A newly generated identifier.
+   */
+  long next(long sparseness);
+
+  /**
+   * Equivalent to {@link #next(long) next(0)}.
+   *
+   * @return A newly generated identifier.
+   */
+  @Override
+  default long next() {
+    return next(0);
+  }
+}
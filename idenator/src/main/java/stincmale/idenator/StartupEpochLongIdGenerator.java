@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import stincmale.idenator.doc.NotThreadSafe;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.format;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} ID generator which obtains an {@linkplain #getEpoch() epoch} once, when it is created,
+ * and then generates identifiers in memory by incrementing a counter, without accessing any storage.
+ * This ID generator is suitable when identifiers must be unique across restarts of a program,
+ * but there is no need to generate them via a persistent {@code hi} value generator all the time.
+ * <p>
+ * An identifier consists of the following bits, from the most significant to the least significant:
+ * <ul>
+ * <li>the sign bit, which is always 0;</li>
+ * <li>{@code (63 - counterBits)} bits of the epoch;</li>
+ * <li>{@code counterBits} bits of the counter.</li>
+ * </ul>
+ * Counter values are reserved for each thread in chunks, so that threads rarely contend for the counter;
+ * virtual threads do not use chunks.
+ * When the counter values are exhausted, {@link #next()} fails with the {@link IllegalStateException}.
+ * <p>
+ * The epoch may be generated by any {@link LongIdGenerator}, e.g. by a database sequence,
+ * or may be stored in a local file, see {@link #StartupEpochLongIdGenerator(Path, int)}.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent if {@code epochGenerator} is persistent.
+ * </li>
+ * <li>
+ * This ID generator is nonmonotonic, but identifiers generated by the same thread are strictly increasing,
+ * and if {@code epochGenerator} is strictly increasing, then all identifiers generated by an instance
+ * are greater than all identifiers generated by instances created before it.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class StartupEpochLongIdGenerator implements LongIdGenerator {
+  private static final long MAX_CHUNK_SIZE = 256;
+
+  private final long epoch;
+  private final int counterBits;
+  private final long counterUpperBoundOpen;
+  private final AtomicLong counter;
+  private final ThreadLocal<Chunk> chunks;
+  private final long chunkSize;
+
+  /**
+   * This constructor uses {@link MappedFileLongIdGenerator} to durably increment the epoch stored in the {@code epochFile},
+   * so that each instance created with the same {@code epochFile} gets a greater epoch than the previously created ones.
+   * The first epoch is 0.
+   *
+   * @param epochFile A file storing the last epoch. It is created if it does not exist.
+   * Instances which are created at the same time must not use the same {@code epochFile}.
+   * @param counterBits See {@link #StartupEpochLongIdGenerator(LongIdGenerator, int)}.
+   * @throws IOException If the {@code epochFile} cannot be read or written, see {@link MappedFileLongIdGenerator}.
+   */
+  public StartupEpochLongIdGenerator(final Path epochFile, final int counterBits) throws IOException {
+    this(nextEpoch(epochFile, counterBits), counterBits);
+  }
+
+  /**
+   * @param epochGenerator A generator of epochs, which is used only once by this constructor.
+   * Epochs must belong to [0; 2<sup>(63 - counterBits)</sup>), otherwise this constructor fails with the {@link IllegalStateException}.
+   * {@code epochGenerator} is allowed to be {@linkplain NotThreadSafe not thread-safe}.
+   * @param counterBits The number of bits of the counter, i.e. an instance generates at most 2<sup>counterBits</sup> identifiers.
+   * {@code counterBits} ∈ [1; 62].
+   */
+  public StartupEpochLongIdGenerator(final LongIdGenerator epochGenerator, final int counterBits) {
+    this(nextEpoch(epochGenerator, counterBits), counterBits);
+  }
+
+  private StartupEpochLongIdGenerator(final long epoch, final int counterBits) {
+    if (epoch < 0 || epoch >= (1L << (63 - counterBits))) {
+      throw new IllegalStateException(format("The epoch %s does not belong to [0; 2^%s)", epoch, 63 - counterBits));
+    }
+    this.epoch = epoch;
+    this.counterBits = counterBits;
+    counterUpperBoundOpen = 1L << counterBits;
+    counter = new AtomicLong();
+    chunks = ThreadLocal.withInitial(Chunk::new);
+    chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, counterUpperBoundOpen / 16));
+  }
+
+  /**
+   * @throws IllegalStateException If the counter values are exhausted.
+   */
+  @Override
+  public final long next() {
+    @Nullable
+    final Chunk chunk = chunk();
+    final long c;
+    if (chunk == null) {
+      c = counter.getAndIncrement();
+    } else {
+      if (chunk.c == chunk.cEnd) {
+        chunk.c = counter.getAndAdd(chunkSize);
+        chunk.cEnd = chunk.c + chunkSize;
+      }
+      c = chunk.c++;
+    }
+    return calculateId(c);
+  }
+
+  /**
+   * Uses the counter values reserved for the current thread first, and reserves the rest with a single atomic operation.
+   *
+   * @throws IllegalStateException If the counter values are exhausted.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    int idx = 0;
+    @Nullable
+    final Chunk chunk = chunk();
+    if (chunk != null) {
+      for (; idx < ids.length && chunk.c < chunk.cEnd; idx++) {
+        ids[idx] = calculateId(chunk.c++);
+      }
+    }
+    if (idx < ids.length) {
+      final long c = counter.getAndAdd(ids.length - idx);
+      calculateId(c + ids.length - idx - 1);//fail before using the reserved counter values if they are exhausted
+      for (long i = c; idx < ids.length; i++) {
+        ids[idx++] = calculateId(i);
+      }
+    }
+  }
+
+  /**
+   * @return The epoch obtained when this ID generator was created.
+   */
+  public final long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * @return {@code counterBits} specified via {@link #StartupEpochLongIdGenerator(LongIdGenerator, int)}.
+   */
+  public final int getCounterBits() {
+    return counterBits;
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{epoch=" + epoch +
+        ", counterBits=" + counterBits +
+        '}';
+  }
+
+  private final long calculateId(final long c) {
+    if (c >= counterUpperBoundOpen) {
+      throw new IllegalStateException(format("Counter values are exhausted, %s=%s", "epoch", epoch));
+    }
+    return (epoch << counterBits) | c;
+  }
+
+  /**
+   * @return The {@link #chunks chunk} of the current thread, or null if the current thread does not reserve counter values in chunks.
+   * Virtual threads do not use chunks: they are usually numerous and short-lived,
+   * so counter values reserved for them in chunks would mostly be lost.
+   */
+  @Nullable
+  private final Chunk chunk() {
+    return VirtualThreads.isVirtual(Thread.currentThread()) ? null : chunks.get();
+  }
+
+  private static final long nextEpoch(final LongIdGenerator epochGenerator, final int counterBits) {
+    checkNotNull(epochGenerator, "epochGenerator");
+    checkCounterBits(counterBits);
+    return epochGenerator.next();
+  }
+
+  private static final long nextEpoch(final Path epochFile, final int counterBits) throws IOException {
+    checkNotNull(epochFile, "epochFile");
+    checkCounterBits(counterBits);
+    try (MappedFileLongIdGenerator epochGenerator = new MappedFileLongIdGenerator(epochFile, 0, 1)) {
+      return epochGenerator.next();
+    }
+  }
+
+  private static final void checkCounterBits(final int counterBits) {
+    checkArgument(counterBits >= 1 && counterBits <= 62, "counterBits", "Must belong to [1; 62]");
+  }
+
+  /**
+   * Counter values from {@code c} (inclusive) to {@code cEnd} (exclusive) reserved for a thread.
+   */
+  @NotThreadSafe
+  private static final class Chunk {
+    private long c;
+    private long cEnd;
+
+    private Chunk() {
+    }
+  }
+}
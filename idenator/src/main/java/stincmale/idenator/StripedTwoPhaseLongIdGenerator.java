@@ -0,0 +1,432 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import stincmale.idenator.doc.NotThreadSafe;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.SingleFlight;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} implementation of {@link AbstractTwoPhaseLongIdGenerator}
+ * which adapts to contention between threads generating identifiers in a way similar to {@link java.util.concurrent.atomic.LongAdder}.
+ * <p>
+ * Initially {@code lo} values are taken from a single counter. When an attempt to increment the counter fails because of contention,
+ * this ID generator inflates into stripes: each thread is mapped to a stripe, and each stripe owns a disjoint slice of {@code lo} values
+ * of the current {@code hi} value, so threads mapped to different stripes do not contend with each other.
+ * A stripe claims a new slice from the single counter only when its current slice is exhausted.
+ * Similarly to {@link java.util.concurrent.atomic.LongAdder}, a thread that collides with another thread on a stripe is mapped to another stripe,
+ * and the number of stripes is doubled on repeated collisions up to the smallest power of 2 not less than the number of available processors.
+ * When all slices claimed during a while are claimed by a single stripe, this ID generator deflates back to the single counter.
+ * {@code lo} values remaining in slices that were not exhausted at that moment are never used.
+ * <p>
+ * {@link #tryNext()} and {@link #next(Duration)} generate new {@code hi} values via {@code refillExecutor}
+ * so that they do not have to wait for {@linkplain #getHiGenerator() hiGenerator} longer than allowed.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent if {@linkplain #getHiGenerator() hiGenerator} is persistent
+ * and the same {@linkplain #getLoUpperBoundOpen() getLoUpperBoundOpen} is used in different executions of the program.
+ * </li>
+ * <li>
+ * This ID generator is nonmonotonic, i.e. it provides only the {@link IdOrdering#RELAXED} ordering.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class StripedTwoPhaseLongIdGenerator extends AbstractTwoPhaseLongIdGenerator {
+  private static final VarHandle CELLS;
+  private static final int MAX_NUMBER_OF_CELLS;
+  private static final long MAX_SLICE_SIZE = 1024;
+  /**
+   * The number of slices per stripe that must be claimed before deciding whether to deflate.
+   */
+  private static final int DEFLATION_WINDOW = 4;
+  private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+
+  static {
+    try {
+      CELLS = MethodHandles.lookup().findVarHandle(StripedTwoPhaseLongIdGenerator.class, "cells", Cell[].class);
+    } catch (final ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+    final int availableProcessors = Runtime.getRuntime().availableProcessors();
+    MAX_NUMBER_OF_CELLS = Math.max(2, Integer.highestOneBit(availableProcessors - 1) << 1);
+  }
+
+  private final long sliceSize;
+  private final SingleFlight refill;
+  private final Executor refillExecutor;
+  private volatile Range block;
+  @Nullable
+  private volatile Cell[] cells;
+  private final AtomicInteger claimsSinceDeflationCheck;
+
+  /**
+   * This constructor uses {@code refillExecutor} which starts a new virtual thread for each task if the Java runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   *
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   */
+  public StripedTwoPhaseLongIdGenerator(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+    this(hiGenerator, loUpperBoundOpen, pooled, VirtualThreads.blockingExecutor());
+  }
+
+  /**
+   * @param hiGenerator See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param loUpperBoundOpen See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * Striping is ineffective if this value is small,
+   * because a slice is never bigger than {@code loUpperBoundOpen / (2 * maxNumberOfStripes)}.
+   * @param pooled See {@link AbstractTwoPhaseLongIdGenerator#AbstractTwoPhaseLongIdGenerator(LongIdGenerator, long, boolean)}.
+   * @param refillExecutor An {@link Executor} which is used to generate {@code hi} values
+   * when they are needed by {@link #tryNext()} or {@link #next(Duration)}.
+   * If it rejects a task, then these methods fail with the {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  public StripedTwoPhaseLongIdGenerator(
+      final LongIdGenerator hiGenerator,
+      final long loUpperBoundOpen,
+      final boolean pooled,
+      final Executor refillExecutor) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    sliceSize = Math.max(1, Math.min(MAX_SLICE_SIZE, loUpperBoundOpen / (2L * MAX_NUMBER_OF_CELLS)));
+    refill = new SingleFlight();
+    this.refillExecutor = checkNotNull(refillExecutor, "refillExecutor");
+    block = Range.EXHAUSTED_RANGE;
+    cells = null;
+    claimsSinceDeflationCheck = new AtomicInteger();
+  }
+
+  @Override
+  public final long next() {
+    boolean collided = false;
+    while (true) {
+      final Cell[] cells = this.cells;
+      if (cells == null) {
+        final Range block = this.block;
+        final long lo = block.tryIncrementLo();
+        if (lo >= 0) {
+          return calculateId(block.hi, lo);
+        } else if (lo == Range.EXHAUSTED) {//we probably need to advance the block
+          refill(block);
+        } else {//the single counter is contended
+          inflate();
+        }
+      } else {
+        final Probe probe = PROBE.get();
+        final Cell cell = cells[probe.value & (cells.length - 1)];
+        final Range slice = cell.slice;
+        final long lo = slice.tryIncrementLo();
+        if (lo >= 0) {
+          return calculateId(slice.hi, lo);
+        } else if (lo == Range.EXHAUSTED) {//we need to claim a new slice, and probably to advance the block
+          final Range block = this.block;
+          if (!claimSlice(cells, cell, block)) {
+            refill(block);
+          }
+        } else {//the stripe is contended
+          collided = collide(cells, probe, collided);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reserves {@code lo} values for many identifiers with a single atomic operation on the single counter,
+   * regardless of whether this ID generator is inflated, unless the reservation spans multiple {@code hi} values.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    for (int idx = 0; idx < ids.length; ) {
+      final Range block = this.block;
+      final int count = ids.length - idx;
+      final long lo = block.addLo(count);
+      if (lo >= 0) {
+        final int generatedCount = (int) Math.min(count, block.loUpperBoundOpen - lo);
+        for (int i = 0; i < generatedCount; i++) {
+          ids[idx + i] = calculateId(block.hi, lo + i);
+        }
+        idx += generatedCount;
+      } else {//we probably need to advance the block
+        refill(block);
+      }
+    }
+  }
+
+  /**
+   * Does not wait for a concurrent refill, and initiates a refill via {@code refillExecutor} if needed.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    boolean collided = false;
+    while (true) {
+      final Cell[] cells = this.cells;
+      if (cells == null) {
+        final Range block = this.block;
+        final long lo = block.tryIncrementLo();
+        if (lo >= 0) {
+          return OptionalLong.of(calculateId(block.hi, lo));
+        } else if (lo == Range.EXHAUSTED) {//we probably need to advance the block
+          if (!tryRefill(block)) {//the refill is in progress
+            return OptionalLong.empty();
+          }
+        } else {//the single counter is contended
+          inflate();
+        }
+      } else {
+        final Probe probe = PROBE.get();
+        final Cell cell = cells[probe.value & (cells.length - 1)];
+        final Range slice = cell.slice;
+        final long lo = slice.tryIncrementLo();
+        if (lo >= 0) {
+          return OptionalLong.of(calculateId(slice.hi, lo));
+        } else if (lo == Range.EXHAUSTED) {//we need to claim a new slice, and probably to advance the block
+          final Range block = this.block;
+          if (!claimSlice(cells, cell, block) && !tryRefill(block)) {//the refill is in progress
+            return OptionalLong.empty();
+          }
+        } else {//the stripe is contended
+          collided = collide(cells, probe, collided);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits only for refills, which are done via {@code refillExecutor}.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    return refill.next(timeout, this::tryNext);
+  }
+
+  /**
+   * @return The current number of stripes, or 1 if this ID generator is not inflated.
+   */
+  final int getNumberOfStripes() {
+    final Cell[] cells = this.cells;
+    return cells == null ? 1 : cells.length;
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{hiGenerator=" + getHiGenerator() +
+        ", loUpperBoundOpen=" + getLoUpperBoundOpen() +
+        ", sliceSize=" + sliceSize +
+        ", numberOfStripes=" + getNumberOfStripes() +
+        '}';
+  }
+
+  private final void inflate() {
+    CELLS.compareAndSet(this, null, newCells(null, 2));
+  }
+
+  /**
+   * Maps the current thread to another stripe, and doubles the number of stripes if the thread {@code collided} before.
+   *
+   * @return The new value of {@code collided}.
+   */
+  private final boolean collide(final Cell[] cells, final Probe probe, final boolean collided) {
+    probe.advance();
+    if (collided && cells.length < MAX_NUMBER_OF_CELLS) {
+      CELLS.compareAndSet(this, cells, newCells(cells, 2 * cells.length));
+      return false;
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * Claims a new slice of {@code lo} values from the {@code block} for the {@code cell}
+   * and checks whether this ID generator should deflate.
+   *
+   * @return true if the slice was claimed, false if the {@code block} is exhausted.
+   */
+  private final boolean claimSlice(final Cell[] cells, final Cell cell, final Range block) {
+    final long lo = block.addLo(sliceSize);
+    if (lo < 0) {
+      return false;
+    }
+    //the slice is not published atomically with checking that the cell needs it, so a concurrently claimed slice may be lost
+    cell.slice = new Range(block.hi, lo, lo + Math.min(sliceSize, block.loUpperBoundOpen - lo));
+    if (!cell.claimed) {
+      cell.claimed = true;
+    }
+    final int claims = claimsSinceDeflationCheck.incrementAndGet();
+    if (claims >= DEFLATION_WINDOW * cells.length && claimsSinceDeflationCheck.compareAndSet(claims, 0)) {
+      int numberOfActiveCells = 0;
+      for (final Cell c : cells) {
+        if (c.claimed) {
+          numberOfActiveCells++;
+          c.claimed = false;
+        }
+      }
+      if (numberOfActiveCells <= 1) {//contention has subsided
+        CELLS.compareAndSet(this, cells, null);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Makes sure that {@link #block} is not {@code exhaustedBlock} when this method returns normally.
+   * Either generates and publishes a new block, or waits for a concurrent refill to complete.
+   */
+  private final void refill(final Range exhaustedBlock) {
+    refill.run(() -> this.block == exhaustedBlock, this::advanceBlock);
+  }
+
+  /**
+   * This method is similar to {@link #refill(Range)}, but does not wait for a concurrent refill,
+   * and initiates a refill via {@code refillExecutor}.
+   *
+   * @return true if {@link #block} is not {@code exhaustedBlock} anymore, false if a refill is in progress.
+   */
+  private final boolean tryRefill(final Range exhaustedBlock) {
+    return refill.tryRun(() -> this.block == exhaustedBlock, this::advanceBlock, refillExecutor);
+  }
+
+  /**
+   * Must be called only via {@link #refill}.
+   */
+  private final void advanceBlock() {
+    block = new Range(nextHi(), 0, getLoUpperBoundOpen());
+  }
+
+  private static final Cell[] newCells(@Nullable final Cell[] cells, final int length) {
+    final Cell[] result = new Cell[length];
+    int idx = 0;
+    if (cells != null) {
+      System.arraycopy(cells, 0, result, 0, cells.length);
+      idx = cells.length;
+    }
+    for (; idx < length; idx++) {
+      result[idx] = new Cell();
+    }
+    return result;
+  }
+
+  /**
+   * {@code lo} values from {@code lo} (inclusive) to {@code loUpperBoundOpen} (exclusive) which are used with the {@code hi} value.
+   */
+  @ThreadSafe
+  private static final class Range {
+    private static final VarHandle LO;
+    private static final long EXHAUSTED = -1;
+    private static final long CONTENDED = -2;
+    private static final Range EXHAUSTED_RANGE = new Range(UNINITIALIZED, 0, 0);
+
+    static {
+      try {
+        LO = MethodHandles.lookup().findVarHandle(Range.class, "lo", long.class);
+      } catch (final ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    private final long hi;
+    private volatile long lo;
+    private final long loUpperBoundOpen;
+
+    private Range(final long hi, final long lo, final long loUpperBoundOpen) {
+      this.hi = hi;
+      this.lo = lo;
+      this.loUpperBoundOpen = loUpperBoundOpen;
+    }
+
+    /**
+     * Makes a single attempt to increment {@link #lo}.
+     *
+     * @return The {@code lo} value, or {@link #EXHAUSTED}, or {@link #CONTENDED} if the attempt failed because of contention.
+     */
+    private final long tryIncrementLo() {
+      final long lo = this.lo;
+      if (lo >= loUpperBoundOpen) {
+        return EXHAUSTED;
+      } else {
+        return LO.compareAndSet(this, lo, lo + 1) ? lo : CONTENDED;
+      }
+    }
+
+    /**
+     * Reserves up to {@code count} {@code lo} values.
+     * Unlike {@code getAndAdd}, never increases {@link #lo} beyond {@link #loUpperBoundOpen}.
+     *
+     * @return The first of the reserved {@code lo} values, or {@link #EXHAUSTED}.
+     */
+    private final long addLo(final long count) {
+      while (true) {
+        final long lo = this.lo;
+        if (lo >= loUpperBoundOpen) {
+          return EXHAUSTED;
+        } else if (LO.compareAndSet(this, lo, lo + Math.min(count, loUpperBoundOpen - lo))) {
+          return lo;
+        }
+      }
+    }
+  }
+
+  /**
+   * A stripe.
+   */
+  @ThreadSafe
+  private static final class Cell {
+    private volatile Range slice;
+    /**
+     * Whether a slice was claimed for this cell since the last check of whether to deflate.
+     */
+    private volatile boolean claimed;
+
+    private Cell() {
+      slice = Range.EXHAUSTED_RANGE;
+    }
+  }
+
+  /**
+   * A thread-local hash code which maps a thread to a stripe.
+   */
+  @NotThreadSafe
+  private static final class Probe {
+    private int value;
+
+    private Probe() {
+      value = ThreadLocalRandom.current().nextInt() | 1;//xorshift requires a nonzero value
+    }
+
+    private final void advance() {
+      int value = this.value;
+      value ^= value << 13;
+      value ^= value >>> 17;
+      value ^= value << 5;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.deadlineNanos;
+import static stincmale.idenator.internal.util.Utils.format;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} lock-free ID generator which composes identifiers from a timestamp,
+ * a {@linkplain #getNodeId() nodeId} and a sequence number, similarly to
+ * <a href="https://github.com/twitter-archive/snowflake/tree/snowflake-2010">Snowflake</a>.
+ * <p>
+ * An identifier consists of the following bits, from the most significant to the least significant:
+ * <ul>
+ * <li>the sign bit, which is always 0;</li>
+ * <li>{@code (63 - nodeIdBits - sequenceBits)} bits of the number of milliseconds since {@code epoch};</li>
+ * <li>{@code nodeIdBits} bits of {@code nodeId};</li>
+ * <li>{@code sequenceBits} bits of the sequence number within the millisecond.</li>
+ * </ul>
+ * The timestamp and the sequence number are stored as a single packed {@code long}, and {@link #next()} advances it with a single CAS.
+ * If the sequence numbers for the current millisecond are exhausted, or if the clock goes back,
+ * then the packed value is simply incremented, thus identifiers are generated as if they were generated in the future.
+ * Such borrowing from the future is allowed as long as the timestamp of an identifier does not exceed the current time
+ * by more than {@linkplain #getMaxClockSkew() maxClockSkew}; {@link #next()} fails with an {@link IllegalStateException},
+ * and {@link #tryNext()} returns an empty {@link OptionalLong} otherwise, while {@link #next(Duration)} waits for the clock to catch up.
+ * <p>
+ * Flavours (see {@link stincmale.idenator}):
+ * <ul>
+ * <li>
+ * This ID generator is persistent if no two simultaneously existing instances have the same {@code nodeId} and the same {@code epoch},
+ * the clock does not go back between the lifetimes of instances with the same {@code nodeId},
+ * and an instance is not created earlier than {@code maxClockSkew} after a previous instance with the same {@code nodeId} was used last time.
+ * </li>
+ * <li>
+ * This ID generator is strictly increasing.
+ * </li>
+ * <li>
+ * ID generators with the same {@code epoch}, {@code nodeIdBits}, {@code sequenceBits} and different {@code nodeId}s are compatible.
+ * </li>
+ * </ul>
+ */
+@ThreadSafe
+public final class TimeBasedLongIdGenerator implements LongIdGenerator {
+  private final Clock clock;
+  private final Instant epoch;
+  private final long epochMillis;
+  private final int nodeIdBits;
+  private final long nodeId;
+  private final int sequenceBits;
+  private final long sequenceMask;
+  private final long maxTimestamp;
+  private final Duration maxClockSkew;
+  private final long maxClockSkewMillis;
+  /**
+   * {@code (timestamp << sequenceBits) | sequence} of the last generated identifier.
+   */
+  private final AtomicLong state;
+
+  /**
+   * Creates an ID generator with 10 {@code nodeIdBits} and 12 {@code sequenceBits} which uses {@link Clock#systemUTC()}
+   * and allows borrowing up to 1 second from the future.
+   *
+   * @param epoch See {@link #TimeBasedLongIdGenerator(Clock, Instant, int, long, int, Duration)}.
+   * @param nodeId See {@link #TimeBasedLongIdGenerator(Clock, Instant, int, long, int, Duration)}.
+   */
+  public TimeBasedLongIdGenerator(final Instant epoch, final long nodeId) {
+    this(Clock.systemUTC(), epoch, 10, nodeId, 12, Duration.ofSeconds(1));
+  }
+
+  /**
+   * @param clock The {@link Clock} which provides timestamps.
+   * @param epoch The instant since which timestamps are measured. Must not be after the current {@link Clock#instant()}.
+   * The smaller {@code (63 - nodeIdBits - sequenceBits)}, the sooner timestamps are exhausted,
+   * e.g. 41 bits are enough for about 69 years.
+   * @param nodeIdBits The number of bits of {@code nodeId}. Must not be negative.
+   * @param nodeId The identifier of this ID generator which distinguishes it from other ID generators.
+   * {@code nodeId} ∈ [0; 2<sup>nodeIdBits</sup>).
+   * @param sequenceBits The number of bits of a sequence number within a millisecond. Must not be negative.
+   * {@code (nodeIdBits + sequenceBits)} must be less than 63.
+   * @param maxClockSkew The maximal time by which the timestamp of an identifier may exceed the current time. Must not be negative.
+   */
+  public TimeBasedLongIdGenerator(
+      final Clock clock,
+      final Instant epoch,
+      final int nodeIdBits,
+      final long nodeId,
+      final int sequenceBits,
+      final Duration maxClockSkew) {
+    this.clock = checkNotNull(clock, "clock");
+    this.epoch = checkNotNull(epoch, "epoch");
+    checkArgument(!epoch.isAfter(clock.instant()), "epoch", "Must not be after the current instant of the clock");
+    checkArgument(nodeIdBits >= 0, "nodeIdBits", "Must not be negative");
+    checkArgument(sequenceBits >= 0, "sequenceBits", "Must not be negative");
+    checkArgument(nodeIdBits + sequenceBits < 63, "sequenceBits",
+        () -> format("The sum with %s=%s must be less than 63", "nodeIdBits", nodeIdBits));
+    checkArgument(nodeId >= 0 && nodeId < (1L << nodeIdBits), "nodeId",
+        () -> format("Must belong to [0; 2^%s)", "nodeIdBits"));
+    this.maxClockSkew = checkNotNull(maxClockSkew, "maxClockSkew");
+    checkArgument(!maxClockSkew.isNegative(), "maxClockSkew", "Must not be negative");
+    epochMillis = epoch.toEpochMilli();
+    this.nodeIdBits = nodeIdBits;
+    this.nodeId = nodeId;
+    this.sequenceBits = sequenceBits;
+    sequenceMask = (1L << sequenceBits) - 1;
+    maxTimestamp = (1L << (63 - nodeIdBits - sequenceBits)) - 1;
+    long maxClockSkewMillis;
+    try {
+      maxClockSkewMillis = maxClockSkew.toMillis();
+    } catch (final ArithmeticException e) {
+      maxClockSkewMillis = Long.MAX_VALUE;
+    }
+    this.maxClockSkewMillis = maxClockSkewMillis;
+    state = new AtomicLong(-1);
+  }
+
+  /**
+   * @throws IllegalStateException If borrowing from the future would exceed {@linkplain #getMaxClockSkew() maxClockSkew},
+   * or if timestamps are exhausted.
+   */
+  @Override
+  public final long next() {
+    final long packed = reserve(1, true);
+    return id(packed);
+  }
+
+  /**
+   * Reserves all identifiers with a single CAS.
+   *
+   * @throws IllegalStateException See {@link #next()}.
+   */
+  @Override
+  public final void next(final long[] ids) {
+    checkNotNull(ids, "ids");
+    if (ids.length > 0) {
+      final long firstPacked = reserve(ids.length, true);
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = id(firstPacked + i);
+      }
+    }
+  }
+
+  /**
+   * Returns an empty {@link OptionalLong} if borrowing from the future would exceed {@linkplain #getMaxClockSkew() maxClockSkew}.
+   *
+   * @throws IllegalStateException If timestamps are exhausted.
+   */
+  @Override
+  public final OptionalLong tryNext() {
+    final long packed = reserve(1, false);
+    return packed < 0 ? OptionalLong.empty() : OptionalLong.of(id(packed));
+  }
+
+  /**
+   * Waits for the clock to catch up if borrowing from the future would exceed {@linkplain #getMaxClockSkew() maxClockSkew}.
+   *
+   * @throws IllegalStateException If timestamps are exhausted.
+   */
+  @Override
+  public final long next(final Duration timeout) throws InterruptedException, TimeoutException {
+    checkNotNull(timeout, "timeout");
+    final long deadlineNanos = deadlineNanos(timeout);
+    while (true) {
+      final long packed = reserve(1, false);
+      if (packed >= 0) {
+        return id(packed);
+      } else if (deadlineNanos - System.nanoTime() <= 0) {
+        throw new TimeoutException();
+      } else if (Thread.interrupted()) {
+        throw new InterruptedException();
+      } else {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));//the clock catches up with the speed of 1 ms per ms
+      }
+    }
+  }
+
+  /**
+   * @return {@code nodeId} specified via {@link #TimeBasedLongIdGenerator(Clock, Instant, int, long, int, Duration)}.
+   */
+  public final long getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * @return {@code maxClockSkew} specified via {@link #TimeBasedLongIdGenerator(Clock, Instant, int, long, int, Duration)}.
+   */
+  public final Duration getMaxClockSkew() {
+    return maxClockSkew;
+  }
+
+  /**
+   * @param count The number of identifiers to reserve. Must be positive.
+   * @param failIfSkewed Specifies what to do if borrowing from the future would exceed {@link #maxClockSkewMillis}:
+   * throw an {@link IllegalStateException} if true, return -1 if false.
+   * Regardless of this parameter, an {@link IllegalStateException} is thrown if timestamps are exhausted,
+   * because waiting does not help in this case.
+   * @return The first reserved packed value, see {@link #state}.
+   */
+  private final long reserve(final int count, final boolean failIfSkewed) {
+    final long timestamp = clock.millis() - epochMillis;
+    if (timestamp > maxTimestamp) {
+      throw timestampsExhausted();
+    }
+    final long minPacked = Math.max(0, timestamp) << sequenceBits;
+    while (true) {
+      final long state = this.state.get();
+      final long firstPacked = Math.max(state + 1, minPacked);
+      final long lastPacked = firstPacked + count - 1;
+      final long lastTimestamp = lastPacked >>> sequenceBits;
+      if (lastTimestamp > maxTimestamp) {
+        throw timestampsExhausted();
+      }
+      if (lastTimestamp - timestamp > maxClockSkewMillis) {//can't borrow that much from the future
+        if (failIfSkewed) {
+          throw new IllegalStateException(format(
+              "Generating identifiers would require borrowing more than %s=%s from the future", "maxClockSkew", maxClockSkew));
+        } else {
+          return -1;
+        }
+      }
+      if (this.state.compareAndSet(state, lastPacked)) {
+        return firstPacked;
+      }
+    }
+  }
+
+  private final IllegalStateException timestampsExhausted() {
+    return new IllegalStateException(format("Timestamps are exhausted, %s=%s", "epoch", epoch));
+  }
+
+  private final long id(final long packed) {
+    return ((packed & ~sequenceMask) << nodeIdBits) | (nodeId << sequenceBits) | (packed & sequenceMask);
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{clock=" + clock +
+        ", epoch=" + epoch +
+        ", nodeIdBits=" + nodeIdBits +
+        ", nodeId=" + nodeId +
+        ", sequenceBits=" + sequenceBits +
+        ", maxClockSkew=" + maxClockSkew +
+        '}';
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import stincmale.idenator.internal.BusySpinWaitStrategy;
+import stincmale.idenator.internal.ParkingWaitStrategy;
+import stincmale.idenator.internal.SpinThenParkWaitStrategy;
+import stincmale.idenator.internal.YieldingWaitStrategy;
+
+/**
+ * An object which decides how a thread waits for something to be done by another thread,
+ * e.g. how a thread waits for a new {@code hi} value to be generated by another thread.
+ * <p>
+ * Busy-spinning is cheaper than parking when the awaited action takes a few microseconds,
+ * e.g. when {@code hi} values are generated in shared memory,
+ * while parking leaves CPU to other threads and is preferable when the action takes milliseconds,
+ * e.g. when {@code hi} values are generated by a database.
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+  /**
+   * Returns normally when {@code future} is {@linkplain Future#isDone() done} regardless of its outcome.
+   *
+   * @param future The {@link Future} to wait for.
+   * @param deadlineNanos The {@link System#nanoTime()} value after which the method stops waiting.
+   * @throws InterruptedException If the current thread was interrupted while waiting.
+   * @throws TimeoutException If {@code future} is not done before {@code deadlineNanos}.
+   */
+  void await(Future<?> future, long deadlineNanos) throws InterruptedException, TimeoutException;
+
+  /**
+   * @return A {@link WaitStrategy} which calls {@link Thread#onSpinWait()} while waiting.
+   * Virtual threads call {@link Thread#yield()} instead, so that they do not occupy their carrier threads while waiting.
+   */
+  static WaitStrategy busySpin() {
+    return BusySpinWaitStrategy.instance();
+  }
+
+  /**
+   * @return A {@link WaitStrategy} which calls {@link Thread#yield()} while waiting.
+   */
+  static WaitStrategy yielding() {
+    return YieldingWaitStrategy.instance();
+  }
+
+  /**
+   * @return A {@link WaitStrategy} which parks the waiting thread until the awaited {@link Future} is done.
+   */
+  static WaitStrategy parking() {
+    return ParkingWaitStrategy.instance();
+  }
+
+  /**
+   * @param spinDuration The maximal duration of busy-spinning. Must not be negative.
+   * @return A {@link WaitStrategy} which behaves like {@link #busySpin()} during {@code spinDuration}, and then like {@link #parking()}.
+   */
+  static WaitStrategy spinThenPark(final Duration spinDuration) {
+    return new SpinThenParkWaitStrategy(spinDuration);
+  }
+}
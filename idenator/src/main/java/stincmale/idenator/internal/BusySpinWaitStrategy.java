@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import stincmale.idenator.WaitStrategy;
+import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.util.VirtualThreads;
+
+/**
+ * A {@link WaitStrategy} which calls {@link Thread#onSpinWait()} while waiting.
+ * A virtual thread calls {@link Thread#yield()} instead, so that it does not occupy its carrier thread while waiting.
+ */
+@ThreadSafe
+public final class BusySpinWaitStrategy implements WaitStrategy {
+  private static final BusySpinWaitStrategy instance = new BusySpinWaitStrategy();
+
+  private BusySpinWaitStrategy() {
+  }
+
+  /**
+   * Always returns the same instance.
+   *
+   * @return An instance of {@link BusySpinWaitStrategy}.
+   */
+  public static final BusySpinWaitStrategy instance() {
+    return instance;
+  }
+
+  @Override
+  public final void await(final Future<?> future, final long deadlineNanos) throws InterruptedException, TimeoutException {
+    final boolean virtual = VirtualThreads.isVirtual(Thread.currentThread());
+    while (!future.isDone()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      } else if (System.nanoTime() - deadlineNanos >= 0) {
+        throw new TimeoutException();
+      }
+      if (virtual) {
+        Thread.yield();
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+
+/**
+ * A {@linkplain ThreadSafe thread-safe} decorator of a {@link LongIdGenerator} which allows injecting faults,
+ * e.g. in order to emulate a {@code hi} value generator backed by a database that is slow or unavailable.
+ * <p>
+ * {@link #next()} calls {@link Delayer#delay()}, and then either fails with {@link IllegalStateException}
+ * or returns an identifier generated by the decorated ID generator.
+ * Calls to the decorated ID generator are serialized, so it is not required to be {@linkplain ThreadSafe thread-safe}.
+ */
+@ThreadSafe
+public final class FaultInjectingLongIdGenerator implements LongIdGenerator {
+  private final LongIdGenerator delegate;
+  private final Delayer delayer;
+  private final AtomicLong numberOfCalls;
+  private final AtomicInteger numberOfFaultsToInject;
+  private volatile boolean unavailable;
+
+  /**
+   * @param delegate The decorated ID generator.
+   * @param delayer A {@link Delayer} allowing to emulate a delay while {@linkplain #next() generating} an identifier.
+   */
+  public FaultInjectingLongIdGenerator(final LongIdGenerator delegate, final Delayer delayer) {
+    this.delegate = checkNotNull(delegate, "delegate");
+    this.delayer = checkNotNull(delayer, "delayer");
+    numberOfCalls = new AtomicLong();
+    numberOfFaultsToInject = new AtomicInteger();
+    unavailable = false;
+  }
+
+  @Override
+  public final long next() {
+    numberOfCalls.getAndIncrement();
+    delayer.delay();
+    if (unavailable || numberOfFaultsToInject.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+      throw new IllegalStateException("Injected fault");
+    }
+    synchronized (delegate) {
+      return delegate.next();
+    }
+  }
+
+  /**
+   * Makes the specified number of subsequent calls to {@link #next()} fail.
+   *
+   * @param numberOfFaults Must not be negative.
+   */
+  public final void failNext(final int numberOfFaults) {
+    checkArgument(numberOfFaults >= 0, "numberOfFaults", "Must not be negative");
+    numberOfFaultsToInject.set(numberOfFaults);
+  }
+
+  /**
+   * @param unavailable If true, then all subsequent calls to {@link #next()} fail until this method is called with false.
+   */
+  public final void setUnavailable(final boolean unavailable) {
+    this.unavailable = unavailable;
+  }
+
+  /**
+   * @return The number of calls to {@link #next()} including those that failed.
+   */
+  public final long getNumberOfCalls() {
+    return numberOfCalls.get();
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{delegate=" + delegate +
+        ", delayer=" + delayer +
+        ", unavailable=" + unavailable +
+        ", numberOfFaultsToInject=" + numberOfFaultsToInject +
+        '}';
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import stincmale.idenator.WaitStrategy;
+import stincmale.idenator.doc.ThreadSafe;
+
+/**
+ * A {@link WaitStrategy} which parks the waiting thread until the awaited {@link Future} is done
+ * by using {@link Future#get(long, TimeUnit)}.
+ */
+@ThreadSafe
+public final class ParkingWaitStrategy implements WaitStrategy {
+  private static final ParkingWaitStrategy instance = new ParkingWaitStrategy();
+
+  private ParkingWaitStrategy() {
+  }
+
+  /**
+   * Always returns the same instance.
+   *
+   * @return An instance of {@link ParkingWaitStrategy}.
+   */
+  public static final ParkingWaitStrategy instance() {
+    return instance;
+  }
+
+  @Override
+  public final void await(final Future<?> future, final long deadlineNanos) throws InterruptedException, TimeoutException {
+    if (!future.isDone()) {
+      final long timeoutNanos = deadlineNanos - System.nanoTime();
+      if (timeoutNanos <= 0) {
+        throw new TimeoutException();
+      }
+      try {
+        future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+      } catch (final ExecutionException e) {
+        //the future is done, and its outcome is not our business
+      }
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Utils.format;
+
+/**
+ * A self-tuning number of optimistic attempts (budget) an operation makes before falling back to a pessimistic approach, e.g. locking.
+ * <p>
+ * The budget is chosen based on the observed rate {@code p} of failed validations of optimistic attempts,
+ * such that the probability {@code p^budget} of exhausting the budget is not greater than 0.001.
+ * Thus, the budget grows when optimistic attempts fail often (e.g. because of many processors competing for the same data),
+ * and shrinks when they rarely fail and retrying is unlikely to be needed.
+ * <p>
+ * The statistics are cheap to maintain: only a pseudorandom sample of operations is {@linkplain #record(int, int) recorded}
+ * into a single atomic variable, and the budget is re-evaluated once per 256 sampled validations.
+ */
+@ThreadSafe
+public final class RetryBudget {
+  private static final double TARGET_EXHAUSTION_PROBABILITY = 0.001;
+  private static final int SAMPLING_PERIOD = 16;
+  private static final int WINDOW = 256;
+
+  private final int minBudget;
+  private final int maxBudget;
+  /**
+   * Sampled validations in the high 32 bits, and failed sampled validations in the low 32 bits.
+   */
+  private final AtomicLong samples;
+  private volatile int budget;
+  private volatile double failureRate;
+
+  /**
+   * @param minBudget Must be positive.
+   * @param initialBudget Must belong to [{@code minBudget}; {@code maxBudget}].
+   * @param maxBudget Must not be less than {@code minBudget}.
+   */
+  public RetryBudget(final int minBudget, final int initialBudget, final int maxBudget) {
+    checkArgument(minBudget > 0, "minBudget", "Must be positive");
+    checkArgument(maxBudget >= minBudget, "maxBudget", () -> format("Must not be less than %s=%s", "minBudget", minBudget));
+    checkArgument(initialBudget >= minBudget && initialBudget <= maxBudget, "initialBudget",
+        () -> format("Must belong to [%s; %s]", minBudget, maxBudget));
+    this.minBudget = minBudget;
+    this.maxBudget = maxBudget;
+    samples = new AtomicLong();
+    budget = initialBudget;
+    failureRate = 0;
+  }
+
+  /**
+   * @return The current number of optimistic attempts an operation should make.
+   */
+  public final int get() {
+    return budget;
+  }
+
+  /**
+   * @return The observed rate of failed validations of optimistic attempts, ∈ [0; 1].
+   */
+  public final double getFailureRate() {
+    return failureRate;
+  }
+
+  /**
+   * Records the outcome of an operation, if the operation is sampled.
+   *
+   * @param validations The number of validations of optimistic attempts made by the operation. Must not be negative.
+   * @param failedValidations The number of failed validations. Must belong to [0; {@code validations}].
+   */
+  public final void record(final int validations, final int failedValidations) {
+    if (validations > 0 && ThreadLocalRandom.current().nextInt(SAMPLING_PERIOD) == 0) {
+      final long samples = this.samples.addAndGet(((long) validations << 32) + failedValidations);
+      final long sampledValidations = samples >>> 32;
+      if (sampledValidations >= WINDOW && this.samples.compareAndSet(samples, 0)) {//the current thread is responsible for re-evaluation
+        adjust((double) (samples & 0xFFFF_FFFFL) / sampledValidations);
+      }
+    }
+  }
+
+  private final void adjust(final double failureRate) {
+    this.failureRate = failureRate;
+    final int budget;
+    if (failureRate == 0) {
+      budget = minBudget;
+    } else if (failureRate >= 1) {
+      budget = maxBudget;
+    } else {
+      budget = (int) Math.max(minBudget, Math.min(maxBudget,
+          Math.ceil(Math.log(TARGET_EXHAUSTION_PROBABILITY) / Math.log(failureRate))));
+    }
+    this.budget = budget;
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{budget=" + budget +
+        ", failureRate=" + failureRate +
+        '}';
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import stincmale.idenator.WaitStrategy;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.deadlineNanos;
+import static stincmale.idenator.internal.util.Utils.join;
+
+/**
+ * Makes sure that an action, e.g. generating a new {@code hi} value, is performed by at most one thread at a time,
+ * while other threads that need the action to be performed wait for it to complete instead of performing it again.
+ * If the action fails, then the waiting threads fail with the same exception.
+ * <p>
+ * All actions performed via the same {@link SingleFlight} are totally ordered by the happens-before relation,
+ * so they may access state which is not thread-safe.
+ * An asynchronous action is considered performed when the {@link CompletionStage} it returns completes.
+ */
+@ThreadSafe
+public final class SingleFlight {
+  private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+  private static final Duration NO_TIMEOUT = Duration.ofNanos(Long.MAX_VALUE);
+
+  /**
+   * The flight in progress, if any.
+   */
+  private final AtomicReference<CompletableFuture<Void>> flight;
+  /**
+   * The most recently initiated flight, which may have completed, or null if no flights have been initiated.
+   */
+  @Nullable
+  private volatile CompletableFuture<Void> lastFlight;
+  private final WaitStrategy waitStrategy;
+
+  /**
+   * This constructor uses {@link ParkingWaitStrategy} as {@code waitStrategy}.
+   */
+  public SingleFlight() {
+    this(ParkingWaitStrategy.instance());
+  }
+
+  /**
+   * @param waitStrategy A {@link WaitStrategy} which is used to wait for a concurrent flight to complete.
+   */
+  public SingleFlight(final WaitStrategy waitStrategy) {
+    flight = new AtomicReference<>();
+    this.waitStrategy = checkNotNull(waitStrategy, "waitStrategy");
+  }
+
+  /**
+   * Performs {@code action} in the current thread, or waits for a concurrent flight to complete, until {@code needed} becomes false.
+   *
+   * @param needed Tells whether {@code action} needs to be performed. It is re-checked right before performing {@code action}.
+   * @param action The action to perform.
+   */
+  public final void run(final BooleanSupplier needed, final Runnable action) {
+    while (needed.getAsBoolean()) {
+      final CompletableFuture<Void> flight = flight(needed, sync(action), null);
+      if (!flight.isDone()) {
+        try {
+          waitStrategy.await(flight, deadlineNanos(NO_TIMEOUT));
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();//join below waits for the flight regardless of interrupts
+        } catch (final TimeoutException e) {
+          //join below waits for the flight
+        }
+      }
+      join(flight);
+    }
+  }
+
+  /**
+   * Initiates performing {@code action} via {@code executor} if {@code needed} and if there is no flight in progress,
+   * and does not wait for it to complete.
+   * If {@code executor} rejects the action, then the flight fails with the {@link RejectedExecutionException}.
+   *
+   * @param needed See {@link #run(BooleanSupplier, Runnable)}.
+   * @param action See {@link #run(BooleanSupplier, Runnable)}.
+   * @param executor An {@link Executor} which is used to perform {@code action}.
+   * @return null if {@code action} is not needed, otherwise a new {@link CompletableFuture} which completes when the flight in progress
+   * completes, and is completed exceptionally if the flight fails. The flight may have already completed when this method returns,
+   * e.g. if {@code executor} performs {@code action} in the current thread. Completing the returned future does not affect the flight.
+   */
+  @Nullable
+  public final CompletableFuture<Void> initiate(final BooleanSupplier needed, final Runnable action, final Executor executor) {
+    return needed.getAsBoolean() ? flight(needed, sync(action), executor).copy() : null;
+  }
+
+  /**
+   * This method is similar to {@link #initiate(BooleanSupplier, Runnable, Executor)},
+   * but initiates the asynchronous {@code action} in the current thread.
+   *
+   * @param needed See {@link #run(BooleanSupplier, Runnable)}.
+   * @param action The asynchronous action to perform. Must not block the current thread.
+   * @return See {@link #initiate(BooleanSupplier, Runnable, Executor)}.
+   */
+  @Nullable
+  public final CompletableFuture<Void> initiateAsync(final BooleanSupplier needed, final Supplier<? extends CompletionStage<?>> action) {
+    return needed.getAsBoolean() ? flight(needed, action, null).copy() : null;
+  }
+
+  /**
+   * Behaves like {@link #initiate(BooleanSupplier, Runnable, Executor)},
+   * but reports the outcome of the flight if it has already completed.
+   *
+   * @param needed See {@link #run(BooleanSupplier, Runnable)}.
+   * @param action See {@link #run(BooleanSupplier, Runnable)}.
+   * @param executor See {@link #initiate(BooleanSupplier, Runnable, Executor)}.
+   * @return true if {@code action} is not needed, false if it is being performed.
+   * @throws RuntimeException The exception with which the flight has failed, e.g. the {@link RejectedExecutionException}.
+   */
+  public final boolean tryRun(final BooleanSupplier needed, final Runnable action, final Executor executor) {
+    return tried(initiate(needed, action, executor), needed);
+  }
+
+  /**
+   * This method is similar to {@link #tryRun(BooleanSupplier, Runnable, Executor)},
+   * but initiates the asynchronous {@code action} in the current thread.
+   *
+   * @param needed See {@link #run(BooleanSupplier, Runnable)}.
+   * @param action The asynchronous action to perform. Must not block the current thread.
+   * @return See {@link #tryRun(BooleanSupplier, Runnable, Executor)}.
+   * @throws RuntimeException See {@link #tryRun(BooleanSupplier, Runnable, Executor)}.
+   */
+  public final boolean tryRunAsync(final BooleanSupplier needed, final Supplier<? extends CompletionStage<?>> action) {
+    return tried(initiateAsync(needed, action), needed);
+  }
+
+  /**
+   * Waits for the flight in progress to complete by using the {@code waitStrategy}.
+   * If there is no flight in progress, then checks the most recently initiated flight,
+   * so that the failure of a flight which has completed before this method was called is not missed.
+   *
+   * @param deadlineNanos The {@link System#nanoTime()} value after which the method stops waiting.
+   * @throws TimeoutException If the flight has not completed before {@code deadlineNanos}.
+   * @throws InterruptedException If the current thread was interrupted while waiting.
+   * @throws RuntimeException The exception with which the flight has failed.
+   */
+  public final void await(final long deadlineNanos) throws InterruptedException, TimeoutException {
+    @Nullable
+    CompletableFuture<Void> flight = this.flight.get();
+    if (flight == null) {
+      flight = lastFlight;
+    }
+    if (flight != null) {
+      waitStrategy.await(flight, deadlineNanos);
+      join(flight);
+    }
+  }
+
+  /**
+   * Implements {@link stincmale.idenator.LongIdGenerator#next(Duration)} for ID generators which perform refills via this {@link SingleFlight}:
+   * attempts to generate an identifier via {@code tryNext}, and {@linkplain #await(long) waits} for a refill between attempts.
+   *
+   * @param timeout See {@link stincmale.idenator.LongIdGenerator#next(Duration)}.
+   * @param tryNext Generates an identifier without waiting for refills, see {@link stincmale.idenator.LongIdGenerator#tryNext()}.
+   * @return The generated identifier.
+   * @throws TimeoutException If the {@code timeout} elapses before an identifier is generated.
+   * @throws InterruptedException If the current thread is interrupted.
+   * @throws RuntimeException The exception with which {@code tryNext} or a refill has failed.
+   */
+  public final long next(final Duration timeout, final Supplier<OptionalLong> tryNext) throws InterruptedException, TimeoutException {
+    checkNotNull(timeout, "timeout");
+    final long deadlineNanos = deadlineNanos(timeout);
+    while (true) {
+      final OptionalLong id = tryNext.get();
+      if (id.isPresent()) {
+        return id.getAsLong();
+      } else if (Thread.interrupted()) {
+        throw new InterruptedException();
+      } else if (System.nanoTime() - deadlineNanos >= 0) {
+        throw new TimeoutException();
+      } else {
+        await(deadlineNanos);
+      }
+    }
+  }
+
+  /**
+   * @param executor An {@link Executor} which is used to perform {@code action},
+   * or null if {@code action} must be initiated by the current thread.
+   * @return The flight in progress, which is initiated either by this method or by a concurrent thread.
+   * The flight may have already completed if it was initiated by this method.
+   */
+  private final CompletableFuture<Void> flight(
+      final BooleanSupplier needed,
+      final Supplier<? extends CompletionStage<?>> action,
+      @Nullable final Executor executor) {
+    @Nullable
+    CompletableFuture<Void> flight = this.flight.get();
+    if (flight == null) {
+      final CompletableFuture<Void> newFlight = new CompletableFuture<>();
+      flight = this.flight.compareAndExchange(null, newFlight);
+      if (flight == null) {//the current thread is responsible for the flight
+        flight = newFlight;
+        lastFlight = newFlight;
+        if (executor == null) {
+          perform(newFlight, needed, action);
+        } else {
+          try {
+            executor.execute(() -> perform(newFlight, needed, action));
+          } catch (final RejectedExecutionException e) {
+            complete(newFlight, e);
+          }
+        }
+      }
+    }
+    return flight;
+  }
+
+  private final void perform(
+      final CompletableFuture<Void> flight,
+      final BooleanSupplier needed,
+      final Supplier<? extends CompletionStage<?>> action) {
+    try {
+      if (needed.getAsBoolean()) {//re-check whether the action is still needed, because a flight might have completed since the last check
+        action.get()
+            .whenComplete((result, failure) -> complete(flight, failure));
+      } else {
+        complete(flight, null);
+      }
+    } catch (final Throwable e) {
+      complete(flight, e);
+    }
+  }
+
+  /**
+   * @param flight See {@link #initiate(BooleanSupplier, Runnable, Executor)}.
+   * @return See {@link #tryRun(BooleanSupplier, Runnable, Executor)}.
+   */
+  private static final boolean tried(@Nullable final CompletableFuture<Void> flight, final BooleanSupplier needed) {
+    if (flight == null) {
+      return true;
+    } else if (flight.isDone()) {
+      join(flight);//throws the exception with which the flight has failed
+      return !needed.getAsBoolean();
+    } else {
+      return false;
+    }
+  }
+
+  private static final Supplier<CompletionStage<Void>> sync(final Runnable action) {
+    return () -> {
+      action.run();
+      return COMPLETED;
+    };
+  }
+
+  private final void complete(final CompletableFuture<Void> flight, @Nullable final Throwable failure) {
+    this.flight.set(null);//must be done before completing so that those who observe the completion do not see a stale flight
+    if (failure == null) {
+      flight.complete(null);
+    } else {
+      flight.completeExceptionally(failure);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import stincmale.idenator.WaitStrategy;
+import stincmale.idenator.doc.Immutable;
+import static stincmale.idenator.internal.util.Preconditions.checkArgument;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
+import static stincmale.idenator.internal.util.Utils.deadlineNanos;
+
+/**
+ * A {@link WaitStrategy} which behaves like {@link BusySpinWaitStrategy} during a specified duration,
+ * and then like {@link ParkingWaitStrategy}.
+ */
+@Immutable
+public final class SpinThenParkWaitStrategy implements WaitStrategy {
+  private final Duration spinDuration;
+
+  /**
+   * @param spinDuration The maximal duration of busy-spinning. Must not be negative.
+   */
+  public SpinThenParkWaitStrategy(final Duration spinDuration) {
+    checkNotNull(spinDuration, "spinDuration");
+    checkArgument(!spinDuration.isNegative(), "spinDuration", "Must not be negative");
+    this.spinDuration = spinDuration;
+  }
+
+  @Override
+  public final void await(final Future<?> future, final long deadlineNanos) throws InterruptedException, TimeoutException {
+    if (!future.isDone()) {
+      final long spinDeadlineNanos = deadlineNanos(spinDuration);
+      try {
+        BusySpinWaitStrategy.instance()
+            .await(future, spinDeadlineNanos - deadlineNanos < 0 ? spinDeadlineNanos : deadlineNanos);
+      } catch (final TimeoutException e) {
+        //stop spinning
+      }
+      ParkingWaitStrategy.instance()
+          .await(future, deadlineNanos);
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName() +
+        "{spinDuration=" + spinDuration +
+        '}';
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import stincmale.idenator.WaitStrategy;
+import stincmale.idenator.doc.ThreadSafe;
+
+/**
+ * A {@link WaitStrategy} which calls {@link Thread#yield()} while waiting.
+ */
+@ThreadSafe
+public final class YieldingWaitStrategy implements WaitStrategy {
+  private static final YieldingWaitStrategy instance = new YieldingWaitStrategy();
+
+  private YieldingWaitStrategy() {
+  }
+
+  /**
+   * Always returns the same instance.
+   *
+   * @return An instance of {@link YieldingWaitStrategy}.
+   */
+  public static final YieldingWaitStrategy instance() {
+    return instance;
+  }
+
+  @Override
+  public final void await(final Future<?> future, final long deadlineNanos) throws InterruptedException, TimeoutException {
+    while (!future.isDone()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      } else if (System.nanoTime() - deadlineNanos >= 0) {
+        throw new TimeoutException();
+      }
+      Thread.yield();
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return getClass().getSimpleName();
+  }
+}
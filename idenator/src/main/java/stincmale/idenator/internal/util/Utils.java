@@ -16,7 +16,11 @@
 
 package stincmale.idenator.internal.util;
 
+import java.time.Duration;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import stincmale.idenator.doc.Nullable;
 
 public final class Utils {
   private Utils() {
@@ -25,4 +29,51 @@ public final class Utils {
   public static final String format(final String format, final Object... args) {
     return String.format(Locale.ROOT, format, args);
   }
+
+  /**
+   * @param timeout A timeout. Negative values are treated as zero, and values too big to be represented are truncated.
+   * @return The {@link System#nanoTime()} value after which the {@code timeout} elapses.
+   */
+  public static final long deadlineNanos(final Duration timeout) {
+    final long maxTimeoutNanos = Long.MAX_VALUE / 2;//bigger timeouts may not be compared correctly with the difference of System.nanoTime() values
+    long timeoutNanos;
+    try {
+      timeoutNanos = timeout.toNanos();
+    } catch (final ArithmeticException e) {
+      timeoutNanos = timeout.isNegative() ? 0 : maxTimeoutNanos;
+    }
+    return System.nanoTime() + Math.max(0, Math.min(timeoutNanos, maxTimeoutNanos));
+  }
+
+  /**
+   * @param duration A non-negative duration.
+   * @return {@code duration} in nanoseconds, or {@link Long#MAX_VALUE} if it is too big to be represented.
+   */
+  public static final long saturatedToNanos(final Duration duration) {
+    try {
+      return duration.toNanos();
+    } catch (final ArithmeticException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * Behaves like {@link CompletableFuture#join()} but throws the cause of the {@link CompletionException}
+   * if the cause is either a {@link RuntimeException} or an {@link Error}.
+   */
+  public static final <T> T join(final CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (final CompletionException e) {
+      @Nullable
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw e;
+      }
+    }
+  }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Isolates the differences in threading between Java runtimes.
+ * This is the version for runtimes that do not support virtual threads;
+ * the multi-release JAR contains another version of this class for runtimes that support them.
+ */
+public final class VirtualThreads {
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if {@code thread} is a virtual thread.
+   */
+  public static final boolean isVirtual(final Thread thread) {
+    return false;
+  }
+
+  /**
+   * @return An {@link Executor} suitable for tasks which may block for a long time, e.g. for generating {@code hi} values:
+   * it starts a new virtual thread for each task if the runtime supports virtual threads,
+   * and is {@link ForkJoinPool#commonPool()} otherwise.
+   */
+  public static final Executor blockingExecutor() {
+    return ForkJoinPool.commonPool();
+  }
+}
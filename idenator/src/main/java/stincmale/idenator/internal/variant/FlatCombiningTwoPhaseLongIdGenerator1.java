@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal.variant;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import stincmale.idenator.AbstractTwoPhaseLongIdGenerator;
+import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Constants.EXCLUDE_ASSERTIONS_FROM_BYTECODE;
+
+@ThreadSafe
+public final class FlatCombiningTwoPhaseLongIdGenerator1 extends AbstractTwoPhaseLongIdGenerator {
+  private static final VarHandle COMBINING;
+  private static final int NUMBER_OF_SLOTS;
+
+  static {
+    try {
+      COMBINING = MethodHandles.lookup().findVarHandle(FlatCombiningTwoPhaseLongIdGenerator1.class, "combining", boolean.class);
+    } catch (final ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+    NUMBER_OF_SLOTS = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+  }
+
+  private final Slot[] slots;
+  private volatile boolean combining;
+  /**
+   * Accessed only by the combiner.
+   */
+  private long hi;
+  /**
+   * Accessed only by the combiner.
+   */
+  private long lo;
+
+  public FlatCombiningTwoPhaseLongIdGenerator1(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    slots = new Slot[NUMBER_OF_SLOTS];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot();
+    }
+    combining = false;
+    hi = UNINITIALIZED;
+    lo = loUpperBoundOpen;//hi must be advanced before generating the first identifier
+  }
+
+  @Override
+  public final long next() {
+    final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    while (true) {//publish a request, or generate an identifier ourselves if we became the combiner
+      final Slot slot = slots[rnd.nextInt(slots.length)];
+      if (slot.tryPublish()) {
+        return await(slot);
+      } else if (tryLock()) {//all the slots we tried are occupied, but nobody is combining
+        try {
+          final long id = nextId();
+          combine();
+          return id;
+        } finally {
+          unlock();
+        }
+      }
+    }
+  }
+
+  private final long await(final Slot slot) {
+    for (int spinIdx = 1; ; spinIdx++) {
+      if (slot.state == Slot.SERVED) {
+        return slot.take();
+      } else if (tryLock()) {
+        try {
+          combine();//serves our request among others
+        } catch (final RuntimeException e) {
+          if (slot.state == Slot.SERVED) {//the identifier generated for us is lost, but the slot must be freed
+            slot.take();
+          } else {
+            slot.cancel();
+          }
+          throw e;
+        } finally {
+          unlock();
+        }
+      } else if (spinIdx % 64 == 0) {//there may be more threads than processors, let the combiner run
+        Thread.yield();
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  /**
+   * Serves all published requests. Must be called only by the combiner.
+   */
+  private final void combine() {
+    for (final Slot slot : slots) {
+      if (slot.state == Slot.PUBLISHED) {
+        slot.serve(nextId());
+      }
+    }
+  }
+
+  /**
+   * Must be called only by the combiner.
+   */
+  private final long nextId() {
+    if (lo >= getLoUpperBoundOpen()) {//we need to reset lo and advance hi
+      hi = nextHi();
+      lo = 0;
+    }
+    return calculateId(hi, lo++);
+  }
+
+  private final boolean tryLock() {
+    return !combining && COMBINING.compareAndSet(this, false, true);
+  }
+
+  private final void unlock() {
+    assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || combining;
+    combining = false;
+  }
+
+  @ThreadSafe
+  private static final class Slot {
+    private static final VarHandle STATE;
+    private static final int FREE = 0;
+    private static final int PUBLISHED = 1;
+    private static final int SERVED = 2;
+
+    static {
+      try {
+        STATE = MethodHandles.lookup().findVarHandle(Slot.class, "state", int.class);
+      } catch (final ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    private volatile int state;
+    /**
+     * Written by the combiner before {@link #state} becomes {@link #SERVED}, and read by the owner after that.
+     */
+    private long id;
+
+    private Slot() {
+      state = FREE;
+    }
+
+    /**
+     * Makes the current thread the owner of this slot and publishes a request if the slot is {@link #FREE}.
+     */
+    private final boolean tryPublish() {
+      return state == FREE && STATE.compareAndSet(this, FREE, PUBLISHED);
+    }
+
+    /**
+     * Must be called only by the combiner.
+     */
+    private final void serve(final long id) {
+      this.id = id;
+      state = SERVED;
+    }
+
+    /**
+     * Must be called only by the owner of the slot.
+     */
+    private final long take() {
+      final long id = this.id;
+      state = FREE;
+      return id;
+    }
+
+    /**
+     * Must be called only by the owner of the slot while being the combiner.
+     */
+    private final void cancel() {
+      state = FREE;
+    }
+  }
+}
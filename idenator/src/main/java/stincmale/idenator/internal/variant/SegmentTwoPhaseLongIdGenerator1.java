@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal.variant;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import stincmale.idenator.AbstractTwoPhaseLongIdGenerator;
+import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.doc.ThreadSafe;
+import static stincmale.idenator.internal.util.Constants.EXCLUDE_ASSERTIONS_FROM_BYTECODE;
+
+@ThreadSafe
+public final class SegmentTwoPhaseLongIdGenerator1 extends AbstractTwoPhaseLongIdGenerator {
+  private static final VarHandle SEGMENT;
+
+  static {
+    try {
+      SEGMENT = MethodHandles.lookup().findVarHandle(SegmentTwoPhaseLongIdGenerator1.class, "segment", Segment.class);
+    } catch (final ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Object mutex;
+  private volatile Segment segment;
+
+  public SegmentTwoPhaseLongIdGenerator1(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+    super(hiGenerator, loUpperBoundOpen, pooled);
+    mutex = new Object();
+    segment = new Segment(UNINITIALIZED, loUpperBoundOpen);//an exhausted segment
+  }
+
+  @Override
+  public final long next() {
+    final long loUpperBoundOpen = getLoUpperBoundOpen();
+    while (true) {
+      final Segment segment = this.segment;
+      final long lo = segment.getAndIncrementLo();
+      if (lo < loUpperBoundOpen) {//lo is fine, and it belongs to the same segment as hi
+        return calculateId(segment.hi, lo);
+      } else {//lo is too big, we probably need to advance the segment
+        advance(segment);
+      }
+    }
+  }
+
+  private final void advance(final Segment exhaustedSegment) {
+    synchronized (mutex) {//hiGenerator is not required to be thread-safe, and we do not want to generate more hi values than needed
+      if (segment == exhaustedSegment) {//re-check whether we still need to advance the segment
+        final boolean published = SEGMENT.compareAndSet(this, exhaustedSegment, new Segment(nextHi(), 0));
+        assert EXCLUDE_ASSERTIONS_FROM_BYTECODE || published;
+      }
+    }
+  }
+
+  @ThreadSafe
+  private static final class Segment {
+    private static final VarHandle LO;
+
+    static {
+      try {
+        LO = MethodHandles.lookup().findVarHandle(Segment.class, "lo", long.class);
+      } catch (final ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    private final long hi;
+    private volatile long lo;
+
+    private Segment(final long hi, final long lo) {
+      this.hi = hi;
+      this.lo = lo;
+    }
+
+    private final long getAndIncrementLo() {
+      return (long) LO.getAndAdd(this, 1L);
+    }
+  }
+}
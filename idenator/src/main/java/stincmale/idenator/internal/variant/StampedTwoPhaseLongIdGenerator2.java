@@ -21,16 +21,19 @@ import java.util.concurrent.locks.StampedLock;
 import stincmale.idenator.AbstractTwoPhaseLongIdGenerator;
 import stincmale.idenator.LongIdGenerator;
 import stincmale.idenator.doc.ThreadSafe;
+import stincmale.idenator.internal.RetryBudget;
 
 @ThreadSafe
 public final class StampedTwoPhaseLongIdGenerator2 extends AbstractTwoPhaseLongIdGenerator {
   private final StampedLock lock;
+  private final RetryBudget retryBudget;
   private final AtomicLong lo;
   private long hi;
 
   public StampedTwoPhaseLongIdGenerator2(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
     super(hiGenerator, loUpperBoundOpen, pooled);
     lock = new StampedLock();
+    retryBudget = new RetryBudget(1, 4, 64);
     lo = new AtomicLong(-1);
     hi = UNINITIALIZED;
   }
@@ -40,7 +43,9 @@ public final class StampedTwoPhaseLongIdGenerator2 extends AbstractTwoPhaseLongI
     final long loUpperBoundOpen = getLoUpperBoundOpen();
     long hi = UNINITIALIZED;
     long lo = -1;
-    final int maxAttempts = 4;
+    final int maxAttempts = retryBudget.get();
+    int validations = 0;
+    int failedValidations = 0;
     for (int attemptIdx = 0; attemptIdx <= maxAttempts; attemptIdx++) {
       final boolean optimisticAttempt = attemptIdx < maxAttempts;
       final long optimisticStamp;
@@ -72,11 +77,14 @@ public final class StampedTwoPhaseLongIdGenerator2 extends AbstractTwoPhaseLongI
           lock.unlockWrite(exclusiveStamp);
         }
       } else {//lo is fine, check whether optimistic read succeeded
+        validations++;
         if (lock.validate(optimisticStamp)) {//optimistic read succeeded, hence read hi+lo was atomic and we can break the loop
           break;
         }//else continue this while loop because hi was changed while we were reading lo, so we can't guarantee that the hi+lo read is atomic
+        failedValidations++;
       }
     }
+    retryBudget.record(validations, failedValidations);
     return calculateId(hi, lo);
   }
 
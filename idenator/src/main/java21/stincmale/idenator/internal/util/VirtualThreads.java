@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Isolates the differences in threading between Java runtimes.
+ * This is the version for runtimes that support virtual threads.
+ */
+public final class VirtualThreads {
+  private static final ThreadFactory blockingThreadFactory = Thread.ofVirtual()
+      .name("idenator-blocking-", 0)
+      .factory();
+  private static final Executor blockingExecutor = task -> blockingThreadFactory.newThread(task)
+      .start();
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if {@code thread} is a virtual thread.
+   */
+  public static final boolean isVirtual(final Thread thread) {
+    return thread.isVirtual();
+  }
+
+  /**
+   * @return An {@link Executor} which starts a new virtual thread for each task.
+   * It is suitable for tasks which may block for a long time, e.g. for generating {@code hi} values.
+   */
+  public static final Executor blockingExecutor() {
+    return blockingExecutor;
+  }
+}
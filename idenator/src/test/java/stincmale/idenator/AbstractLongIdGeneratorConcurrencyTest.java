@@ -15,31 +15,59 @@
  */
 package stincmale.idenator;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import static stincmale.idenator.internal.util.Preconditions.checkNotNull;
 import static stincmale.idenator.internal.util.Utils.format;
 
 public abstract class AbstractLongIdGeneratorConcurrencyTest extends AbstractLongIdGeneratorTest {
   private final int numberOfThreads;
+  private final IdOrdering ordering;
   private ExecutorService ex;
 
+  /**
+   * The tested ID generators are expected to provide the {@link IdOrdering#RELAXED} ordering.
+   */
   protected AbstractLongIdGeneratorConcurrencyTest(final int numberOfThreads, final LongIdGeneratorCreatorAndParams... longIdGeneratorCreators) {
+    this(numberOfThreads, IdOrdering.RELAXED, longIdGeneratorCreators);
+  }
+
+  /**
+   * @param ordering The ordering which the tested ID generators are expected to provide.
+   * {@link IdOrdering#LINEARIZABLE_MONOTONIC} requires {@code hi} values of the tested ID generators to not overflow.
+   */
+  protected AbstractLongIdGeneratorConcurrencyTest(
+      final int numberOfThreads,
+      final IdOrdering ordering,
+      final LongIdGeneratorCreatorAndParams... longIdGeneratorCreators) {
     super(longIdGeneratorCreators);
     this.numberOfThreads = numberOfThreads;
+    this.ordering = checkNotNull(ordering, "ordering");
   }
 
+  /**
+   * @param batchSizes If {@code batchSizes[i]} is 1, then the thread {@code i} uses {@link LongIdGenerator#next()},
+   * if it is 0, then the thread uses {@link LongIdGenerator#next(Duration)},
+   * otherwise it uses {@link LongIdGenerator#next(long[])} to generate {@code batchSizes[i]} identifiers at once.
+   */
   private static final void doTest(
       final LongIdGeneratorCreatorAndParams idGenCreator,
       final long[][] threadLocalIdHolders,
+      final int[] batchSizes,
       final ExecutorService ex) {
     final AtomicReference<Long> firstDuplicateId = new AtomicReference<>();
     final AtomicReference<RuntimeException> firstException = new AtomicReference<>();
@@ -48,12 +76,28 @@ public abstract class AbstractLongIdGeneratorConcurrencyTest extends AbstractLon
     final ConcurrentMap<Long, Long> uniqueIds = new ConcurrentHashMap<>(numberOfThreads * numberOfIdsPerThread);
     final LongIdGenerator idGen = idGenCreator.get();
     final Phaser latch = new Phaser(numberOfThreads + 1);
-    for (long[] threadLocalIds : threadLocalIdHolders) {
+    for (int threadIdx = 0; threadIdx < numberOfThreads; threadIdx++) {
+      final long[] threadLocalIds = threadLocalIdHolders[threadIdx];
+      final int batchSize = batchSizes[threadIdx];
       ex.submit(() -> {
         try {
           latch.arriveAndAwaitAdvance();
-          for (int i = 0; i < threadLocalIds.length; i++) {
-            threadLocalIds[i] = idGen.next();//collect ids into a thread-local array to avoid synchronization introduced by a concurrent map
+          if (batchSize == 1) {
+            for (int i = 0; i < threadLocalIds.length; i++) {
+              threadLocalIds[i] = idGen.next();//collect ids into a thread-local array to avoid synchronization introduced by a concurrent map
+            }
+          } else if (batchSize == 0) {
+            final Duration timeout = Duration.ofMinutes(1);
+            for (int i = 0; i < threadLocalIds.length; i++) {
+              threadLocalIds[i] = idGen.next(timeout);
+            }
+          } else {
+            for (int i = 0; i < threadLocalIds.length; ) {
+              final long[] ids = new long[Math.min(batchSize, threadLocalIds.length - i)];
+              idGen.next(ids);
+              System.arraycopy(ids, 0, threadLocalIds, i, ids.length);
+              i += ids.length;
+            }
           }
           for (long id : threadLocalIds) {
             uniqueIds.merge(id, id, (existingId, newId) -> {
@@ -63,6 +107,8 @@ public abstract class AbstractLongIdGeneratorConcurrencyTest extends AbstractLon
           }
         } catch (final RuntimeException e) {
           firstException.compareAndSet(null, e);
+        } catch (final InterruptedException | TimeoutException e) {
+          firstException.compareAndSet(null, new RuntimeException(e));
         } finally {
           latch.arriveAndDeregister();
         }
@@ -82,9 +128,85 @@ public abstract class AbstractLongIdGeneratorConcurrencyTest extends AbstractLon
     final int numberOfTestIterations = 1000;
     final int numberOfIdsPerThread = 4000;
     final long[][] threadLocalIds = new long[numberOfThreads][numberOfIdsPerThread];
+    final int[] batchSizes = new int[numberOfThreads];
+    Arrays.fill(batchSizes, 1);
+    getLongIdGeneratorCreators().forEach(idGenCreator -> {
+      for (int i = 1; i <= numberOfTestIterations; i++) {
+        doTest(idGenCreator, threadLocalIds, batchSizes, ex);
+      }
+    });
+  }
+
+  @Test
+  final void testNextArray() {
+    final int numberOfTestIterations = 100;
+    final int numberOfIdsPerThread = 4000;
+    final long[][] threadLocalIds = new long[numberOfThreads][numberOfIdsPerThread];
+    final int[] batchSizes = new int[numberOfThreads];
+    for (int threadIdx = 0; threadIdx < numberOfThreads; threadIdx++) {//some threads use next() and others use next(long[])
+      batchSizes[threadIdx] = 1 + 31 * (threadIdx % 3);
+    }
     getLongIdGeneratorCreators().forEach(idGenCreator -> {
       for (int i = 1; i <= numberOfTestIterations; i++) {
-        doTest(idGenCreator, threadLocalIds, ex);
+        doTest(idGenCreator, threadLocalIds, batchSizes, ex);
+      }
+    });
+  }
+
+  @Test
+  final void testNextTimeout() {
+    assumeTrue(supportsTimeouts(), "The ID generator does not support LongIdGenerator.next(Duration)");
+    final int numberOfTestIterations = 100;
+    final int numberOfIdsPerThread = 4000;
+    final long[][] threadLocalIds = new long[numberOfThreads][numberOfIdsPerThread];
+    final int[] batchSizes = new int[numberOfThreads];
+    for (int threadIdx = 0; threadIdx < numberOfThreads; threadIdx++) {//some threads use next() and others use next(Duration)
+      batchSizes[threadIdx] = threadIdx % 2;
+    }
+    getLongIdGeneratorCreators().forEach(idGenCreator -> {
+      for (int i = 1; i <= numberOfTestIterations; i++) {
+        doTest(idGenCreator, threadLocalIds, batchSizes, ex);
+      }
+    });
+  }
+
+  /**
+   * Checks that an identifier generated by a thread is greater than all identifiers
+   * which had been generated by any thread before the thread started generating it.
+   */
+  @Test
+  final void testLinearizableMonotonic() {
+    assumeTrue(ordering == IdOrdering.LINEARIZABLE_MONOTONIC, "The ID generator is not linearizable monotonic");
+    final int numberOfTestIterations = 100;
+    final int numberOfIdsPerThread = 4000;
+    getLongIdGeneratorCreators().forEach(idGenCreator -> {
+      for (int i = 1; i <= numberOfTestIterations; i++) {
+        final LongIdGenerator idGen = idGenCreator.get();
+        final AtomicLong maxId = new AtomicLong(Long.MIN_VALUE);
+        final AtomicReference<String> firstViolation = new AtomicReference<>();
+        final Phaser latch = new Phaser(numberOfThreads + 1);
+        for (int threadIdx = 0; threadIdx < numberOfThreads; threadIdx++) {
+          ex.submit(() -> {
+            try {
+              latch.arriveAndAwaitAdvance();
+              for (int j = 0; j < numberOfIdsPerThread; j++) {
+                final long maxPrecedingId = maxId.get();//all identifiers generated before we start generating a new one are not greater
+                final long id = idGen.next();
+                if (id <= maxPrecedingId) {
+                  firstViolation.compareAndSet(null, format("Generated id %s after id %s from %s", id, maxPrecedingId, idGen));
+                }
+                maxId.accumulateAndGet(id, Math::max);
+              }
+            } catch (final RuntimeException e) {
+              firstViolation.compareAndSet(null, e.toString());
+            } finally {
+              latch.arriveAndDeregister();
+            }
+          });
+        }
+        latch.arriveAndAwaitAdvance();//release the latch for all tasks
+        latch.arriveAndAwaitAdvance();//await for completion of all tasks
+        assertNull(firstViolation.get(), firstViolation.get());
       }
     });
   }
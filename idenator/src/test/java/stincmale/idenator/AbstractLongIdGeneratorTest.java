@@ -37,11 +37,27 @@ public abstract class AbstractLongIdGeneratorTest {
     return idGenCreators;
   }
 
+  /**
+   * @return true if the tested ID generators support {@link LongIdGenerator#tryNext()} and {@link LongIdGenerator#next(java.time.Duration)}.
+   */
+  protected final boolean supportsTimeouts() {
+    final LongIdGenerator idGen = idGenCreators.iterator()
+        .next()
+        .getCreator()
+        .create(new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance()), 1, false);
+    try {
+      idGen.tryNext();
+      return true;
+    } catch (final UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
   protected interface LongIdGeneratorCreator {
-    AbstractTwoPhaseLongIdGenerator create(LongIdGenerator hiGenerator, long loUpperBoundOpen, boolean pooled);
+    LongIdGenerator create(LongIdGenerator hiGenerator, long loUpperBoundOpen, boolean pooled);
   }
 
-  protected static final class LongIdGeneratorCreatorAndParams implements Supplier<AbstractTwoPhaseLongIdGenerator> {
+  protected static final class LongIdGeneratorCreatorAndParams implements Supplier<LongIdGenerator> {
     private final LongIdGeneratorCreator creator;
     private final LongIdGenerator hiGenerator;
     private final long startHi;
@@ -62,7 +78,7 @@ public abstract class AbstractLongIdGeneratorTest {
     }
 
     @Override
-    public AbstractTwoPhaseLongIdGenerator get() {
+    public LongIdGenerator get() {
       return creator.create(hiGenerator, loUpperBoundOpen, pooled);
     }
 
@@ -16,14 +16,19 @@
 
 package stincmale.idenator;
 
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeoutException;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import org.junit.jupiter.api.Test;
 import static stincmale.idenator.internal.util.Utils.format;
 
 /**
  * This test expects strictly increasing {@link AbstractTwoPhaseLongIdGenerator}s
  * which do not skip identifiers when used sequentially unless this is required by the specification.
+ * Other strictly increasing {@link LongIdGenerator}s may be tested in Hi/Lo mode by ignoring the supplied {@code hi} value generator.
  */
 public abstract class AbstractLongIdGeneratorUnitTest extends AbstractLongIdGeneratorTest {
   protected AbstractLongIdGeneratorUnitTest(final LongIdGeneratorCreatorAndParams... longIdGeneratorCreators) {
@@ -69,6 +74,53 @@ public abstract class AbstractLongIdGeneratorUnitTest extends AbstractLongIdGene
     }
   }
 
+  private final static void testNextArray(final LongIdGeneratorCreatorAndParams idGenCreator) {
+    final LongIdGenerator idGen = idGenCreator.get();
+    long id = idGen.next();
+    final int maxArrayLength = 2 * Math.toIntExact(idGenCreator.getLoUpperBoundOpen()) + 1;
+    final int numberOfIterations = 20 * maxArrayLength;
+    for (int i = 0; i < numberOfIterations; i++) {
+      final long[] ids = new long[i % (maxArrayLength + 1)];
+      idGen.next(ids);
+      for (final long newId : ids) {
+        assertTrue(newId - id > 0, format("i=%s, ids.length=%s, newId=%s, id=%s, idGen=%s", i, ids.length, newId, id, idGen.toString()));
+        id = newId;
+      }
+      final long newId = idGen.next();
+      assertTrue(newId - id > 0, format("i=%s, newId=%s, id=%s, idGen=%s", i, newId, id, idGen.toString()));
+      id = newId;
+    }
+  }
+
+  private final static void testNextTimeout(final LongIdGeneratorCreatorAndParams idGenCreator) {
+    final LongIdGenerator idGen = idGenCreator.get();
+    final Duration timeout = Duration.ofMinutes(1);
+    long id = nextTimeout(idGen, timeout);
+    final int numberOfIterations = 200 * Math.toIntExact(idGenCreator.getLoUpperBoundOpen());
+    for (int i = 0; i < numberOfIterations; i++) {
+      final long newId;
+      if (i % 2 == 0) {
+        newId = nextTimeout(idGen, timeout);
+      } else {
+        OptionalLong optionalNewId;
+        do {//eventually succeeds because tryNext initiates whatever is needed
+          optionalNewId = idGen.tryNext();
+        } while (optionalNewId.isEmpty());
+        newId = optionalNewId.getAsLong();
+      }
+      assertTrue(newId - id > 0, format("i=%s, newId=%s, id=%s, idGen=%s", i, newId, id, idGen.toString()));
+      id = newId;
+    }
+  }
+
+  private static final long nextTimeout(final LongIdGenerator idGen, final Duration timeout) {
+    try {
+      return idGen.next(timeout);
+    } catch (final InterruptedException | TimeoutException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Test
   final void next() {
     getLongIdGeneratorCreators().forEach(idGenCreator -> {
@@ -79,4 +131,15 @@ public abstract class AbstractLongIdGeneratorUnitTest extends AbstractLongIdGene
       }
     });
   }
+
+  @Test
+  final void nextArray() {
+    getLongIdGeneratorCreators().forEach(AbstractLongIdGeneratorUnitTest::testNextArray);
+  }
+
+  @Test
+  final void nextTimeout() {
+    assumeTrue(supportsTimeouts(), "The ID generator does not support LongIdGenerator.next(Duration)");
+    getLongIdGeneratorCreators().forEach(AbstractLongIdGeneratorUnitTest::testNextTimeout);
+  }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import static stincmale.idenator.AdaptiveTwoPhaseLongIdGeneratorTest.creator;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.CONCURRENCY)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class AdaptiveTwoPhaseLongIdGeneratorConcurrencyTest extends AbstractLongIdGeneratorConcurrencyTest {
+  private AdaptiveTwoPhaseLongIdGeneratorConcurrencyTest() {
+    super(2 * Math.max(2, Runtime.getRuntime().availableProcessors()),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1000, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 1000, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 1000, true));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class AdaptiveTwoPhaseLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private AdaptiveTwoPhaseLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 10, true));
+  }
+
+  /**
+   * Creates {@link AdaptiveTwoPhaseLongIdGenerator}s which always use {@code loUpperBoundOpen} {@code lo} values with a {@code hi} value,
+   * because {@code hiGenerator} provided by {@link LongIdGeneratorCreatorAndParams} does not support {@link SparseLongIdGenerator#next(long)}.
+   */
+  static final LongIdGeneratorCreator creator() {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new AdaptiveTwoPhaseLongIdGenerator(
+        sparseness -> hiGenerator.next(), loUpperBoundOpen, loUpperBoundOpen, Duration.ofSeconds(1));
+  }
+
+  @Test
+  final void grow() {
+    final List<Long> sparsenesses = new ArrayList<>();
+    final AdaptiveTwoPhaseLongIdGenerator idGen = new AdaptiveTwoPhaseLongIdGenerator(
+        hiGenerator(sparsenesses), 1, 16, Duration.ofHours(1));
+    for (long id = 0; id < 1 + 2 + 4 + 8 + 16 + 16; id++) {
+      assertEquals(id, idGen.next());
+    }
+    assertEquals(List.of(0L, 1L, 3L, 7L, 15L, 15L), sparsenesses);
+  }
+
+  @Test
+  final void shrink() throws InterruptedException {
+    final List<Long> sparsenesses = new ArrayList<>();
+    final AdaptiveTwoPhaseLongIdGenerator idGen = new AdaptiveTwoPhaseLongIdGenerator(
+        hiGenerator(sparsenesses), 1, 16, Duration.ofMillis(50));
+    final long[] ids = new long[1 + 2 + 4 + 8];
+    idGen.next(ids);//the block size grows unless the blocks are exhausted slowly
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i, ids[i]);
+    }
+    Thread.sleep(2 * 2 * idGen.getTargetRefillInterval().toMillis());
+    final int numberOfRefills = sparsenesses.size();
+    final long loUpperBoundOpen = sparsenesses.get(numberOfRefills - 1) + 1;
+    for (long id = ids.length; sparsenesses.size() == numberOfRefills; id++) {//the block size shrinks because it was exhausted slowly
+      assertEquals(id, idGen.next());
+    }
+    assertEquals(Math.max(1, loUpperBoundOpen / 2) - 1, (long) sparsenesses.get(numberOfRefills));
+  }
+
+  private static final SparseLongIdGenerator hiGenerator(final List<Long> sparsenesses) {
+    final long[] hi = {0};
+    return sparseness -> {
+      sparsenesses.add(sparseness);
+      final long result = hi[0];
+      hi[0] += sparseness + 1;
+      return result;
+    };
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.internal.Delayer;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.FaultInjectingLongIdGenerator;
+import stincmale.idenator.internal.NoopDelayer;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class CompositeLongIdGeneratorTest {
+  private static final Duration quarantineDuration = Duration.ofDays(1);
+
+  private CompositeLongIdGeneratorTest() {
+  }
+
+  /**
+   * @return A source which generates identifiers {@code startId + 2 * i}, so that sources with different parity of {@code startId}
+   * are compatible.
+   */
+  private static final FaultInjectingLongIdGenerator source(final long startId, final Delayer delayer) {
+    return new FaultInjectingLongIdGenerator(new EphemeralStrictlyIncreasingHiGenerator(startId, 1, NoopDelayer.instance()), delayer);
+  }
+
+  @Test
+  final void construct() {
+    assertThrows(IllegalArgumentException.class, () -> new CompositeLongIdGenerator(List.of(), IdOrdering.RELAXED, quarantineDuration));
+    assertThrows(IllegalArgumentException.class,
+        () -> new CompositeLongIdGenerator(List.of(() -> 0), IdOrdering.RELAXED, Duration.ofMillis(-1)));
+  }
+
+  @Test
+  final void relaxedUnique() {
+    final CompositeLongIdGenerator idGen = new CompositeLongIdGenerator(
+        List.of(source(0, NoopDelayer.instance()), source(1001, NoopDelayer.instance())), IdOrdering.RELAXED, quarantineDuration);
+    final Set<Long> ids = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      final long id = idGen.next();
+      assertTrue(ids.add(id), () -> String.valueOf(id));
+    }
+  }
+
+  @Test
+  final void routesAroundSlowSource() {
+    final FaultInjectingLongIdGenerator slow = source(0, () -> sleep(20));
+    final FaultInjectingLongIdGenerator fast = source(1, NoopDelayer.instance());
+    final CompositeLongIdGenerator idGen = new CompositeLongIdGenerator(List.of(slow, fast), IdOrdering.RELAXED, quarantineDuration);
+    final int numberOfIds = 200;
+    for (int i = 0; i < numberOfIds; i++) {
+      idGen.next();
+    }
+    assertTrue(slow.getNumberOfCalls() < numberOfIds / 4, idGen::toString);
+  }
+
+  @Test
+  final void failover() {
+    final FaultInjectingLongIdGenerator failing = source(0, NoopDelayer.instance());
+    final FaultInjectingLongIdGenerator healthy = source(1, () -> sleep(1));
+    final CompositeLongIdGenerator idGen = new CompositeLongIdGenerator(List.of(failing, healthy), IdOrdering.RELAXED, quarantineDuration);
+    failing.setUnavailable(true);
+    for (long expectedId = 1; expectedId < 200; expectedId += 2) {
+      assertEquals(expectedId, idGen.next());
+    }
+    assertEquals(1, failing.getNumberOfCalls(), "A failed source must be quarantined");
+    healthy.setUnavailable(true);
+    final LongIdGeneratorUnavailableException e = assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    assertEquals(1, e.getSuppressed().length);
+    healthy.setUnavailable(false);
+    assertEquals(201, idGen.next());
+  }
+
+  @Test
+  final void linearizableMonotonic() {
+    final FaultInjectingLongIdGenerator behind = source(0, NoopDelayer.instance());
+    final FaultInjectingLongIdGenerator ahead = source(1001, () -> sleep(1));
+    final CompositeLongIdGenerator idGen = new CompositeLongIdGenerator(
+        List.of(behind, ahead), IdOrdering.LINEARIZABLE_MONOTONIC, Duration.ofMillis(5));
+    long lastId = Long.MIN_VALUE;
+    for (int i = 0; i < 1000; i++) {
+      final long id = idGen.next();
+      assertTrue(id > lastId, () -> String.valueOf(id));
+      lastId = id;
+    }
+  }
+
+  @Test
+  final void linearizableMonotonicConcurrent() throws Exception {
+    final int numberOfThreads = 4;
+    final CompositeLongIdGenerator idGen = new CompositeLongIdGenerator(
+        List.of(source(0, NoopDelayer.instance()), source(101, NoopDelayer.instance()), source(2_002, NoopDelayer.instance())),
+        IdOrdering.LINEARIZABLE_MONOTONIC, Duration.ZERO);
+    final AtomicLong maxId = new AtomicLong(Long.MIN_VALUE);
+    final ExecutorService ex = Executors.newFixedThreadPool(numberOfThreads);
+    try {
+      final Future<?>[] futures = new Future<?>[numberOfThreads];
+      for (int threadIdx = 0; threadIdx < numberOfThreads; threadIdx++) {
+        futures[threadIdx] = ex.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            final long maxPrecedingId = maxId.get();
+            final long id = idGen.next();
+            assertTrue(id > maxPrecedingId, () -> String.valueOf(id));
+            maxId.accumulateAndGet(id, Math::max);
+          }
+        });
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      ex.shutdownNow();
+    }
+  }
+
+  private static final void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+}
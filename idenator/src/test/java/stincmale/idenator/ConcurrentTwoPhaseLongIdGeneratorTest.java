@@ -16,8 +16,32 @@
 
 package stincmale.idenator;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.RemainderStore.Remainder;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.NoopDelayer;
 import stincmale.idenator.util.TestTag;
 
 @Tag(TestTag.UNIT)
@@ -38,4 +62,264 @@ final class ConcurrentTwoPhaseLongIdGeneratorTest extends AbstractLongIdGenerato
         new LongIdGeneratorCreatorAndParams(ConcurrentTwoPhaseLongIdGenerator::new, Long.MAX_VALUE, 1, true),
         new LongIdGeneratorCreatorAndParams(ConcurrentTwoPhaseLongIdGenerator::new, Long.MAX_VALUE, 10, true));
   }
+
+  @Test
+  final void singleFlightRefill() throws InterruptedException {
+    final AtomicLong numberOfHiValues = new AtomicLong();
+    final CountDownLatch refillStarted = new CountDownLatch(1);
+    final CountDownLatch refillAllowed = new CountDownLatch(1);
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      numberOfHiValues.incrementAndGet();
+      refillStarted.countDown();
+      try {
+        refillAllowed.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, 10, false);
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(idGen::next);
+      threads[i].start();
+    }
+    refillStarted.await();
+    for (final Thread thread : threads) {//all threads must eventually wait for the refill that is in progress
+      while (thread.getState() == Thread.State.RUNNABLE) {
+        Thread.yield();
+      }
+    }
+    refillAllowed.countDown();
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1, numberOfHiValues.get(), "Concurrent refills must not be performed");
+    assertEquals(threads.length, idGen.next());
+  }
+
+  @Test
+  final void overshootIsNotWasted() throws InterruptedException {
+    final AtomicLong numberOfHiValues = new AtomicLong();
+    final CountDownLatch refillAllowed = new CountDownLatch(1);
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      if (numberOfHiValues.incrementAndGet() > 1) {
+        try {
+          refillAllowed.await();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, 2, false);
+    assertEquals(0, idGen.next());
+    assertEquals(1, idGen.next());
+    final Queue<Long> ids = new ConcurrentLinkedQueue<>();
+    final Thread[] threads = new Thread[3];
+    for (int i = 0; i < threads.length; i++) {//the threads reserve lo values beyond the current block
+      threads[i] = new Thread(() -> ids.add(idGen.next()));
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      while (thread.getState() == Thread.State.RUNNABLE) {
+        Thread.yield();
+      }
+    }
+    refillAllowed.countDown();
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(LongStream.range(2, 5).boxed().collect(Collectors.toSet()), new HashSet<>(ids));
+    assertEquals(5, idGen.next(), "The reserved lo values must not be wasted");
+    assertEquals(3, numberOfHiValues.get(), "Excessive hi values must not be requested");
+  }
+
+  @Test
+  final void failedRefill() {
+    final AtomicBoolean fail = new AtomicBoolean(true);
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      if (fail.getAndSet(false)) {
+        throw new IllegalStateException();
+      }
+    });
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, 10, false);
+    assertThrows(IllegalStateException.class, idGen::next);
+    assertEquals(0, idGen.next(), "A failed refill must not prevent subsequent refills");
+  }
+
+  @Test
+  final void nextTimeoutElapses() throws InterruptedException, TimeoutException {
+    final CountDownLatch refillAllowed = new CountDownLatch(1);
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      try {
+        refillAllowed.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, command -> new Thread(command).start());
+    assertTrue(idGen.tryNext().isEmpty(), "tryNext must not wait for hiGenerator");
+    assertThrows(TimeoutException.class, () -> idGen.next(Duration.ofMillis(10)));
+    refillAllowed.countDown();
+    assertEquals(0, idGen.next(Duration.ofMinutes(1)), "The refill initiated by tryNext must be used");
+  }
+
+  @Test
+  final void nextTimeoutFailedRefill() {
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      throw new IllegalStateException();
+    });
+    assertThrows(IllegalStateException.class, () -> new ConcurrentTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, Runnable::run).next(Duration.ofMinutes(1)));
+    assertThrows(IllegalStateException.class, () -> new ConcurrentTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, command -> new Thread(command).start()).next(Duration.ofMinutes(1)));
+    assertThrows(RejectedExecutionException.class, () -> new ConcurrentTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, command -> {
+          throw new RejectedExecutionException();
+        }).next(Duration.ofMinutes(1)));
+  }
+
+  @Test
+  final void tryNextSkipsSupersededChunk() throws InterruptedException, TimeoutException {
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance());
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(
+        hiGenerator, 160, false, IdOrdering.RELAXED, Runnable::run);
+    assertEquals(0, idGen.next());//the current thread reserves a chunk of lo values of the first block
+    idGen.next(new long[17 * 160]);//the first block is superseded
+    assertEquals(10 + 17 * 160, idGen.next(Duration.ofSeconds(10)), "The lo values of a superseded block must be skipped");
+  }
+
+  @Test
+  final void nextAsync() {
+    final Queue<CompletableFuture<Long>> hiRequests = new ConcurrentLinkedQueue<>();
+    final class AsyncHiGenerator implements LongIdGenerator, AsyncLongIdGenerator {
+      @Override
+      public final long next() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public final CompletableFuture<Long> nextAsync() {
+        final CompletableFuture<Long> hi = new CompletableFuture<>();
+        hiRequests.add(hi);
+        return hi;
+      }
+    }
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(new AsyncHiGenerator(), 10, false, Runnable::run);
+    final CompletableFuture<Long> id = idGen.nextAsync();
+    assertFalse(id.isDone(), "The identifier must not be generated before the hi value");
+    hiRequests.remove().complete(0L);
+    assertEquals(0, (long) id.join());
+    assertEquals(1, (long) idGen.nextAsync().join(), "The identifier must be generated immediately");
+    final CompletableFuture<long[]> ids = idGen.nextAsync(24);
+    for (long hi = 1; hi <= 2; hi++) {
+      assertFalse(ids.isDone(), "The identifiers must not be generated before the hi values");
+      hiRequests.remove().complete(hi);
+    }
+    assertArrayEquals(LongStream.range(2, 26).toArray(), ids.join());
+    assertEquals(0, hiRequests.size(), "Excessive hi values must not be requested");
+  }
+
+  @Test
+  final void nextAsyncFailedRefill() {
+    final AtomicLong numberOfHiValues = new AtomicLong();
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      if (numberOfHiValues.incrementAndGet() > 1) {
+        throw new IllegalStateException();
+      }
+    });
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, 10, false, Runnable::run);
+    assertEquals(0, (long) idGen.nextAsync().join());
+    final CompletableFuture<long[]> ids = idGen.nextAsync(10);
+    assertTrue(ids.isCompletedExceptionally(), "The identifiers must not be generated without the hi value");
+    final CompletionException e = assertThrows(CompletionException.class, ids::join);
+    assertTrue(e.getCause() instanceof IllegalStateException, "The refill failure must be reported");
+    assertThrows(CompletionException.class, () -> idGen.nextAsync().join());
+    assertEquals(3, numberOfHiValues.get(), "The failed refill must not be retried by the same call");
+  }
+
+  @Test
+  final void closeAndResume() throws IOException {
+    final RemainderStore remainderStore = new QueueRemainderStore();
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(
+        new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance()), 10, false,
+        IdOrdering.RELAXED, WaitStrategy.parking(), Runnable::run, remainderStore);
+    for (long expectedId = 0; expectedId < 3; expectedId++) {
+      assertEquals(expectedId, idGen.next());
+    }
+    idGen.close();
+    assertThrows(IllegalStateException.class, idGen::next);
+    assertThrows(IllegalStateException.class, () -> idGen.next(new long[1]));
+    assertThrows(IllegalStateException.class, idGen::tryNext);
+    assertThrows(CompletionException.class, () -> idGen.nextAsync().join());
+    idGen.close();
+    final AtomicLong numberOfHiValues = new AtomicLong();
+    final ConcurrentTwoPhaseLongIdGenerator resumedIdGen = new ConcurrentTwoPhaseLongIdGenerator(
+        new EphemeralStrictlyIncreasingHiGenerator(1, 0, numberOfHiValues::incrementAndGet), 10, false,
+        IdOrdering.RELAXED, WaitStrategy.parking(), Runnable::run, remainderStore);
+    final long[] ids = new long[7];
+    resumedIdGen.next(ids);
+    assertArrayEquals(LongStream.range(3, 10).toArray(), ids, "The remainder must be used");
+    assertEquals(0, numberOfHiValues.get(), "A new hi value must not be requested while there are remainders");
+    assertEquals(10, resumedIdGen.next());
+    assertEquals(1, numberOfHiValues.get());
+    resumedIdGen.close();
+    assertEquals(new Remainder(1, 1, 10, false), remainderStore.poll());
+    assertEquals(null, remainderStore.poll());
+  }
+
+  @Test
+  final void linearizableMonotonicDoesNotUseRemainders() throws IOException {
+    final RemainderStore remainderStore = new QueueRemainderStore();
+    remainderStore.put(new Remainder(5, 3, 10, false));
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(
+        new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance()), 10, false,
+        IdOrdering.LINEARIZABLE_MONOTONIC, WaitStrategy.parking(), Runnable::run, remainderStore);
+    assertEquals(0, idGen.next());
+    idGen.close();
+    assertEquals(new Remainder(5, 3, 10, false), remainderStore.poll());
+    assertEquals(null, remainderStore.poll(), "A remainder must not be stored");
+  }
+
+  @Test
+  final void mismatchedRemainder() throws IOException {
+    final RemainderStore remainderStore = new QueueRemainderStore();
+    final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(
+        new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance()), 10, false,
+        IdOrdering.RELAXED, WaitStrategy.parking(), Runnable::run, remainderStore);
+    final Set<Remainder> mismatchedRemainders = Set.of(new Remainder(5, 3, 11, false), new Remainder(5, 3, 10, true));
+    for (final Remainder mismatchedRemainder : mismatchedRemainders) {
+      remainderStore.put(mismatchedRemainder);
+    }
+    remainderStore.put(new Remainder(9, 4, 10, false));
+    assertEquals(94, idGen.next(), "Mismatched remainders must be skipped");
+    assertEquals(mismatchedRemainders, Set.of(remainderStore.poll(), remainderStore.poll()), "Mismatched remainders must be put back");
+    for (final Remainder mismatchedRemainder : mismatchedRemainders) {
+      remainderStore.put(mismatchedRemainder);
+    }
+    for (long id = 95; id < 100; id++) {
+      assertEquals(id, idGen.next());
+    }
+    assertEquals(0, idGen.next(), "Mismatched remainders must not be used");
+    assertEquals(mismatchedRemainders, Set.of(remainderStore.poll(), remainderStore.poll()), "Mismatched remainders must be put back");
+    assertEquals(null, remainderStore.poll());
+  }
+
+  private static final class QueueRemainderStore implements RemainderStore {
+    private final Queue<Remainder> remainders;
+
+    private QueueRemainderStore() {
+      remainders = new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public final void put(final Remainder remainder) {
+      remainders.add(remainder);
+    }
+
+    @Override
+    public final Remainder poll() {
+      return remainders.poll();
+    }
+  }
 }
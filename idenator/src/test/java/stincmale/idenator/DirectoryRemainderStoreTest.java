@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.RemainderStore.Remainder;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.NoopDelayer;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class DirectoryRemainderStoreTest {
+  private Path dir;
+
+  private DirectoryRemainderStoreTest() {
+  }
+
+  @BeforeEach
+  final void beforeEach() throws IOException {
+    dir = Files.createTempDirectory(getClass().getSimpleName());
+  }
+
+  @AfterEach
+  final void afterEach() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (final Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  final void putPoll() throws IOException {
+    final RemainderStore remainderStore = new DirectoryRemainderStore(dir);
+    assertNull(remainderStore.poll());
+    remainderStore.put(new Remainder(-1, 0, 1, false));
+    remainderStore.put(new Remainder(Long.MAX_VALUE, 5, 10, true));
+    final RemainderStore sharedRemainderStore = new DirectoryRemainderStore(dir);
+    assertEquals(Set.of(new Remainder(-1, 0, 1, false), new Remainder(Long.MAX_VALUE, 5, 10, true)),
+        Set.of(sharedRemainderStore.poll(), remainderStore.poll()));
+    assertNull(remainderStore.poll());
+    assertNull(sharedRemainderStore.poll());
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(0, files.count(), "All files must be deleted");
+    }
+  }
+
+  @Test
+  final void concurrentPoll() throws Exception {
+    final RemainderStore remainderStore = new DirectoryRemainderStore(dir);
+    final int numberOfRemainders = 200;
+    for (long hi = 0; hi < numberOfRemainders; hi++) {
+      remainderStore.put(new Remainder(hi, 1, 10, false));
+    }
+    final Set<Remainder> remainders = ConcurrentHashMap.newKeySet();
+    final ExecutorService ex = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        final RemainderStore pollingRemainderStore = new DirectoryRemainderStore(dir);
+        futures.add(ex.submit(() -> {
+          for (Remainder remainder = pollingRemainderStore.poll(); remainder != null; remainder = pollingRemainderStore.poll()) {
+            assertTrue(remainders.add(remainder), "A remainder must not be polled more than once");
+          }
+          return null;
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      ex.shutdownNow();
+    }
+    assertEquals(numberOfRemainders, remainders.size());
+  }
+
+  @Test
+  final void resumeAfterRestart() throws IOException {
+    final long[] ids = new long[100];
+    int idx = 0;
+    for (int restartIdx = 0; restartIdx < 10; restartIdx++) {
+      final ConcurrentTwoPhaseLongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(
+          new EphemeralStrictlyIncreasingHiGenerator(restartIdx * 1000, 999, NoopDelayer.instance()), 1000, true,
+          IdOrdering.RELAXED, WaitStrategy.parking(), Runnable::run, new DirectoryRemainderStore(dir));
+      for (int i = 0; i < ids.length / 10; i++) {
+        ids[idx++] = idGen.next();
+      }
+      idGen.close();
+    }
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i, ids[i], "Each restart must resume the remainder stored by the previous one");
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class LeasingTwoPhaseLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private LeasingTwoPhaseLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(1), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(1), 0, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(1), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(1), 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MIN_VALUE + 1, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MIN_VALUE + 1, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MAX_VALUE, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MAX_VALUE, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MAX_VALUE, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(1), Long.MAX_VALUE, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(4), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(4), 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(4), Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(4), Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(4), Long.MAX_VALUE, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(4), Long.MAX_VALUE, 10, true));
+  }
+
+  static final LongIdGeneratorCreator creator(final long leaseSize) {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new LeasingTwoPhaseLongIdGenerator(hiGenerator, loUpperBoundOpen, pooled, leaseSize);
+  }
+
+  @Test
+  final void reclaim() throws InterruptedException, ExecutionException {
+    final AtomicLong numberOfHiValues = new AtomicLong();
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, numberOfHiValues::incrementAndGet);
+    final LeasingTwoPhaseLongIdGenerator idGen = new LeasingTwoPhaseLongIdGenerator(hiGenerator, 10, false, 4);
+    final FutureTask<Long> firstId = new FutureTask<>(idGen::next);//leases [0; 4) and uses only 0
+    final Thread thread = new Thread(firstId);
+    thread.start();
+    thread.join();
+    assertEquals(0, (long) firstId.get());
+    for (long lo = 4; lo < 10; lo++) {//leases [4; 8) and [8; 10)
+      assertEquals(lo, idGen.next());
+    }
+    for (long lo = 1; lo < 4; lo++) {//leases [1; 4) reclaimed from the terminated thread
+      assertEquals(lo, idGen.next());
+    }
+    assertEquals(1, numberOfHiValues.get(), "Reclaimed lo values must be used before advancing hi");
+    assertEquals(10, idGen.next());
+    assertEquals(2, numberOfHiValues.get());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import static java.util.stream.Collectors.toList;
+import java.util.stream.LongStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class LongIdPublisherTest {
+  private final AtomicLong numberOfHiValues;
+  private final LongIdPublisher publisher;
+
+  private LongIdPublisherTest() {
+    numberOfHiValues = new AtomicLong();
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, numberOfHiValues::incrementAndGet);
+    publisher = new LongIdPublisher(new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, 10, false, Runnable::run), 10);
+  }
+
+  @Test
+  final void demand() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    assertEquals(0, numberOfHiValues.get(), "hi values must not be generated without a demand");
+    subscriber.subscription().request(15);
+    assertEquals(LongStream.range(0, 15).boxed().collect(toList()), subscriber.ids);
+    assertEquals(2, numberOfHiValues.get());
+    subscriber.subscription().request(5);
+    assertEquals(LongStream.range(0, 20).boxed().collect(toList()), subscriber.ids);
+    assertEquals(2, numberOfHiValues.get(), "hi values must not be generated in excess of the demand");
+    assertNull(subscriber.error);
+  }
+
+  @Test
+  final void cancel() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription().request(1);
+    subscriber.subscription().cancel();
+    subscriber.subscription().request(1);
+    assertEquals(List.of(0L), subscriber.ids);
+    assertEquals(1, numberOfHiValues.get());
+  }
+
+  @Test
+  final void illegalRequest() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription().request(0);
+    assertTrue(subscriber.error instanceof IllegalArgumentException, String.valueOf(subscriber.error));
+    subscriber.subscription().request(1);
+    assertEquals(List.of(), subscriber.ids);
+  }
+
+  private static final class RecordingSubscriber implements Flow.Subscriber<Long> {
+    @Nullable
+    private Flow.Subscription subscription;
+    private final List<Long> ids;
+    @Nullable
+    private Throwable error;
+
+    private RecordingSubscriber() {
+      ids = new ArrayList<>();
+    }
+
+    private final Flow.Subscription subscription() {
+      assertTrue(subscription != null);
+      return subscription;
+    }
+
+    @Override
+    public final void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public final void onNext(final Long id) {
+      ids.add(id);
+    }
+
+    @Override
+    public final void onError(final Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public final void onComplete() {
+      throw new AssertionError();
+    }
+  }
+}
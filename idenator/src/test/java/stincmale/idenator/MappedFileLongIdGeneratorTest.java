@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class MappedFileLongIdGeneratorTest {
+  private Path dir;
+
+  private MappedFileLongIdGeneratorTest() {
+  }
+
+  @BeforeEach
+  final void beforeEach() throws IOException {
+    dir = Files.createTempDirectory(getClass().getSimpleName());
+  }
+
+  @AfterEach
+  final void afterEach() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (final Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  final void construct() throws IOException {
+    final Path file = dir.resolve("hi");
+    assertThrows(IllegalArgumentException.class, () -> new MappedFileLongIdGenerator(file, AbstractTwoPhaseLongIdGenerator.UNINITIALIZED, 1));
+    assertThrows(IllegalArgumentException.class, () -> new MappedFileLongIdGenerator(file, 0, 0));
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(file, 0, 1)) {
+      assertThrows(IOException.class, () -> new MappedFileLongIdGenerator(file, 0, 1), "The file must be locked");
+      assertEquals(0, idGen.next());
+    }
+    final Path foreignFile = dir.resolve("foreign");
+    Files.write(foreignFile, new byte[64]);
+    assertThrows(IOException.class, () -> new MappedFileLongIdGenerator(foreignFile, 0, 1));
+  }
+
+  @Test
+  final void next() throws IOException {
+    final long chunkSize = 100;
+    final MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(dir.resolve("hi"), -5, chunkSize);
+    for (long expectedId = -5; expectedId < 10 * chunkSize - 5; expectedId++) {
+      assertEquals(expectedId, idGen.next());
+    }
+    assertEquals(10, idGen.getNumberOfForces(), "Forces must be amortized over chunks");
+    idGen.close();
+    assertThrows(IllegalStateException.class, idGen::next);
+  }
+
+  @Test
+  final void reopen() throws IOException {
+    final Path file = dir.resolve("hi");
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(file, 0, 4)) {
+      for (long expectedId = 0; expectedId < 10; expectedId++) {
+        assertEquals(expectedId, idGen.next());
+      }
+    }
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(file, 0, 4)) {
+      assertEquals(12, idGen.next(), "Identifiers reserved before closing must be lost");
+    }
+  }
+
+  /**
+   * Emulates a crash by copying the file of an ID generator which is not closed.
+   */
+  @Test
+  final void crash() throws IOException {
+    final Path file = dir.resolve("hi");
+    final Path fileAfterCrash = dir.resolve("hiAfterCrash");
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(file, 0, 100)) {
+      for (int i = 0; i < 150; i++) {
+        idGen.next();
+      }
+      Files.copy(file, fileAfterCrash);
+    }
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(fileAfterCrash, 0, 100)) {
+      assertEquals(200, idGen.next());
+    }
+  }
+
+  @Test
+  final void partiallyWrittenRecord() throws IOException {
+    final Path file = dir.resolve("hi");
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(file, 0, 10)) {
+      for (int i = 0; i < 11; i++) {//the second reservation is written to the record with index 0
+        idGen.next();
+      }
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 2 * Integer.BYTES + Long.BYTES);
+    }
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(file, 0, 10)) {
+      assertEquals(10, idGen.next(), "The record with index 1 must be used");
+    }
+  }
+
+  @Test
+  final void nextConcurrent() throws Exception {
+    final int numberOfThreads = 4;
+    final int numberOfIdsPerThread = 10_000;
+    final Set<Long> ids = ConcurrentHashMap.newKeySet();
+    final ExecutorService ex = Executors.newFixedThreadPool(numberOfThreads);
+    try (MappedFileLongIdGenerator idGen = new MappedFileLongIdGenerator(dir.resolve("hi"), 0, 10)) {
+      final Future<?>[] futures = new Future<?>[numberOfThreads];
+      for (int threadIdx = 0; threadIdx < numberOfThreads; threadIdx++) {
+        futures[threadIdx] = ex.submit(() -> {
+          long lastId = Long.MIN_VALUE;
+          for (int i = 0; i < numberOfIdsPerThread; i++) {
+            final long id = idGen.next();
+            assertTrue(id > lastId);
+            assertTrue(ids.add(id));
+            lastId = id;
+          }
+        });
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+      assertTrue(idGen.getNumberOfForces() <= numberOfThreads * numberOfIdsPerThread / idGen.getChunkSize(), idGen::toString);
+    } finally {
+      ex.shutdownNow();
+    }
+  }
+}
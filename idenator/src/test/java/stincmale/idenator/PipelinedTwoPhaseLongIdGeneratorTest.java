@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+/**
+ * Only Hi/Lo mode is tested via {@link AbstractLongIdGeneratorUnitTest} because {@link PipelinedTwoPhaseLongIdGenerator}
+ * generates {@code hi} values in advance, which is incompatible with the way {@link AbstractLongIdGeneratorUnitTest} tests pooled mode.
+ */
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class PipelinedTwoPhaseLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private PipelinedTwoPhaseLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 1), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 1), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 4), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 4), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 4), Long.MIN_VALUE + 1, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 4), Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 4), Long.MAX_VALUE, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(IdOrdering.LINEARIZABLE_MONOTONIC, 4), Long.MAX_VALUE, 10, false));
+  }
+
+  static final LongIdGeneratorCreator creator(final IdOrdering ordering, final int parallelism) {
+    return creator(ordering, parallelism, command -> new Thread(command).start());
+  }
+
+  static final LongIdGeneratorCreator creator(final IdOrdering ordering, final int parallelism, final Executor refillExecutor) {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new PipelinedTwoPhaseLongIdGenerator(
+        () -> {//hiGenerator is shared between ID generators created by the same LongIdGeneratorCreatorAndParams
+          synchronized (hiGenerator) {
+            return hiGenerator.next();
+          }
+        },
+        loUpperBoundOpen, pooled, 2, 8, parallelism, ordering, refillExecutor);
+  }
+
+  @Test
+  final void construct() {
+    final LongIdGenerator hiGenerator = () -> 0;
+    assertThrows(IllegalArgumentException.class, () -> new PipelinedTwoPhaseLongIdGenerator(hiGenerator, 1, false, 0, 0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new PipelinedTwoPhaseLongIdGenerator(hiGenerator, 1, false, 1, 1, 1));
+    assertThrows(IllegalArgumentException.class, () -> new PipelinedTwoPhaseLongIdGenerator(hiGenerator, 1, false, -1, 1, 1));
+    assertThrows(IllegalArgumentException.class, () -> new PipelinedTwoPhaseLongIdGenerator(hiGenerator, 1, false, 0, 1, 0));
+  }
+
+  @Test
+  final void outOfOrderGeneration() {
+    final AtomicLong hiCounter = new AtomicLong();
+    final LongIdGenerator hiGenerator = () -> {
+      final long hi = hiCounter.getAndIncrement();
+      if (hi % 4 == 0) {//complete after calls which started later and generated bigger hi values
+        sleep(20);
+      }
+      return hi;
+    };
+    final PipelinedTwoPhaseLongIdGenerator idGen = new PipelinedTwoPhaseLongIdGenerator(
+        hiGenerator, 1, false, 3, 4, 4, IdOrdering.LINEARIZABLE_MONOTONIC, command -> new Thread(command).start());
+    for (long expectedId = 0; expectedId < 40; expectedId++) {
+      assertEquals(expectedId, idGen.next());
+    }
+  }
+
+  @Test
+  final void brownout() throws InterruptedException {
+    final long loUpperBoundOpen = 10;
+    final int highWatermark = 4;
+    final AtomicBoolean brownout = new AtomicBoolean();
+    final CountDownLatch brownoutEnd = new CountDownLatch(1);
+    final AtomicLong hiCounter = new AtomicLong();
+    final LongIdGenerator hiGenerator = () -> {
+      if (brownout.get()) {
+        awaitUninterruptibly(brownoutEnd);
+      }
+      return hiCounter.getAndIncrement();
+    };
+    final PipelinedTwoPhaseLongIdGenerator idGen = new PipelinedTwoPhaseLongIdGenerator(
+        hiGenerator, loUpperBoundOpen, false, 1, highWatermark, 2);
+    assertEquals(0, idGen.next());
+    final long deadlineNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+    while (idGen.getNumberOfReservedBlocks() < highWatermark - 1) {//wait for the reserve to be filled
+      assertTrue(System.nanoTime() - deadlineNanos < 0, idGen.toString());
+      sleep(1);
+    }
+    brownout.set(true);
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      for (long expectedId = 1; expectedId < highWatermark * loUpperBoundOpen; expectedId++) {
+        assertEquals(expectedId, idGen.next());
+      }
+    }, "Reserved hi values must be used without waiting for hiGenerator");
+    brownoutEnd.countDown();
+    assertEquals(highWatermark * loUpperBoundOpen, idGen.next());
+  }
+
+  @Test
+  final void tryNextDuringBrownout() throws InterruptedException, TimeoutException {
+    final long loUpperBoundOpen = 10;
+    final int highWatermark = 4;
+    final AtomicBoolean brownout = new AtomicBoolean();
+    final CountDownLatch brownoutEnd = new CountDownLatch(1);
+    final AtomicLong hiCounter = new AtomicLong();
+    final LongIdGenerator hiGenerator = () -> {
+      if (brownout.get()) {
+        awaitUninterruptibly(brownoutEnd);
+      }
+      return hiCounter.getAndIncrement();
+    };
+    final PipelinedTwoPhaseLongIdGenerator idGen = new PipelinedTwoPhaseLongIdGenerator(
+        hiGenerator, loUpperBoundOpen, false, 1, highWatermark, 2);
+    assertEquals(0, idGen.next());
+    final long deadlineNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+    while (idGen.getNumberOfReservedBlocks() < highWatermark - 1) {//wait for the reserve to be filled
+      assertTrue(System.nanoTime() - deadlineNanos < 0, idGen.toString());
+      sleep(1);
+    }
+    brownout.set(true);
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      for (long expectedId = 1; expectedId < highWatermark * loUpperBoundOpen; expectedId++) {
+        assertEquals(OptionalLong.of(expectedId), idGen.tryNext(), "Reserved hi values must be used");
+      }
+      assertTrue(idGen.tryNext().isEmpty(), "tryNext must not wait for hiGenerator");
+      assertThrows(TimeoutException.class, () -> idGen.next(Duration.ofMillis(10)));
+    });
+    brownoutEnd.countDown();
+    assertEquals(highWatermark * loUpperBoundOpen, idGen.next(Duration.ofMinutes(1)));
+  }
+
+  @Test
+  final void failure() {
+    final RuntimeException failure = new RuntimeException();
+    final AtomicBoolean fail = new AtomicBoolean(true);
+    final AtomicLong hiCounter = new AtomicLong();
+    final LongIdGenerator hiGenerator = () -> {
+      if (fail.get()) {
+        throw failure;
+      }
+      return hiCounter.getAndIncrement();
+    };
+    final PipelinedTwoPhaseLongIdGenerator idGen = new PipelinedTwoPhaseLongIdGenerator(hiGenerator, 1, false, 0, 2, 2);
+    assertSame(failure, assertThrows(RuntimeException.class, idGen::next));
+    fail.set(false);
+    assertEquals(0, idGen.next());
+    assertEquals(1, idGen.next());
+  }
+
+  private static final void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static final void awaitUninterruptibly(final CountDownLatch latch) {
+    while (true) {
+      try {
+        latch.await();
+        return;
+      } catch (final InterruptedException e) {
+        //keep waiting
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.NoopDelayer;
+import stincmale.idenator.util.TestTag;
+
+/**
+ * Only Hi/Lo mode is tested via {@link AbstractLongIdGeneratorUnitTest} because {@link PrefetchingTwoPhaseLongIdGenerator}
+ * generates {@code hi} values in advance, which is incompatible with the way {@link AbstractLongIdGeneratorUnitTest} tests pooled mode.
+ */
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class PrefetchingTwoPhaseLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private PrefetchingTwoPhaseLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(Runnable::run), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(Runnable::run), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(ForkJoinPool.commonPool()), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(ForkJoinPool.commonPool()), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(ForkJoinPool.commonPool()), Long.MIN_VALUE + 1, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(ForkJoinPool.commonPool()), Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(ForkJoinPool.commonPool()), Long.MAX_VALUE, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(ForkJoinPool.commonPool()), Long.MAX_VALUE, 10, false));
+  }
+
+  static final LongIdGeneratorCreator creator(final Executor prefetchExecutor) {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new PrefetchingTwoPhaseLongIdGenerator(
+        () -> {//hiGenerator is shared between ID generators created by the same LongIdGeneratorCreatorAndParams
+          synchronized (hiGenerator) {
+            return hiGenerator.next();
+          }
+        },
+        loUpperBoundOpen, pooled, loUpperBoundOpen / 2, prefetchExecutor);
+  }
+
+  @Test
+  final void prefetch() {
+    final AtomicLong numberOfHiValues = new AtomicLong();
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, numberOfHiValues::incrementAndGet);
+    final long loUpperBoundOpen = 10;
+    final long prefetchLo = 5;
+    final PrefetchingTwoPhaseLongIdGenerator idGen = new PrefetchingTwoPhaseLongIdGenerator(
+        hiGenerator, loUpperBoundOpen, false, prefetchLo, Runnable::run);
+    for (long lo = 0; lo < prefetchLo; lo++) {
+      assertEquals(lo, idGen.next());
+      assertEquals(1, numberOfHiValues.get());
+    }
+    assertEquals(prefetchLo, idGen.next());
+    assertEquals(2, numberOfHiValues.get(), "The next hi must be prefetched when prefetchLo is reached");
+    for (long lo = prefetchLo + 1; lo < loUpperBoundOpen; lo++) {
+      assertEquals(lo, idGen.next());
+    }
+    assertEquals(loUpperBoundOpen, idGen.next());
+    assertEquals(2, numberOfHiValues.get(), "The prefetched hi must be used when lo values are exhausted");
+  }
+
+  @Test
+  final void nextTimeoutRejectedPrefetch() {
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance());
+    final PrefetchingTwoPhaseLongIdGenerator idGen = new PrefetchingTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, 5, command -> {
+          throw new RejectedExecutionException();
+        });
+    assertThrows(RejectedExecutionException.class, () -> idGen.next(Duration.ofMinutes(1)));
+    assertEquals(0, idGen.next(), "A rejected prefetch must not prevent generating hi values when they are needed");
+  }
+
+  @Test
+  final void nextTimeoutInterrupted() {
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance());
+    final PrefetchingTwoPhaseLongIdGenerator idGen = new PrefetchingTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, 5, command -> {//the prefetch never completes
+        });
+    Thread.currentThread().interrupt();
+    assertThrows(InterruptedException.class, () -> idGen.next(Duration.ofMinutes(1)));
+    assertFalse(Thread.interrupted(), "The interrupt status must be cleared");
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.PriorityLanesTwoPhaseLongIdGenerator.Lane;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class PriorityLanesTwoPhaseLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  static final String INTERACTIVE = "interactive";
+  static final String BULK = "bulk";
+
+  private PriorityLanesTwoPhaseLongIdGeneratorTest() {
+    super(//lanes which reserve hi values are not strictly increasing, hence the bulk lane is tested
+        new LongIdGeneratorCreatorAndParams(creator(BULK), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), 0, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MIN_VALUE + 1, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MIN_VALUE + 1, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MAX_VALUE, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MAX_VALUE, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MAX_VALUE, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(BULK), Long.MAX_VALUE, 10, true));
+  }
+
+  static final LongIdGeneratorCreator creator(final String lane) {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new PriorityLanesTwoPhaseLongIdGenerator(
+        hiGenerator, loUpperBoundOpen, pooled, lanes())
+        .lane(lane);
+  }
+
+  private static final List<Lane> lanes() {
+    return List.of(new Lane(INTERACTIVE, 2), new Lane(BULK, 0));
+  }
+
+  @Test
+  final void construct() {
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {});
+    assertThrows(IllegalArgumentException.class, () -> new PriorityLanesTwoPhaseLongIdGenerator(hiGenerator, 10, false, List.of()));
+    assertThrows(IllegalArgumentException.class, () -> new PriorityLanesTwoPhaseLongIdGenerator(
+        hiGenerator, 10, false, List.of(new Lane(BULK, 1), new Lane(BULK, 0))));
+    assertThrows(IllegalArgumentException.class, () -> new Lane(BULK, -1));
+    assertThrows(IllegalArgumentException.class, () -> new PriorityLanesTwoPhaseLongIdGenerator(hiGenerator, 10, false, lanes())
+        .lane("unknown"));
+  }
+
+  @Test
+  final void bulkLaneDoesNotStarveInteractiveLane() throws InterruptedException {
+    final long loUpperBoundOpen = 10;
+    final AtomicBoolean blockHi = new AtomicBoolean();
+    final CountDownLatch unblockHi = new CountDownLatch(1);
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      while (blockHi.get()) {
+        try {
+          unblockHi.await();
+          return;
+        } catch (final InterruptedException e) {
+          //keep waiting
+        }
+      }
+    });
+    final PriorityLanesTwoPhaseLongIdGenerator idGen = new PriorityLanesTwoPhaseLongIdGenerator(hiGenerator, loUpperBoundOpen, false, lanes());
+    final Set<Long> ids = new HashSet<>();
+    ids.add(idGen.lane(INTERACTIVE).next());
+    final long deadlineNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+    while (idGen.getNumberOfReservedBlocks(INTERACTIVE) < 2) {//wait for the interactive lane to be topped up
+      assertTrue(System.nanoTime() - deadlineNanos < 0, idGen.toString());
+      Thread.sleep(1);
+    }
+    blockHi.set(true);
+    final Set<Long> bulkIds = new HashSet<>();
+    final Thread bulk = new Thread(() -> {//drains its lane and waits for hiGenerator
+      for (int i = 0; i < 3 * loUpperBoundOpen; i++) {
+        bulkIds.add(idGen.lane(BULK).next());
+      }
+    });
+    bulk.start();
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      for (int i = 1; i < 3 * loUpperBoundOpen; i++) {//the current and both reserved hi values of the interactive lane
+        ids.add(idGen.lane(INTERACTIVE).next());
+      }
+    }, "The interactive lane must not wait for hiGenerator while it has reserved hi values");
+    unblockHi.countDown();
+    bulk.join();
+    assertEquals(3 * loUpperBoundOpen, ids.size());
+    ids.addAll(bulkIds);
+    assertEquals(6 * loUpperBoundOpen, ids.size(), "Identifiers must be unique across lanes");
+  }
+
+  @Test
+  final void tryNextUsesReservedHis() throws InterruptedException, TimeoutException {
+    final long loUpperBoundOpen = 10;
+    final AtomicBoolean blockHi = new AtomicBoolean();
+    final CountDownLatch unblockHi = new CountDownLatch(1);
+    final LongIdGenerator hiGenerator = new EphemeralStrictlyIncreasingHiGenerator(0, 0, () -> {
+      while (blockHi.get()) {
+        try {
+          unblockHi.await();
+          return;
+        } catch (final InterruptedException e) {
+          //keep waiting
+        }
+      }
+    });
+    final PriorityLanesTwoPhaseLongIdGenerator idGen = new PriorityLanesTwoPhaseLongIdGenerator(hiGenerator, loUpperBoundOpen, false, lanes());
+    final LongIdGenerator interactive = idGen.lane(INTERACTIVE);
+    final Set<Long> ids = new HashSet<>();
+    ids.add(interactive.next());
+    final long deadlineNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+    while (idGen.getNumberOfReservedBlocks(INTERACTIVE) < 2) {//wait for the interactive lane to be topped up
+      assertTrue(System.nanoTime() - deadlineNanos < 0, idGen.toString());
+      Thread.sleep(1);
+    }
+    blockHi.set(true);
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      for (int i = 1; i < 3 * loUpperBoundOpen; i++) {//the current and both reserved hi values of the interactive lane
+        final OptionalLong id = interactive.tryNext();
+        assertTrue(id.isPresent(), "tryNext must use reserved hi values");
+        ids.add(id.getAsLong());
+      }
+      assertTrue(interactive.tryNext().isEmpty(), "tryNext must not wait for hiGenerator");
+    });
+    unblockHi.countDown();
+    ids.add(interactive.next(Duration.ofMinutes(1)));
+    assertEquals(3 * loUpperBoundOpen + 1, ids.size());
+  }
+}
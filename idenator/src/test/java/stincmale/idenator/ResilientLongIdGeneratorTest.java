@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.ResilientLongIdGenerator.CircuitState;
+import stincmale.idenator.doc.Nullable;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.FaultInjectingLongIdGenerator;
+import stincmale.idenator.internal.NoopDelayer;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class ResilientLongIdGeneratorTest {
+  private static final Duration initialBackoff = Duration.ofMillis(1);
+  private static final Duration maxBackoff = Duration.ofMillis(10);
+  private static final Duration openDuration = Duration.ofMillis(100);
+
+  private ResilientLongIdGeneratorTest() {
+  }
+
+  private static final FaultInjectingLongIdGenerator faultInjecting(final Queue<Long> delaysMillis) {
+    return new FaultInjectingLongIdGenerator(new EphemeralStrictlyIncreasingHiGenerator(0, 0, NoopDelayer.instance()), () -> {
+      @Nullable
+      final Long delayMillis = delaysMillis.poll();
+      if (delayMillis != null) {
+        sleep(delayMillis);
+      }
+    });
+  }
+
+  @Test
+  final void construct() {
+    final LongIdGenerator delegate = () -> 0;
+    final Executor callExecutor = Runnable::run;
+    assertThrows(IllegalArgumentException.class, () -> new ResilientLongIdGenerator(delegate, 0, initialBackoff, maxBackoff, 1, openDuration));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ResilientLongIdGenerator(delegate, 1, Duration.ofMillis(-1), maxBackoff, 1, openDuration));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ResilientLongIdGenerator(delegate, 1, maxBackoff, initialBackoff, 1, openDuration));
+    assertThrows(IllegalArgumentException.class, () -> new ResilientLongIdGenerator(delegate, 1, initialBackoff, maxBackoff, 0, openDuration));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ResilientLongIdGenerator(delegate, 1, initialBackoff, maxBackoff, 1, Duration.ofMillis(-1)));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ResilientLongIdGenerator(delegate, 1, initialBackoff, maxBackoff, Duration.ZERO, 1, openDuration, callExecutor));
+  }
+
+  @Test
+  final void retry() {
+    final FaultInjectingLongIdGenerator delegate = faultInjecting(new ConcurrentLinkedQueue<>());
+    final ResilientLongIdGenerator idGen = new ResilientLongIdGenerator(delegate, 3, initialBackoff, maxBackoff, 3, openDuration);
+    delegate.failNext(2);
+    assertEquals(0, idGen.next());
+    assertEquals(3, delegate.getNumberOfCalls());
+    assertSame(CircuitState.CLOSED, idGen.getCircuitState());
+    delegate.failNext(2);
+    assertEquals(1, idGen.next(), "A successful attempt resets the number of consecutive failed attempts");
+    assertSame(CircuitState.CLOSED, idGen.getCircuitState());
+  }
+
+  @Test
+  final void allAttemptsFail() {
+    final FaultInjectingLongIdGenerator delegate = faultInjecting(new ConcurrentLinkedQueue<>());
+    final ResilientLongIdGenerator idGen = new ResilientLongIdGenerator(delegate, 3, initialBackoff, maxBackoff, 10, openDuration);
+    delegate.failNext(3);
+    final LongIdGeneratorUnavailableException e = assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    assertTrue(e.getCause() instanceof IllegalStateException, e::toString);
+    assertEquals(2, e.getSuppressed().length);
+    assertEquals(3, delegate.getNumberOfCalls());
+    assertSame(CircuitState.CLOSED, idGen.getCircuitState());
+    assertEquals(0, idGen.next());
+  }
+
+  @Test
+  final void timeout() {
+    final Queue<Long> delaysMillis = new ConcurrentLinkedQueue<>();
+    final FaultInjectingLongIdGenerator delegate = faultInjecting(delaysMillis);
+    final ResilientLongIdGenerator idGen = new ResilientLongIdGenerator(
+        delegate, 2, initialBackoff, maxBackoff, Duration.ofMillis(50), 3, openDuration, command -> {
+          final Thread thread = new Thread(command);
+          thread.setDaemon(true);//attempts which have timed out keep sleeping
+          thread.start();
+        });
+    delaysMillis.add(60_000L);
+    final long id = idGen.next();
+    assertTrue(id == 0 || id == 1, () -> String.valueOf(id));
+    assertEquals(2, delegate.getNumberOfCalls());
+    delaysMillis.add(60_000L);
+    delaysMillis.add(60_000L);
+    final LongIdGeneratorUnavailableException e = assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    assertTrue(e.getCause() instanceof TimeoutException, e::toString);
+  }
+
+  @Test
+  final void circuitBreaker() {
+    final FaultInjectingLongIdGenerator delegate = faultInjecting(new ConcurrentLinkedQueue<>());
+    final ResilientLongIdGenerator idGen = new ResilientLongIdGenerator(delegate, 3, initialBackoff, maxBackoff, 2, openDuration);
+    delegate.setUnavailable(true);
+    assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    assertEquals(2, delegate.getNumberOfCalls(), "The circuit breaker must stop retries once it opens");
+    assertSame(CircuitState.OPEN, idGen.getCircuitState());
+    assertNull(assertThrows(LongIdGeneratorUnavailableException.class, idGen::next).getCause());
+    assertEquals(2, delegate.getNumberOfCalls(), "An open circuit breaker must fail fast");
+    sleep(openDuration.toMillis() + 1);
+    assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    assertEquals(3, delegate.getNumberOfCalls(), "A half-open circuit breaker must allow a single attempt");
+    assertSame(CircuitState.OPEN, idGen.getCircuitState());
+    delegate.setUnavailable(false);
+    assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    sleep(openDuration.toMillis() + 1);
+    assertEquals(0, idGen.next());
+    assertSame(CircuitState.CLOSED, idGen.getCircuitState());
+  }
+
+  @Test
+  final void servesCurrentBlockWhileOpen() {
+    final long loUpperBoundOpen = 10;
+    final FaultInjectingLongIdGenerator delegate = faultInjecting(new ConcurrentLinkedQueue<>());
+    final ResilientLongIdGenerator hiGenerator = new ResilientLongIdGenerator(delegate, 1, initialBackoff, maxBackoff, 1, Duration.ofDays(1));
+    final LongIdGenerator idGen = new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, loUpperBoundOpen, false);
+    assertEquals(0, idGen.next());
+    delegate.setUnavailable(true);
+    assertThrows(LongIdGeneratorUnavailableException.class, hiGenerator::next);
+    assertSame(CircuitState.OPEN, hiGenerator.getCircuitState());
+    for (long expectedId = 1; expectedId < loUpperBoundOpen; expectedId++) {
+      assertEquals(expectedId, idGen.next());
+    }
+    final long numberOfCalls = delegate.getNumberOfCalls();
+    assertThrows(LongIdGeneratorUnavailableException.class, idGen::next);
+    assertEquals(numberOfCalls, delegate.getNumberOfCalls());
+  }
+
+  private static final void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static stincmale.idenator.SharedMemoryTwoPhaseLongIdGeneratorTest.newFile;
+import static stincmale.idenator.internal.util.Utils.format;
+import stincmale.idenator.util.TestTag;
+
+/**
+ * Checks that {@link SharedMemoryTwoPhaseLongIdGenerator}s in different processes that share a file generate unique identifiers.
+ */
+@Tag(TestTag.CONCURRENCY)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class SharedMemoryTwoPhaseLongIdGeneratorMultiProcessTest {
+  private static final int NUMBER_OF_PROCESSES = 4;
+  private static final int NUMBER_OF_IDS_PER_PROCESS = 100_000;
+  private static final long LO_UPPER_BOUND_OPEN = 100;
+  private static final int CRASH_EXIT_CODE = 42;
+
+  private SharedMemoryTwoPhaseLongIdGeneratorMultiProcessTest() {
+  }
+
+  @Test
+  final void test() throws IOException, InterruptedException {
+    doTest(-1);
+  }
+
+  /**
+   * One of the processes crashes while holding the refill lock, and the rest of the processes must take the lock over.
+   */
+  @Test
+  final void testCrashWhileRefilling() throws IOException, InterruptedException {
+    doTest(3);
+  }
+
+  /**
+   * @param crashOnHiCall If not negative, the process with index 0 halts on this call of its {@code hiGenerator}.
+   */
+  private static final void doTest(final long crashOnHiCall) throws IOException, InterruptedException {
+    final Path file = newFile();
+    final List<Path> outputs = new ArrayList<>();
+    final List<Process> processes = new ArrayList<>();
+    try {
+      for (int processIdx = 0; processIdx < NUMBER_OF_PROCESSES; processIdx++) {
+        final Path output = newFile();
+        outputs.add(output);
+        processes.add(start(file, processIdx, processIdx == 0 ? crashOnHiCall : -1, output));
+      }
+      final Set<Long> uniqueIds = new HashSet<>();
+      for (int processIdx = 0; processIdx < NUMBER_OF_PROCESSES; processIdx++) {
+        final Process process = processes.get(processIdx);
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES), format("Process %s has not completed in time", processIdx));
+        final boolean crashed = processIdx == 0 && crashOnHiCall >= 0;
+        assertEquals(crashed ? CRASH_EXIT_CODE : 0, process.exitValue(), format("Unexpected exit code of the process %s", processIdx));
+        final long[] ids = readIds(outputs.get(processIdx));
+        if (crashed) {
+          assertTrue(ids.length > 0, "The crashed process must have generated identifiers before crashing");
+        } else {
+          assertEquals(NUMBER_OF_IDS_PER_PROCESS, ids.length);
+        }
+        for (final long id : ids) {
+          assertTrue(uniqueIds.add(id), format("Generated id %s more than once", id));
+        }
+      }
+    } finally {
+      processes.forEach(Process::destroyForcibly);
+      Files.deleteIfExists(file);
+      for (final Path output : outputs) {
+        Files.deleteIfExists(output);
+      }
+    }
+  }
+
+  private static final Process start(final Path file, final int processIdx, final long crashOnHiCall, final Path output) throws IOException {
+    final String modulePath = System.getProperty("jdk.module.path");//surefire puts the main classes on the module path
+    final String classPath = modulePath == null
+        ? System.getProperty("java.class.path")
+        : modulePath + File.pathSeparator + System.getProperty("java.class.path");
+    return new ProcessBuilder(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+        "-ea",
+        "-cp", classPath,
+        Child.class.getName(),
+        file.toString(),
+        String.valueOf(processIdx),
+        String.valueOf(crashOnHiCall),
+        output.toString())
+        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  private static final long[] readIds(final Path output) throws IOException {
+    final long[] result = new long[Math.toIntExact(Files.size(output) / Long.BYTES)];
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(output)))) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] = in.readLong();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The entry point of a process that generates {@link #NUMBER_OF_IDS_PER_PROCESS} identifiers
+   * by using two threads, one of which uses {@link LongIdGenerator#next()}, while the other uses {@link LongIdGenerator#next(long[])}.
+   * Each identifier is written to the output as soon as it is generated.
+   * The {@code hi} values generated by different processes are disjoint: the process with index {@code i}
+   * generates {@code i, i + NUMBER_OF_PROCESSES, i + 2 * NUMBER_OF_PROCESSES, ...}.
+   */
+  static final class Child {
+    private Child() {
+    }
+
+    /**
+     * @param args {@code file}, {@code processIdx}, {@code crashOnHiCall}, {@code output}.
+     */
+    public static final void main(final String[] args) throws IOException, InterruptedException {
+      final Path file = Paths.get(args[0]);
+      final int processIdx = Integer.parseInt(args[1]);
+      final long crashOnHiCall = Long.parseLong(args[2]);
+      final Path output = Paths.get(args[3]);
+      final AtomicLong numberOfHiCalls = new AtomicLong();
+      final LongIdGenerator hiGenerator = () -> {
+        final long hiCallIdx = numberOfHiCalls.getAndIncrement();
+        if (hiCallIdx == crashOnHiCall) {
+          Runtime.getRuntime().halt(CRASH_EXIT_CODE);//crash while holding the refill lock
+        }
+        return processIdx + NUMBER_OF_PROCESSES * hiCallIdx;
+      };
+      final LongIdGenerator idGen = new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, LO_UPPER_BOUND_OPEN, false);
+      final int half = NUMBER_OF_IDS_PER_PROCESS / 2;
+      //the output is not buffered, so that identifiers generated before a crash are written
+      try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(output))) {
+        final Thread singleIdThread = new Thread(() -> {
+          for (int i = 0; i < half; i++) {
+            write(out, idGen.next());
+          }
+        });
+        singleIdThread.start();
+        final long[] batch = new long[16];
+        for (int i = half; i < NUMBER_OF_IDS_PER_PROCESS; ) {
+          idGen.next(batch);
+          final int length = Math.min(batch.length, NUMBER_OF_IDS_PER_PROCESS - i);
+          for (int j = 0; j < length; j++) {
+            write(out, batch[j]);
+          }
+          i += length;
+        }
+        singleIdThread.join();
+      }
+    }
+
+    private static final void write(final DataOutputStream out, final long id) {
+      synchronized (out) {
+        try {
+          out.writeLong(id);
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+  }
+}
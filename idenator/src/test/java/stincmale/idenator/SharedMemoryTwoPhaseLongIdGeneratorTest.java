@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class SharedMemoryTwoPhaseLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final int REFILL_LOCK_OFFSET = 128;
+
+  private SharedMemoryTwoPhaseLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 10, false),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 1, true),
+        new LongIdGeneratorCreatorAndParams(creator(), Long.MAX_VALUE, 10, true));
+  }
+
+  /**
+   * @return A creator of ID generators each of which uses a new file.
+   * The file is deleted right after creating an ID generator, which does not affect the ID generator because the file stays mapped.
+   */
+  static final LongIdGeneratorCreator creator() {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> {
+      try {
+        final Path file = newFile();
+        final LongIdGenerator result = new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, loUpperBoundOpen, pooled);
+        Files.delete(file);
+        return result;
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    };
+  }
+
+  static final Path newFile() throws IOException {
+    final Path file = Files.createTempFile(SharedMemoryTwoPhaseLongIdGenerator.class.getSimpleName(), null);
+    file.toFile().deleteOnExit();
+    return file;
+  }
+
+  @Test
+  final void construct() throws IOException {
+    final Path file = newFile();
+    final LongIdGenerator hiGenerator = () -> 0;
+    assertThrows(IllegalArgumentException.class, () -> new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 1L << 32, false));
+    assertThrows(IllegalArgumentException.class,
+        () -> new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 1, false, Duration.ofMillis(999)));
+    new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 10, false);
+    new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 10, false);
+    assertThrows(IOException.class, () -> new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 11, false));
+    assertThrows(IOException.class, () -> new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 10, true));
+  }
+
+  @Test
+  final void sharedState() throws IOException {
+    final Path file = newFile();
+    final AtomicLong hiCounter = new AtomicLong();
+    final LongIdGenerator hiGenerator = hiCounter::getAndIncrement;
+    final LongIdGenerator idGen1 = new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 10, false);
+    final LongIdGenerator idGen2 = new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, 10, false);
+    for (long expectedId = 0; expectedId < 100; ) {
+      assertEquals(expectedId++, idGen1.next());
+      assertEquals(expectedId++, idGen2.next());
+    }
+    assertEquals(10, hiCounter.get());
+  }
+
+  /**
+   * Emulates a process which crashed while holding the refill lock.
+   */
+  @Test
+  final void refillLockTakeover() throws IOException {
+    final Path file = newFile();
+    final LongIdGenerator idGen = new SharedMemoryTwoPhaseLongIdGenerator(file, () -> 0, 10, false, Duration.ofSeconds(1));
+    final long deadPid = 0x3FFFFF;//Linux never assigns this pid
+    final long farFutureSeconds = 0xFFFF_FFFFL;
+    setRefillLock(file, (((deadPid << 10) | 1) << 32) | farFutureSeconds);
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertEquals(0, idGen.next()));
+    final long ownPid = ProcessHandle.current().pid();
+    final long pastSeconds = 1;
+    setRefillLock(file, (((ownPid << 10) | 1) << 32) | pastSeconds);
+    final long[] ids = new long[10];
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> idGen.next(ids));
+    final Set<Long> uniqueIds = new HashSet<>();
+    for (final long id : ids) {
+      uniqueIds.add(id);
+    }
+    assertTrue(uniqueIds.contains(1L) && uniqueIds.size() == ids.length);
+  }
+
+  /**
+   * Emulates an instance in another process which holds the refill lock.
+   */
+  @Test
+  final void tryNextDoesNotWaitForRefillLock() throws IOException, InterruptedException, TimeoutException {
+    final Path file = newFile();
+    final LongIdGenerator idGen = new SharedMemoryTwoPhaseLongIdGenerator(file, () -> 0, 10, false);
+    final long ownPid = ProcessHandle.current().pid();
+    final long farFutureSeconds = 0xFFFF_FFFFL;
+    setRefillLock(file, (((ownPid << 10) | 1) << 32) | farFutureSeconds);
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      assertTrue(idGen.tryNext().isEmpty(), "tryNext must not wait for the refill lock");
+      assertThrows(TimeoutException.class, () -> idGen.next(Duration.ofMillis(10)));
+    });
+    setRefillLock(file, 0);
+    assertEquals(0, idGen.next(Duration.ofMinutes(1)));
+    assertEquals(OptionalLong.of(1), idGen.tryNext());
+  }
+
+  private static final void setRefillLock(final Path file, final long lockWord) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, channel.size());
+      LONGS.setVolatile(buffer, REFILL_LOCK_OFFSET, lockWord);
+    }
+  }
+}
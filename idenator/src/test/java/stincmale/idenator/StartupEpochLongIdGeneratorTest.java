@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class StartupEpochLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private StartupEpochLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(creator(), 1, 1, false));
+  }
+
+  /**
+   * Creates {@link StartupEpochLongIdGenerator}s which use the supplied {@code hi} value generator as the {@code epochGenerator}.
+   */
+  static final LongIdGeneratorCreator creator() {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new StartupEpochLongIdGenerator(hiGenerator, 32);
+  }
+
+  @Test
+  final void construct() {
+    assertThrows(IllegalArgumentException.class, () -> new StartupEpochLongIdGenerator(() -> 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> new StartupEpochLongIdGenerator(() -> 0, 63));
+    assertThrows(IllegalStateException.class, () -> new StartupEpochLongIdGenerator(() -> -1, 32));
+    assertThrows(IllegalStateException.class, () -> new StartupEpochLongIdGenerator(() -> 1L << 31, 32));
+    assertEquals(Long.MAX_VALUE, new StartupEpochLongIdGenerator(() -> (1L << 31) - 1, 32).next() | 0xFFFF_FFFFL);
+  }
+
+  @Test
+  final void layout() {
+    final StartupEpochLongIdGenerator idGen = new StartupEpochLongIdGenerator(() -> 5, 4);
+    assertEquals(5, idGen.getEpoch());
+    assertEquals(5 << 4, idGen.next());
+    final long[] ids = new long[15];
+    idGen.next(ids);
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals((5 << 4) + i + 1, ids[i]);
+    }
+    assertThrows(IllegalStateException.class, idGen::next, "Counter values must be exhausted");
+    assertThrows(IllegalStateException.class, () -> idGen.next(new long[1]), "Counter values must be exhausted");
+  }
+
+  @Test
+  final void epochFile() throws IOException {
+    final Path dir = Files.createTempDirectory(getClass().getSimpleName());
+    final Path epochFile = dir.resolve("epoch");
+    try {
+      long previousId = -1;
+      for (long expectedEpoch = 0; expectedEpoch < 3; expectedEpoch++) {
+        final StartupEpochLongIdGenerator idGen = new StartupEpochLongIdGenerator(epochFile, 40);
+        assertEquals(expectedEpoch, idGen.getEpoch());
+        final long[] ids = new long[2];
+        idGen.next(ids);
+        assertTrue(ids[0] > previousId, "Identifiers generated after a restart must be greater");
+        assertArrayEquals(new long[] {expectedEpoch << 40, (expectedEpoch << 40) + 1}, ids);
+        previousId = ids[1];
+      }
+    } finally {
+      Files.deleteIfExists(epochFile);
+      Files.delete(dir);
+    }
+  }
+}
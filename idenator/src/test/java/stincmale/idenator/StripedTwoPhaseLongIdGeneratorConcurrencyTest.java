@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.NoopDelayer;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.CONCURRENCY)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class StripedTwoPhaseLongIdGeneratorConcurrencyTest extends AbstractLongIdGeneratorConcurrencyTest {
+  private StripedTwoPhaseLongIdGeneratorConcurrencyTest() {
+    super(2 * Math.max(2, Runtime.getRuntime().availableProcessors()),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, 0, 1, false),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, 0, 10, false),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, 0, 1, true),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, 0, 10, true),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MIN_VALUE + 1, 1, false),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MIN_VALUE + 1, 10, false),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MIN_VALUE + 1, 1, true),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MIN_VALUE + 1, 10, true),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MAX_VALUE, 1, false),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MAX_VALUE, 10, false),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MAX_VALUE, 1, true),
+        new LongIdGeneratorCreatorAndParams(StripedTwoPhaseLongIdGenerator::new, Long.MAX_VALUE, 10, true));
+  }
+
+  @Test
+  final void inflateAndDeflate() throws InterruptedException {
+    final StripedTwoPhaseLongIdGenerator idGen = new StripedTwoPhaseLongIdGenerator(
+        new EphemeralStrictlyIncreasingHiGenerator(0, 99_999, NoopDelayer.instance()), 100_000, true);
+    final int numberOfThreads = 2 * Math.max(2, Runtime.getRuntime().availableProcessors());
+    final ExecutorService ex = Executors.newFixedThreadPool(numberOfThreads);
+    final AtomicBoolean stop = new AtomicBoolean();
+    final CountDownLatch inflated = new CountDownLatch(1);
+    try {
+      for (int i = 0; i < numberOfThreads; i++) {
+        ex.submit(() -> {
+          while (!stop.get()) {
+            idGen.next();
+            if (idGen.getNumberOfStripes() > 1) {
+              inflated.countDown();
+            }
+          }
+        });
+      }
+      assertTrue(inflated.await(Duration.ofMinutes(1).toMillis(), TimeUnit.MILLISECONDS), idGen.toString());
+    } finally {
+      stop.set(true);
+      ex.shutdownNow();
+      assertTrue(ex.awaitTermination(1, TimeUnit.MINUTES));
+    }
+    for (int i = 0; i < 10_000_000 && idGen.getNumberOfStripes() > 1; i++) {//a single thread does not cause contention
+      idGen.next();
+    }
+    assertEquals(1, idGen.getNumberOfStripes(), idGen.toString());
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeoutException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class TimeBasedLongIdGeneratorTest extends AbstractLongIdGeneratorUnitTest {
+  private TimeBasedLongIdGeneratorTest() {
+    super(
+        new LongIdGeneratorCreatorAndParams(creator(), 0, 1, false));
+  }
+
+  /**
+   * Creates {@link TimeBasedLongIdGenerator}s which ignore the supplied {@code hi} value generator,
+   * and allow borrowing from the future as much as needed for tests.
+   */
+  static final LongIdGeneratorCreator creator() {
+    return (hiGenerator, loUpperBoundOpen, pooled) -> new TimeBasedLongIdGenerator(
+        Clock.systemUTC(), Instant.EPOCH, 10, 1, 12, Duration.ofHours(1));
+  }
+
+  @Test
+  final void layout() {
+    final ManualClock clock = new ManualClock(5);
+    final TimeBasedLongIdGenerator idGen = new TimeBasedLongIdGenerator(clock, Instant.EPOCH, 2, 3, 2, Duration.ZERO);
+    assertEquals((5 << (2 + 2)) | (3 << 2) | 0, idGen.next());
+    assertEquals((5 << (2 + 2)) | (3 << 2) | 1, idGen.next());
+  }
+
+  @Test
+  final void borrowFromFuture() {
+    final ManualClock clock = new ManualClock(10);
+    final TimeBasedLongIdGenerator idGen = new TimeBasedLongIdGenerator(clock, Instant.EPOCH, 0, 0, 1, Duration.ofMillis(1));
+    for (long packed = 10 << 1; packed < 12 << 1; packed++) {//the sequence numbers for the millisecond 10 are exhausted, so 11 is borrowed
+      assertEquals(packed, idGen.next());
+    }
+    assertTrue(idGen.tryNext().isEmpty(), "Borrowing more than maxClockSkew from the future is not allowed");
+    assertThrows(IllegalStateException.class, idGen::next);
+    clock.millis = 5;//the clock goes back
+    assertTrue(idGen.tryNext().isEmpty(), "Borrowing more than maxClockSkew from the future is not allowed");
+    clock.millis = 11;
+    assertEquals(12 << 1, idGen.next());
+    assertEquals((12 << 1) + 1, idGen.next());
+  }
+
+  @Test
+  final void timestampsExhausted() {
+    final ManualClock clock = new ManualClock(3);
+    final TimeBasedLongIdGenerator idGen = new TimeBasedLongIdGenerator(clock, Instant.EPOCH, 61, 0, 0, Duration.ofHours(1));
+    assertEquals(3L << 61, idGen.next());
+    assertThrows(IllegalStateException.class, idGen::next);
+    assertThrows(IllegalStateException.class, idGen::tryNext, "Exhausted timestamps must not be reported as clock skew");
+    assertThrows(IllegalStateException.class, () -> idGen.next(Duration.ofMinutes(1)));
+  }
+
+  @Test
+  final void nextTimeoutElapses() {
+    final ManualClock clock = new ManualClock(10);
+    final TimeBasedLongIdGenerator idGen = new TimeBasedLongIdGenerator(clock, Instant.EPOCH, 0, 0, 0, Duration.ZERO);
+    assertEquals(10, idGen.next());
+    assertThrows(TimeoutException.class, () -> idGen.next(Duration.ofMillis(10)));
+  }
+
+  private static final class ManualClock extends Clock {
+    private volatile long millis;
+
+    private ManualClock(final long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public final ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public final Clock withZone(final ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public final long millis() {
+      return millis;
+    }
+
+    @Override
+    public final Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+  }
+}
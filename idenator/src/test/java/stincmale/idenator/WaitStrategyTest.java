@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static stincmale.idenator.internal.util.Utils.deadlineNanos;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class WaitStrategyTest {
+  private static final List<WaitStrategy> waitStrategies = List.of(
+      WaitStrategy.busySpin(),
+      WaitStrategy.yielding(),
+      WaitStrategy.parking(),
+      WaitStrategy.spinThenPark(Duration.ZERO),
+      WaitStrategy.spinThenPark(Duration.ofMillis(1)),
+      WaitStrategy.spinThenPark(Duration.ofMinutes(1)));
+
+  private WaitStrategyTest() {
+  }
+
+  @Test
+  final void await() throws InterruptedException, TimeoutException {
+    for (final WaitStrategy waitStrategy : waitStrategies) {
+      final CompletableFuture<Void> future = new CompletableFuture<>();
+      final Thread completer = new Thread(() -> {
+        try {
+          Thread.sleep(10);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        future.completeExceptionally(new RuntimeException());
+      });
+      completer.start();
+      waitStrategy.await(future, deadlineNanos(Duration.ofMinutes(1)));
+      assertTrue(future.isDone(), waitStrategy.toString());
+      completer.join();
+    }
+  }
+
+  @Test
+  final void awaitTimeout() {
+    for (final WaitStrategy waitStrategy : waitStrategies) {
+      assertThrows(TimeoutException.class,
+          () -> waitStrategy.await(new CompletableFuture<>(), deadlineNanos(Duration.ofMillis(10))), waitStrategy.toString());
+    }
+  }
+
+  @Test
+  final void awaitInterrupted() {
+    for (final WaitStrategy waitStrategy : waitStrategies) {
+      Thread.currentThread().interrupt();
+      assertThrows(InterruptedException.class,
+          () -> waitStrategy.await(new CompletableFuture<>(), deadlineNanos(Duration.ofMinutes(1))), waitStrategy.toString());
+    }
+  }
+}
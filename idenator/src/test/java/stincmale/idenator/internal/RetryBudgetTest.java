@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class RetryBudgetTest {
+  private RetryBudgetTest() {
+  }
+
+  private static final void record(final RetryBudget retryBudget, final int validations, final int failedValidations) {
+    for (int i = 0; i < 100_000; i++) {
+      retryBudget.record(validations, failedValidations);
+    }
+  }
+
+  @Test
+  final void construct() {
+    assertThrows(IllegalArgumentException.class, () -> new RetryBudget(0, 1, 1));
+    assertThrows(IllegalArgumentException.class, () -> new RetryBudget(2, 2, 1));
+    assertThrows(IllegalArgumentException.class, () -> new RetryBudget(2, 1, 3));
+    assertThrows(IllegalArgumentException.class, () -> new RetryBudget(2, 4, 3));
+    assertEquals(3, new RetryBudget(1, 3, 5).get());
+  }
+
+  @Test
+  final void noFailures() {
+    final RetryBudget retryBudget = new RetryBudget(2, 4, 64);
+    record(retryBudget, 1, 0);
+    assertEquals(2, retryBudget.get());
+    assertEquals(0, retryBudget.getFailureRate());
+  }
+
+  @Test
+  final void onlyFailures() {
+    final RetryBudget retryBudget = new RetryBudget(2, 4, 64);
+    record(retryBudget, 1, 1);
+    assertEquals(64, retryBudget.get());
+    assertEquals(1, retryBudget.getFailureRate());
+  }
+
+  @Test
+  final void someFailures() {
+    final RetryBudget retryBudget = new RetryBudget(1, 1, 64);
+    record(retryBudget, 2, 1);
+    assertEquals(0.5, retryBudget.getFailureRate());
+    assertEquals(10, retryBudget.get());//0.5^10 < 0.001 < 0.5^9
+  }
+}
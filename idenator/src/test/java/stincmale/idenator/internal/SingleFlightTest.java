@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.internal;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import stincmale.idenator.util.TestTag;
+
+@Tag(TestTag.UNIT)
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+final class SingleFlightTest {
+  private static final Executor rejectingExecutor = command -> {
+    throw new RejectedExecutionException();
+  };
+
+  private SingleFlightTest() {
+  }
+
+  private static final void fail() {
+    throw new IllegalStateException();
+  }
+
+  @Test
+  final void tryRun() {
+    final SingleFlight singleFlight = new SingleFlight();
+    final AtomicBoolean needed = new AtomicBoolean(true);
+    assertTrue(singleFlight.tryRun(needed::get, () -> needed.set(false), Runnable::run));
+    assertTrue(singleFlight.tryRun(needed::get, SingleFlightTest::fail, Runnable::run), "The action must not be performed if not needed");
+    needed.set(true);
+    assertThrows(IllegalStateException.class, () -> singleFlight.tryRun(needed::get, SingleFlightTest::fail, Runnable::run));
+    assertThrows(RejectedExecutionException.class, () -> singleFlight.tryRun(needed::get, () -> needed.set(false), rejectingExecutor));
+    assertTrue(needed.get());
+    assertFalse(singleFlight.tryRun(needed::get, () -> needed.set(false), command -> {}), "The action must be in progress");
+  }
+
+  @Test
+  final void initiate() {
+    final SingleFlight singleFlight = new SingleFlight();
+    assertNull(singleFlight.initiate(() -> false, SingleFlightTest::fail, Runnable::run));
+    final CompletableFuture<Void> flight = singleFlight.initiate(() -> true, SingleFlightTest::fail, rejectingExecutor);
+    assertTrue(flight.isCompletedExceptionally());
+    assertThrows(CompletionException.class, flight::join);
+  }
+
+  @Test
+  final void awaitCompletedFailure() {
+    final SingleFlight singleFlight = new SingleFlight();
+    final CompletableFuture<Void> flight = singleFlight.initiate(() -> true, SingleFlightTest::fail, command -> new Thread(command).start());
+    assertThrows(CompletionException.class, flight::join);
+    assertThrows(IllegalStateException.class, () -> singleFlight.await(System.nanoTime() + Duration.ofMinutes(1).toNanos()),
+        "The failure of the flight which has completed must be reported");
+  }
+
+  @Test
+  final void next() throws InterruptedException, TimeoutException {
+    final SingleFlight singleFlight = new SingleFlight();
+    assertEquals(1, singleFlight.next(Duration.ZERO, () -> OptionalLong.of(1)));
+    assertThrows(TimeoutException.class, () -> singleFlight.next(Duration.ofMillis(10), OptionalLong::empty),
+        "The deadline must be respected even if there is no flight to wait for");
+    assertThrows(IllegalStateException.class, () -> singleFlight.next(Duration.ofMinutes(1), () -> {
+      singleFlight.tryRun(() -> true, SingleFlightTest::fail, command -> new Thread(command).start());
+      return OptionalLong.empty();
+    }));
+    assertThrows(RejectedExecutionException.class, () -> singleFlight.next(Duration.ofMinutes(1), () -> {
+      singleFlight.tryRun(() -> true, SingleFlightTest::fail, rejectingExecutor);
+      return OptionalLong.empty();
+    }));
+  }
+}
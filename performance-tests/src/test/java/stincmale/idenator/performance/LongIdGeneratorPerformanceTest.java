@@ -16,6 +16,14 @@
 
 package stincmale.idenator.performance;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -27,12 +35,22 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
+import stincmale.idenator.ConcurrentTwoPhaseLongIdGenerator;
 import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.PipelinedTwoPhaseLongIdGenerator;
+import stincmale.idenator.PriorityLanesTwoPhaseLongIdGenerator;
+import stincmale.idenator.PriorityLanesTwoPhaseLongIdGenerator.Lane;
+import stincmale.idenator.SharedMemoryTwoPhaseLongIdGenerator;
+import stincmale.idenator.StartupEpochLongIdGenerator;
+import stincmale.idenator.StripedTwoPhaseLongIdGenerator;
+import stincmale.idenator.TimeBasedLongIdGenerator;
 import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
 import stincmale.idenator.internal.NoopDelayer;
+import stincmale.idenator.internal.variant.FlatCombiningTwoPhaseLongIdGenerator1;
 import stincmale.idenator.internal.variant.OptimisticTwoPhaseLongIdGenerator1;
 import stincmale.idenator.internal.variant.OptimisticTwoPhaseLongIdGenerator2;
 import stincmale.idenator.internal.variant.OptimisticTwoPhaseLongIdGenerator3;
+import stincmale.idenator.internal.variant.SegmentTwoPhaseLongIdGenerator1;
 import stincmale.idenator.internal.variant.StampedTwoPhaseLongIdGenerator1;
 import stincmale.idenator.internal.variant.StampedTwoPhaseLongIdGenerator2;
 import stincmale.idenator.internal.variant.SynchronizedTwoPhaseLongIdGenerator1;
@@ -55,6 +73,11 @@ public class LongIdGeneratorPerformanceTest {
         .run();
   }
 
+  @Test
+  public final void throughputThreads1() throws RunnerException {
+    runThroughputBenchmarks(1);
+  }
+
   @Test
   public final void throughputThreads4() throws RunnerException {
     runThroughputBenchmarks(4);
@@ -65,6 +88,11 @@ public class LongIdGeneratorPerformanceTest {
     runThroughputBenchmarks(32);
   }
 
+  @Test
+  public final void throughputThreads128() throws RunnerException {
+    runThroughputBenchmarks(128);
+  }
+
   @Benchmark
   public final long next(final BenchmarkState state) {
     return state.longIdGenerator.instance.next();
@@ -73,7 +101,7 @@ public class LongIdGeneratorPerformanceTest {
   @State(Scope.Benchmark)
   public static class BenchmarkState {
     @Param
-    //@Param(value = {"concurrentNoLo", "concurrentSmallLo", "concurrentBigLo", "concurrentSmallLoDelay", "concurrentBigLoDelay"})
+    //@Param(value = {"concurrentSmallLo", "concurrentBigLo", "stripedSmallLo", "stripedBigLo"})
     private TestableLongIdGenerator longIdGenerator;
 
     public BenchmarkState() {
@@ -117,12 +145,51 @@ public class LongIdGeneratorPerformanceTest {
     optimistic3SmallLo(OptimisticTwoPhaseLongIdGenerator3::new, smallLo, false),
     optimistic3BigLo(OptimisticTwoPhaseLongIdGenerator3::new, bigLo, false),
     optimistic3SmallLoDelay(OptimisticTwoPhaseLongIdGenerator3::new, smallLo, true),
-    optimistic3BigLoDelay(OptimisticTwoPhaseLongIdGenerator3::new, bigLo, true);
-
-    //    concurrentSmallLo(ConcurrentTwoPhaseLongIdGenerator::new, smallLo, false),
-    //    concurrentBigLo(ConcurrentTwoPhaseLongIdGenerator::new, bigLo, false),
-    //    concurrentSmallLoDelay(ConcurrentTwoPhaseLongIdGenerator::new, smallLo, true),
-    //    concurrentBigLoDelay(ConcurrentTwoPhaseLongIdGenerator::new, bigLo, true);
+    optimistic3BigLoDelay(OptimisticTwoPhaseLongIdGenerator3::new, bigLo, true),
+
+    segment1SmallLo(SegmentTwoPhaseLongIdGenerator1::new, smallLo, false),
+    segment1BigLo(SegmentTwoPhaseLongIdGenerator1::new, bigLo, false),
+    segment1SmallLoDelay(SegmentTwoPhaseLongIdGenerator1::new, smallLo, true),
+    segment1BigLoDelay(SegmentTwoPhaseLongIdGenerator1::new, bigLo, true),
+
+    flatCombining1SmallLo(FlatCombiningTwoPhaseLongIdGenerator1::new, smallLo, false),
+    flatCombining1BigLo(FlatCombiningTwoPhaseLongIdGenerator1::new, bigLo, false),
+    flatCombining1SmallLoDelay(FlatCombiningTwoPhaseLongIdGenerator1::new, smallLo, true),
+    flatCombining1BigLoDelay(FlatCombiningTwoPhaseLongIdGenerator1::new, bigLo, true),
+
+    /**
+     * Borrows from the future when more than 4096 identifiers per millisecond are generated,
+     * hence {@code maxClockSkew} is big enough for the whole benchmark.
+     */
+    timeBased((hiGenerator, loUpperBoundOpen, pooled) -> new TimeBasedLongIdGenerator(
+        Clock.systemUTC(), Instant.EPOCH, 10, 0, 12, Duration.ofDays(1)), smallLo, false),
+
+    startupEpoch((hiGenerator, loUpperBoundOpen, pooled) -> new StartupEpochLongIdGenerator(hiGenerator, 40), smallLo, false),
+
+    concurrentSmallLo(ConcurrentTwoPhaseLongIdGenerator::new, smallLo, false),
+    concurrentBigLo(ConcurrentTwoPhaseLongIdGenerator::new, bigLo, false),
+    concurrentSmallLoDelay(ConcurrentTwoPhaseLongIdGenerator::new, smallLo, true),
+    concurrentBigLoDelay(ConcurrentTwoPhaseLongIdGenerator::new, bigLo, true),
+
+    stripedSmallLo(StripedTwoPhaseLongIdGenerator::new, smallLo, false),
+    stripedBigLo(StripedTwoPhaseLongIdGenerator::new, bigLo, false),
+    stripedSmallLoDelay(StripedTwoPhaseLongIdGenerator::new, smallLo, true),
+    stripedBigLoDelay(StripedTwoPhaseLongIdGenerator::new, bigLo, true),
+
+    priorityLanesSmallLo(TestableLongIdGenerator::interactiveLane, smallLo, false),
+    priorityLanesBigLo(TestableLongIdGenerator::interactiveLane, bigLo, false),
+    priorityLanesSmallLoDelay(TestableLongIdGenerator::interactiveLane, smallLo, true),
+    priorityLanesBigLoDelay(TestableLongIdGenerator::interactiveLane, bigLo, true),
+
+    pipelinedSmallLo(TestableLongIdGenerator::pipelined, smallLo, false),
+    pipelinedBigLo(TestableLongIdGenerator::pipelined, bigLo, false),
+    pipelinedSmallLoDelay(TestableLongIdGenerator::pipelined, smallLo, true),
+    pipelinedBigLoDelay(TestableLongIdGenerator::pipelined, bigLo, true),
+
+    sharedMemorySmallLo(TestableLongIdGenerator::sharedMemory, smallLo, false),
+    sharedMemoryBigLo(TestableLongIdGenerator::sharedMemory, bigLo, false),
+    sharedMemorySmallLoDelay(TestableLongIdGenerator::sharedMemory, smallLo, true),
+    sharedMemoryBigLoDelay(TestableLongIdGenerator::sharedMemory, bigLo, true);
 
     private final LongIdGenerator instance;
 
@@ -137,6 +204,30 @@ public class LongIdGeneratorPerformanceTest {
           loUpperBoundOpen, true);
     }
 
+    private static final LongIdGenerator interactiveLane(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+      return new PriorityLanesTwoPhaseLongIdGenerator(hiGenerator, loUpperBoundOpen, pooled,
+          List.of(new Lane("interactive", 2), new Lane("bulk", 0)))
+          .lane("interactive");
+    }
+
+    private static final LongIdGenerator pipelined(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+      return new PipelinedTwoPhaseLongIdGenerator(() -> {//EphemeralStrictlyIncreasingHiGenerator is not thread-safe
+        synchronized (hiGenerator) {
+          return hiGenerator.next();
+        }
+      }, loUpperBoundOpen, pooled, 2, 8, 4);
+    }
+
+    private static final LongIdGenerator sharedMemory(final LongIdGenerator hiGenerator, final long loUpperBoundOpen, final boolean pooled) {
+      try {
+        final Path file = Files.createTempFile(SharedMemoryTwoPhaseLongIdGenerator.class.getSimpleName(), null);
+        file.toFile().deleteOnExit();
+        return new SharedMemoryTwoPhaseLongIdGenerator(file, hiGenerator, loUpperBoundOpen, pooled);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
     private interface LongIdGeneratorCreator {
       LongIdGenerator create(LongIdGenerator hiGenerator, long loUpperBoundOpen, boolean pooled);
     }
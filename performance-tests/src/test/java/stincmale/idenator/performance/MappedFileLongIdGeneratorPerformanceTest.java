@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package stincmale.idenator.performance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import stincmale.idenator.ConcurrentTwoPhaseLongIdGenerator;
+import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.MappedFileLongIdGenerator;
+import stincmale.idenator.performance.util.JmhOptions;
+
+/**
+ * Measures {@link ConcurrentTwoPhaseLongIdGenerator} which uses {@link MappedFileLongIdGenerator} as its {@code hi} value generator.
+ * The smaller {@code loUpperBoundOpen} and {@code chunkSize} are, the more often the file is forced to the storage device,
+ * so the results depend on the storage device.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class MappedFileLongIdGeneratorPerformanceTest {
+  public MappedFileLongIdGeneratorPerformanceTest() {
+  }
+
+  private static final void runThroughputBenchmarks(final int numberOfThreads) throws RunnerException {
+    new Runner(
+        JmhOptions.includingClass(MappedFileLongIdGeneratorPerformanceTest.class)
+            .mode(Mode.Throughput)
+            .timeUnit(TimeUnit.MICROSECONDS)
+            .threads(numberOfThreads)
+            .build())
+        .run();
+  }
+
+  @Test
+  public final void throughputThreads1() throws RunnerException {
+    runThroughputBenchmarks(1);
+  }
+
+  @Test
+  public final void throughputThreads4() throws RunnerException {
+    runThroughputBenchmarks(4);
+  }
+
+  @Test
+  public final void throughputThreads32() throws RunnerException {
+    runThroughputBenchmarks(32);
+  }
+
+  @Benchmark
+  public final long next(final BenchmarkState state) {
+    return state.longIdGenerator.next();
+  }
+
+  @State(Scope.Benchmark)
+  public static class BenchmarkState {
+    @Param({"10", "10000"})
+    private long loUpperBoundOpen;
+    @Param({"1", "1000"})
+    private long chunkSize;
+    private Path file;
+    private MappedFileLongIdGenerator hiGenerator;
+    private LongIdGenerator longIdGenerator;
+
+    public BenchmarkState() {
+    }
+
+    @Setup(Level.Trial)
+    public final void setup() throws IOException {
+      file = Files.createTempFile(MappedFileLongIdGeneratorPerformanceTest.class.getSimpleName(), null);
+      Files.delete(file);//MappedFileLongIdGenerator creates the file
+      hiGenerator = new MappedFileLongIdGenerator(file, 0, chunkSize);
+      longIdGenerator = new ConcurrentTwoPhaseLongIdGenerator(hiGenerator, loUpperBoundOpen, true);
+    }
+
+    @TearDown(Level.Trial)
+    public final void tearDown() throws IOException {
+      try {
+        hiGenerator.close();
+      } finally {
+        Files.delete(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.performance;
+
+import static java.time.Duration.ofMillis;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import stincmale.idenator.ConcurrentTwoPhaseLongIdGenerator;
+import stincmale.idenator.IdOrdering;
+import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.StripedTwoPhaseLongIdGenerator;
+import stincmale.idenator.internal.Delayer;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.internal.util.VirtualThreads;
+import stincmale.idenator.internal.variant.OptimisticTwoPhaseLongIdGenerator3;
+import stincmale.idenator.internal.variant.StampedTwoPhaseLongIdGenerator1;
+import stincmale.idenator.internal.variant.StampedTwoPhaseLongIdGenerator2;
+import stincmale.idenator.internal.variant.SynchronizedTwoPhaseLongIdGenerator1;
+import stincmale.idenator.internal.variant.SynchronizedTwoPhaseLongIdGenerator2;
+import stincmale.idenator.performance.util.GaussianSleeper;
+import stincmale.idenator.performance.util.JmhOptions;
+
+/**
+ * Compares ID generators used by many virtual threads with a slow {@code hi} value generator, e.g. a database.
+ * A virtual thread which waits for the {@code hi} value generator while holding a monitor pins its carrier thread,
+ * i.e. no other virtual thread can use the carrier thread in the meantime.
+ * <p>
+ * Each benchmark operation starts {@value #numberOfVirtualThreads} virtual threads,
+ * each of which generates {@value #numberOfIdsPerVirtualThread} identifiers, and waits for all of them to complete.
+ * Meanwhile, a probe virtual thread repeatedly sleeps for 1 ms and measures how late it wakes up:
+ * the lateness shows for how long all carrier threads were pinned, i.e. unavailable for other virtual threads.
+ * The secondary results {@code probeLatenessMicros} / {@code probeWakeups} give the mean lateness.
+ * <p>
+ * Requires Java 21+ at run time and the multi-release {@code idenator} JAR built with Java 21+,
+ * but does not require Java 21+ to compile.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class VirtualThreadsPerformanceTest {
+  private static final int numberOfVirtualThreads = 10_000;
+  private static final int numberOfIdsPerVirtualThread = 10;
+  private static final long loUpperBoundOpen = 10_000;
+
+  public VirtualThreadsPerformanceTest() {
+  }
+
+  @Test
+  public final void averageTime() throws RunnerException {
+    Assumptions.assumeTrue(Runtime.version().feature() >= 21, "Virtual threads are not supported");
+    new Runner(
+        JmhOptions.includingClass(VirtualThreadsPerformanceTest.class, false)
+            .mode(Mode.AverageTime)
+            .timeUnit(TimeUnit.MILLISECONDS)
+            .build())
+        .run();
+  }
+
+  @Benchmark
+  public final void next(final BenchmarkState state, final ProbeCounters probeCounters) throws InterruptedException, ExecutionException {
+    final LongIdGenerator longIdGenerator = state.longIdGeneratorInstance;
+    final Probe probe = new Probe();
+    final Future<?> probeCompletion = state.virtualThreads.submit(probe);
+    final Collection<Future<?>> completions = new ArrayList<>(numberOfVirtualThreads);
+    for (int i = 0; i < numberOfVirtualThreads; i++) {
+      completions.add(state.virtualThreads.submit(() -> {
+        for (int j = 0; j < numberOfIdsPerVirtualThread; j++) {
+          longIdGenerator.next();
+        }
+      }));
+    }
+    for (final Future<?> completion : completions) {
+      completion.get();
+    }
+    probe.stop = true;
+    probeCompletion.get();
+    probeCounters.probeWakeups += probe.wakeups;
+    probeCounters.probeLatenessMicros += probe.latenessMicros;
+  }
+
+  @State(Scope.Benchmark)
+  public static class BenchmarkState {
+    @Param
+    private TestableLongIdGenerator longIdGenerator;
+    private LongIdGenerator longIdGeneratorInstance;
+    private ExecutorService virtualThreads;
+
+    public BenchmarkState() {
+    }
+
+    @Setup(Level.Trial)
+    public final void setup() throws ReflectiveOperationException {
+      longIdGeneratorInstance = longIdGenerator.create();
+      //Executors.newVirtualThreadPerTaskExecutor() is not available when compiling for Java 11
+      virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    }
+
+    @TearDown(Level.Trial)
+    public final void tearDown() {
+      virtualThreads.shutdownNow();
+    }
+  }
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class ProbeCounters {
+    public long probeWakeups;
+    public long probeLatenessMicros;
+
+    public ProbeCounters() {
+    }
+
+    @Setup(Level.Iteration)
+    public final void reset() {
+      probeWakeups = 0;
+      probeLatenessMicros = 0;
+    }
+  }
+
+  private static final class Probe implements Runnable {
+    private static final long sleepMillis = 1;
+
+    private volatile boolean stop;
+    private long wakeups;
+    private long latenessMicros;
+
+    private Probe() {
+    }
+
+    @Override
+    public final void run() {
+      while (!stop) {
+        final long startNanos = System.nanoTime();
+        try {
+          Thread.sleep(sleepMillis);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        wakeups++;
+        latenessMicros += Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos) - TimeUnit.MILLISECONDS.toMicros(sleepMillis));
+      }
+    }
+  }
+
+  public enum TestableLongIdGenerator {
+    /**
+     * Waits for the {@code hi} value generator while holding a monitor.
+     */
+    synchronized1(SynchronizedTwoPhaseLongIdGenerator1::new),
+    /**
+     * Waits for the {@code hi} value generator while holding a monitor.
+     */
+    synchronized2(SynchronizedTwoPhaseLongIdGenerator2::new),
+    /**
+     * Waits for the {@code hi} value generator while holding a {@link java.util.concurrent.locks.StampedLock}.
+     */
+    stamped1(StampedTwoPhaseLongIdGenerator1::new),
+    /**
+     * Waits for the {@code hi} value generator while holding a {@link java.util.concurrent.locks.StampedLock}.
+     */
+    stamped2(StampedTwoPhaseLongIdGenerator2::new),
+    /**
+     * Waits for the {@code hi} value generator while holding a {@link java.util.concurrent.locks.StampedLock}.
+     */
+    optimistic3(OptimisticTwoPhaseLongIdGenerator3::new),
+    concurrent(ConcurrentTwoPhaseLongIdGenerator::new),
+    concurrentRelaxed((hiGenerator, loUpperBoundOpen, pooled) -> new ConcurrentTwoPhaseLongIdGenerator(
+        hiGenerator, loUpperBoundOpen, pooled, IdOrdering.RELAXED, VirtualThreads.blockingExecutor())),
+    striped(StripedTwoPhaseLongIdGenerator::new);
+
+    /**
+     * Roughly 2 ms, e.g. {@code hi} values are generated by a database.
+     */
+    private static final Delayer hiDelayer = new GaussianSleeper(ofMillis(2), ofMillis(1));
+
+    private final LongIdGeneratorCreator creator;
+
+    TestableLongIdGenerator(final LongIdGeneratorCreator creator) {
+      this.creator = creator;
+    }
+
+    private final LongIdGenerator create() {
+      return creator.create(new EphemeralStrictlyIncreasingHiGenerator(0, loUpperBoundOpen - 1, hiDelayer), loUpperBoundOpen, true);
+    }
+
+    private interface LongIdGeneratorCreator {
+      LongIdGenerator create(LongIdGenerator hiGenerator, long loUpperBoundOpen, boolean pooled);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Valiantsin Kavalenka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stincmale.idenator.performance;
+
+import java.time.Duration;
+import static java.time.Duration.ofMillis;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import stincmale.idenator.ConcurrentTwoPhaseLongIdGenerator;
+import stincmale.idenator.IdOrdering;
+import stincmale.idenator.LongIdGenerator;
+import stincmale.idenator.WaitStrategy;
+import stincmale.idenator.internal.Delayer;
+import stincmale.idenator.internal.EphemeralStrictlyIncreasingHiGenerator;
+import stincmale.idenator.performance.util.GaussianBlackHoleCpuConsumer;
+import stincmale.idenator.performance.util.GaussianSleeper;
+import stincmale.idenator.performance.util.JmhOptions;
+
+/**
+ * Compares {@link WaitStrategy}s used by {@link ConcurrentTwoPhaseLongIdGenerator} with fast and slow {@code hi} value generators
+ * in order to pick a default {@link WaitStrategy}.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class WaitStrategyPerformanceTest {
+  private static final long loUpperBoundOpen = 1000;
+
+  public WaitStrategyPerformanceTest() {
+  }
+
+  private static final void runThroughputBenchmarks(final int numberOfThreads) throws RunnerException {
+    new Runner(
+        JmhOptions.includingClass(WaitStrategyPerformanceTest.class)
+            .mode(Mode.Throughput)
+            .timeUnit(TimeUnit.MILLISECONDS)
+            .threads(numberOfThreads)
+            .build())
+        .run();
+  }
+
+  @Test
+  public final void throughputThreads4() throws RunnerException {
+    runThroughputBenchmarks(4);
+  }
+
+  @Test
+  public final void throughputThreads32() throws RunnerException {
+    runThroughputBenchmarks(32);
+  }
+
+  @Benchmark
+  public final long next(final BenchmarkState state) {
+    return state.longIdGenerator.next();
+  }
+
+  @State(Scope.Benchmark)
+  public static class BenchmarkState {
+    @Param
+    private TestableWaitStrategy waitStrategy;
+    @Param
+    private TestableHiDelayer hiDelayer;
+    private LongIdGenerator longIdGenerator;
+
+    public BenchmarkState() {
+    }
+
+    @Setup(Level.Trial)
+    public final void setup() {
+      longIdGenerator = new ConcurrentTwoPhaseLongIdGenerator(
+          new EphemeralStrictlyIncreasingHiGenerator(0, loUpperBoundOpen - 1, hiDelayer.instance),
+          loUpperBoundOpen, true, IdOrdering.LINEARIZABLE_MONOTONIC, waitStrategy.instance, ForkJoinPool.commonPool());
+    }
+
+    public enum TestableWaitStrategy {
+      busySpin(WaitStrategy.busySpin()),
+      yielding(WaitStrategy.yielding()),
+      parking(WaitStrategy.parking()),
+      spinThenPark(WaitStrategy.spinThenPark(Duration.ofNanos(50_000)));
+
+      private final WaitStrategy instance;
+
+      TestableWaitStrategy(final WaitStrategy instance) {
+        this.instance = instance;
+      }
+    }
+
+    /**
+     * A different computer/JDK/JMH will most likely require different constructor arguments to achieve the same delays
+     * (see {@link EphemeralStrictlyIncreasingHiGeneratorPerformanceTest}).
+     */
+    public enum TestableHiDelayer {
+      /**
+       * Roughly 10 µs, e.g. {@code hi} values are generated in shared memory.
+       */
+      blackHoleCpuConsumer10us(new GaussianBlackHoleCpuConsumer(5_300, 1_000)),
+      /**
+       * Roughly 20 ms, e.g. {@code hi} values are generated by a database.
+       */
+      sleeper20ms(new GaussianSleeper(ofMillis(20), ofMillis(5)));
+
+      private final Delayer instance;
+
+      TestableHiDelayer(final Delayer instance) {
+        this.instance = instance;
+      }
+    }
+  }
+}
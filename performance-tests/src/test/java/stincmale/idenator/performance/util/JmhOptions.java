@@ -35,12 +35,24 @@ public final class JmhOptions {
   }
 
   public static final OptionsBuilder includingClass(final Class<?> klass) {
-    final OptionsBuilder result = get();
+    return includingClass(klass, JAVA_DISABLE_GC);
+  }
+
+  /**
+   * @param disableGc Whether to use the no-op garbage collector.
+   * Benchmarks that allocate a lot, e.g. start many threads, may run out of memory if it is used.
+   */
+  public static final OptionsBuilder includingClass(final Class<?> klass, final boolean disableGc) {
+    final OptionsBuilder result = get(disableGc);
     result.include(klass.getName() + ".*");
     return result;
   }
 
   public static final OptionsBuilder get() {
+    return get(JAVA_DISABLE_GC);
+  }
+
+  private static final OptionsBuilder get(final boolean disableGc) {
     final OptionsBuilder result = new OptionsBuilder();
     final Collection<String> jvmArgs = new ArrayList<>();
     jvmArgs.add("-Xfuture");
@@ -52,7 +64,7 @@ public final class JmhOptions {
     if (JAVA_DISABLE_BIASED_LOCKING) {
       jvmArgs.add("-XX:-UseBiasedLocking");
     }
-    if (JAVA_DISABLE_GC) {
+    if (disableGc) {
       jvmArgs.add("-XX:+UnlockExperimentalVMOptions");
       jvmArgs.add("-XX:+UseEpsilonGC");
     }